@@ -25,6 +25,7 @@ import org.wso2.carbon.identity.user.store.claim.listener.cache.TenantDomainClai
 import org.wso2.carbon.identity.user.store.claim.listener.cache.TenantDomainClaimCacheEntry;
 import org.wso2.carbon.identity.user.store.claim.listener.cache.TenantDomainClaimCacheKey;
 import org.wso2.carbon.identity.user.store.claim.listener.internal.WSUserStoreClaimListenerComponentHolder;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimMappingChangeNotifier;
 import org.wso2.carbon.user.api.ClaimManager;
 import org.wso2.carbon.user.api.ClaimMapping;
 import org.wso2.carbon.user.api.Tenant;
@@ -84,6 +85,37 @@ public class WSUserStoreClaimListener extends AbstractClaimManagerListener {
         return true;
     }
 
+    @Override
+    public boolean addNewClaimMapping(ClaimMapping mapping) throws org.wso2.carbon.user.core.UserStoreException {
+        notifyClaimMappingChange();
+        return true;
+    }
+
+    @Override
+    public boolean deleteClaimMapping(ClaimMapping mapping) throws org.wso2.carbon.user.core.UserStoreException {
+        notifyClaimMappingChange();
+        return true;
+    }
+
+    @Override
+    public boolean updateClaimMapping(ClaimMapping mapping) throws org.wso2.carbon.user.core.UserStoreException {
+        notifyClaimMappingChange();
+        return true;
+    }
+
+    /**
+     * Make the claim attribute lists of the user stores of the tenant stale, so that they are rebuilt with the
+     * changed claim mappings
+     */
+    private void notifyClaimMappingChange() {
+
+        int currentTenantId = PrivilegedCarbonContext.getThreadLocalCarbonContext().getTenantId();
+        ClaimMappingChangeNotifier.getInstance().notifyChange(currentTenantId);
+        if (log.isDebugEnabled()) {
+            log.debug("Claim mappings changed for tenant: " + currentTenantId);
+        }
+    }
+
     private void updateClaimMapping( String domainName, ClaimMapping claimMapping, String attribute)
             throws UserStoreException {
 
@@ -18,12 +18,12 @@
 
 package org.wso2.carbon.identity.user.store.claim.listener.cache;
 
-import org.wso2.carbon.identity.application.common.cache.BaseCache;
+import org.wso2.carbon.identity.user.store.common.cache.TwoTierCache;
 
 /**
  * Cache for caching domain name with a single reference.
  */
-public class TenantDomainClaimCache extends BaseCache<TenantDomainClaimCacheKey, TenantDomainClaimCacheEntry> {
+public class TenantDomainClaimCache extends TwoTierCache<TenantDomainClaimCacheKey, TenantDomainClaimCacheEntry> {
 
     private static final String SESSION_DATA_CACHE_NAME = "TenantDomainClaimCache";
 
@@ -19,12 +19,19 @@
 package org.wso2.carbon.identity.user.store.claim.listener.cache;
 
 import org.wso2.carbon.identity.application.common.cache.CacheEntry;
+import org.wso2.carbon.identity.user.store.common.cache.SerializationUtil;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * Cache Entry of ClaimDomainCache.
  */
-public class TenantDomainClaimCacheEntry extends CacheEntry {
+public class TenantDomainClaimCacheEntry extends CacheEntry implements Externalizable {
     private static final long serialVersionUID = 3861876161453052819L;
+    private static final byte SERIALIZATION_VERSION = 1;
 
     private String domainReference;
 
@@ -35,4 +42,16 @@ public class TenantDomainClaimCacheEntry extends CacheEntry {
     public void setDomainReference(String domainReference) {
         this.domainReference = domainReference;
     }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(SERIALIZATION_VERSION);
+        SerializationUtil.writeString(out, domainReference);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        SerializationUtil.readVersion(in, SERIALIZATION_VERSION, TenantDomainClaimCacheEntry.class);
+        domainReference = SerializationUtil.readString(in);
+    }
 }
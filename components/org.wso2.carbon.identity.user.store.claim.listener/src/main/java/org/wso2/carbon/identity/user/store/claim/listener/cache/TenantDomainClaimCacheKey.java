@@ -19,14 +19,27 @@
 package org.wso2.carbon.identity.user.store.claim.listener.cache;
 
 import org.wso2.carbon.identity.application.common.cache.CacheKey;
+import org.wso2.carbon.identity.user.store.common.cache.SerializationUtil;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * Cache key of ClaimDomainCache.
  */
-public class TenantDomainClaimCacheKey extends CacheKey {
+public class TenantDomainClaimCacheKey extends CacheKey implements Externalizable {
     private static final long serialVersionUID = -5671481946716831542L;
+    private static final byte SERIALIZATION_VERSION = 1;
     private String domainName;
 
+    /**
+     * Constructor for deserialization
+     */
+    public TenantDomainClaimCacheKey() {
+    }
+
     public TenantDomainClaimCacheKey(String domainName) {
         this.domainName = domainName;
     }
@@ -47,4 +60,18 @@ public class TenantDomainClaimCacheKey extends CacheKey {
     public int hashCode() {
         return domainName.hashCode();
     }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(SERIALIZATION_VERSION);
+        SerializationUtil.writeShortString(out, tenantDomain);
+        SerializationUtil.writeShortString(out, domainName);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        SerializationUtil.readVersion(in, SERIALIZATION_VERSION, TenantDomainClaimCacheKey.class);
+        tenantDomain = SerializationUtil.readShortString(in);
+        domainName = SerializationUtil.readShortString(in);
+    }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.identity.user.store.claim.listener.cache;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+
+/**
+ * Round trips of the Externalizable forms of the ClaimDomainCache key and entry.
+ */
+public class TenantDomainClaimCacheSerializationTest {
+
+    @Test
+    public void testCacheKey() throws Exception {
+
+        TenantDomainClaimCacheKey key = new TenantDomainClaimCacheKey("wso2.com");
+        TenantDomainClaimCacheKey copy = roundTrip(key);
+        Assert.assertEquals(copy, key);
+        Assert.assertEquals(copy.hashCode(), key.hashCode());
+        Assert.assertEquals(copy.getDomainName(), "wso2.com");
+        Assert.assertEquals(copy.getTenantDomain(), key.getTenantDomain());
+    }
+
+    @Test
+    public void testCacheEntry() throws Exception {
+
+        TenantDomainClaimCacheEntry entry = new TenantDomainClaimCacheEntry();
+        entry.setDomainReference("AGENT-\u00df");
+        Assert.assertEquals(roundTrip(entry).getDomainReference(), "AGENT-\u00df");
+        Assert.assertNull(roundTrip(new TenantDomainClaimCacheEntry()).getDomainReference());
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws Exception {
+
+        Externalizable[] values = new Externalizable[] {
+                new TenantDomainClaimCacheKey(), new TenantDomainClaimCacheEntry()
+        };
+        for (Externalizable value : values) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeByte(Byte.MAX_VALUE);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                value.readExternal(in);
+                Assert.fail(value.getClass().getName() + " of an unsupported version was read");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Unsupported serialization version"), e.getMessage());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Serializable> T roundTrip(T value) throws IOException, ClassNotFoundException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Get claims and authenticate-and-fetch requests with the requested attribute list encoded once, so that only the
+ * user specific values are encoded per request.
+ */
+public class ClaimRequestTemplate {
+
+    private final String attributes;
+    private final Set<String> attributeNames;
+    private final String encodedSuffix;
+
+    /**
+     * @param attributes Comma separated list of the requested attributes
+     */
+    public ClaimRequestTemplate(String attributes) {
+        this.attributes = attributes;
+        Set<String> names = new HashSet<>();
+        if (attributes != null) {
+            for (String name : attributes.split(",")) {
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+        this.attributeNames = Collections.unmodifiableSet(names);
+        StringBuilder builder = new StringBuilder(attributes == null ? 16 : attributes.length() + 16);
+        builder.append(",\"claims\":");
+        MessageRequestUtil.appendJSONString(builder, attributes);
+        builder.append('}');
+        this.encodedSuffix = builder.toString();
+    }
+
+    public String getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return Names of the requested attributes
+     */
+    public Set<String> getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * Create the get claims request data of a user
+     * @param username Username
+     * @return Request data
+     */
+    public String getRequestData(String username) {
+        StringBuilder builder = MessageRequestUtil.getRequestBuffer();
+        builder.append("{\"username\":");
+        MessageRequestUtil.appendJSONString(builder, username);
+        builder.append(encodedSuffix);
+        return MessageRequestUtil.toRequestString(builder);
+    }
+
+    /**
+     * Create the authenticate-and-fetch request data of a user
+     * @param username Username
+     * @param password Password characters
+     * @return Request data
+     */
+    public String getAuthenticationRequestData(String username, char[] password) {
+        StringBuilder builder = MessageRequestUtil.getRequestBuffer();
+        builder.append("{\"username\":");
+        MessageRequestUtil.appendJSONString(builder, username);
+        builder.append(",\"password\":");
+        MessageRequestUtil.appendJSONString(builder, password);
+        builder.append(encodedSuffix);
+        return MessageRequestUtil.toCredentialRequestString(builder);
+    }
+}
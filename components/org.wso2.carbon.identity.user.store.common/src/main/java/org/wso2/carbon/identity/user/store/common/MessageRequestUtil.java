@@ -19,10 +19,20 @@ package org.wso2.carbon.identity.user.store.common;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.wso2.carbon.identity.user.store.common.model.AgentCapabilities;
 import org.wso2.carbon.identity.user.store.common.model.UserOperation;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Message request utility to create user operation message which send to queue
  */
@@ -30,6 +40,57 @@ public class MessageRequestUtil {
 
     private static Log LOGGER = LogFactory.getLog(MessageRequestUtil.class);
 
+    private static final int REQUEST_BUFFER_SIZE = 256;
+    private static final int MAX_RETAINED_REQUEST_BUFFER_SIZE = 16 * 1024;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static final ThreadLocal<StringBuilder> REQUEST_BUFFERS = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(REQUEST_BUFFER_SIZE);
+        }
+    };
+
+    /**
+     * Create the authentication request without copying the password into an intermediate string. The request buffer
+     * is overwritten once the request is created.
+     * @param userName Username
+     * @param password Password characters
+     * @return Authentication request
+     */
+    public static String getAuthenticationRequest(String userName, char[] password) {
+        StringBuilder builder = getRequestBuffer();
+        builder.append("{\"username\":");
+        appendJSONString(builder, userName);
+        builder.append(",\"password\":");
+        appendJSONString(builder, password);
+        builder.append('}');
+        return toCredentialRequestString(builder);
+    }
+
+    /**
+     * Create the request to authenticate a batch of users
+     * @param userNames Usernames
+     * @param passwords Password characters, in the order of the usernames
+     * @return Batch authentication request
+     */
+    public static String getBatchAuthenticationRequest(List<String> userNames, List<char[]> passwords) {
+        StringBuilder builder = getRequestBuffer();
+        builder.append("{\"").append(UserStoreConstants.UM_JSON_ELEMENT_CREDENTIALS).append("\":[");
+        for (int i = 0; i < userNames.size(); i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"username\":");
+            appendJSONString(builder, userNames.get(i));
+            builder.append(",\"password\":");
+            appendJSONString(builder, passwords.get(i));
+            builder.append('}');
+        }
+        builder.append("]}");
+        return toCredentialRequestString(builder);
+    }
+
     public static String getAuthenticationRequest(String userName, Object credential) {
         JSONObject jsonObject = new JSONObject();
         try {
@@ -42,46 +103,202 @@ public class MessageRequestUtil {
     }
 
     public static String getRoleListRequest(String filter, int limit) {
-        JSONObject jsonObject = new JSONObject();
-        try {
-            jsonObject.put("filter", filter);
-            jsonObject.put("limit", limit);
-        } catch (JSONException e) {
-            LOGGER.error("Error occurred while creating get role list request", e);
-        }
-        return jsonObject.toString();
+        return getListRequest(filter, limit);
     }
 
     public static String getUserListRequest(String filter, int limit) {
+        return getListRequest(filter, limit);
+    }
+
+    public static String getUserPropertyValuesRequestData(String username, String attributes) {
+        return new ClaimRequestTemplate(attributes).getRequestData(username);
+    }
+
+    public static String doGetExternalRoleListOfUserRequestData(String username) {
+        StringBuilder builder = getRequestBuffer();
+        builder.append("{\"username\":");
+        appendJSONString(builder, username);
+        builder.append('}');
+        return toRequestString(builder);
+    }
+
+    public static String getPingRequest() {
         JSONObject jsonObject = new JSONObject();
         try {
-            jsonObject.put("filter", filter);
-            jsonObject.put("limit", limit);
+            jsonObject.put("timestamp", System.currentTimeMillis());
         } catch (JSONException e) {
-            LOGGER.error("Error occurred while creating get user list request", e);
+            LOGGER.error("Error occurred while creating ping request", e);
         }
         return jsonObject.toString();
     }
 
-    public static String getUserPropertyValuesRequestData(String username, String attributes) {
+    /**
+     * Create the hello request advertising the protocol version and features supported by the server
+     * @param capabilities Capabilities of the server
+     * @return Hello request
+     */
+    public static String getHelloRequest(AgentCapabilities capabilities) {
         JSONObject jsonObject = new JSONObject();
         try {
-            jsonObject.put("username", username);
-            jsonObject.put("claims", attributes);
+            jsonObject.put(UserStoreConstants.UM_JSON_ELEMENT_PROTOCOL_VERSION, capabilities.getProtocolVersion());
+            jsonObject.put(UserStoreConstants.UM_JSON_ELEMENT_CODECS, new JSONArray(capabilities.getCodecs()));
+            jsonObject.put(UserStoreConstants.UM_JSON_ELEMENT_COMPRESSION,
+                    new JSONArray(capabilities.getCompressions()));
+            jsonObject.put(UserStoreConstants.UM_JSON_ELEMENT_BATCHING, capabilities.isBatching());
+            jsonObject.put(UserStoreConstants.UM_JSON_ELEMENT_STREAMING, capabilities.isStreaming());
+            jsonObject.put(UserStoreConstants.UM_JSON_ELEMENT_OPERATIONS, new JSONArray(capabilities.getOperations()));
         } catch (JSONException e) {
-            LOGGER.error("Error occurred while creating get user property values request", e);
+            LOGGER.error("Error occurred while creating hello request", e);
         }
         return jsonObject.toString();
     }
 
-    public static String doGetExternalRoleListOfUserRequestData(String username) {
-        JSONObject jsonObject = new JSONObject();
+    /**
+     * Read the capabilities advertised by an agent in reply to a hello request. Features the agent does not
+     * mention are taken as not supported.
+     * @param responseData Response data of the hello reply
+     * @return Agent capabilities or the baseline capabilities if the reply cannot be read
+     */
+    public static AgentCapabilities getAgentCapabilities(String responseData) {
+        Map<String, String> values = new HashMap<>();
+        List<String> codecs = new ArrayList<>();
+        List<String> compressions = new ArrayList<>();
+        List<String> operations = new ArrayList<>();
+        Map<String, List<String>> arrays = new HashMap<>();
+        arrays.put(UserStoreConstants.UM_JSON_ELEMENT_CODECS, codecs);
+        arrays.put(UserStoreConstants.UM_JSON_ELEMENT_COMPRESSION, compressions);
+        arrays.put(UserStoreConstants.UM_JSON_ELEMENT_OPERATIONS, operations);
         try {
-            jsonObject.put("username", username);
+            MessageResponseReader.readResultObject(responseData, values, arrays);
         } catch (JSONException e) {
-            LOGGER.error("Error occurred while creating get external role request", e);
+            LOGGER.error("Error occurred while reading agent capabilities", e);
+            return AgentCapabilities.getBaseline();
+        }
+        int protocolVersion = UserStoreConstants.PROTOCOL_VERSION_BASELINE;
+        String version = values.get(UserStoreConstants.UM_JSON_ELEMENT_PROTOCOL_VERSION);
+        if (version != null) {
+            try {
+                protocolVersion = Integer.parseInt(version.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warn("Invalid agent protocol version: " + version);
+            }
+        }
+        Set<String> codecSet = codecs.isEmpty() ? Collections.singleton(UserStoreConstants.MESSAGE_CODEC_JSON) :
+                new HashSet<>(codecs);
+        return new AgentCapabilities(protocolVersion, codecSet, new HashSet<>(compressions),
+                Boolean.parseBoolean(values.get(UserStoreConstants.UM_JSON_ELEMENT_BATCHING)),
+                Boolean.parseBoolean(values.get(UserStoreConstants.UM_JSON_ELEMENT_STREAMING)),
+                new HashSet<>(operations));
+    }
+
+    private static String getListRequest(String filter, int limit) {
+        StringBuilder builder = getRequestBuffer();
+        builder.append('{');
+        if (filter != null) {
+            builder.append("\"filter\":");
+            appendJSONString(builder, filter);
+            builder.append(',');
+        }
+        builder.append("\"limit\":").append(limit).append('}');
+        return toRequestString(builder);
+    }
+
+    /**
+     * Get the request buffer of the current thread, emptied
+     * @return Request buffer
+     */
+    static StringBuilder getRequestBuffer() {
+        StringBuilder builder = REQUEST_BUFFERS.get();
+        builder.setLength(0);
+        return builder;
+    }
+
+    /**
+     * Create the request string from the request buffer of the current thread. A buffer grown by an unusually large
+     * request is dropped so that it is not kept for the lifetime of the thread.
+     * @param builder Request buffer
+     * @return Request string
+     */
+    static String toRequestString(StringBuilder builder) {
+        String request = builder.toString();
+        if (builder.capacity() > MAX_RETAINED_REQUEST_BUFFER_SIZE) {
+            REQUEST_BUFFERS.remove();
+        }
+        return request;
+    }
+
+    /**
+     * Create the request string of a request holding a credential from the request buffer of the current thread. The
+     * used part of the buffer is overwritten, so that the thread does not keep the credential until its next request.
+     * @param builder Request buffer
+     * @return Request string
+     */
+    static String toCredentialRequestString(StringBuilder builder) {
+        String request = toRequestString(builder);
+        for (int i = 0; i < builder.length(); i++) {
+            builder.setCharAt(i, '\0');
+        }
+        builder.setLength(0);
+        return request;
+    }
+
+    /**
+     * Append a value as a quoted and escaped JSON string
+     * @param builder Buffer to append to
+     * @param value Value to append
+     */
+    static void appendJSONString(StringBuilder builder, CharSequence value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            appendJSONChar(builder, value.charAt(i));
+        }
+        builder.append('"');
+    }
+
+    static void appendJSONString(StringBuilder builder, char[] value) {
+        if (value == null) {
+            builder.append("null");
+            return;
+        }
+        builder.append('"');
+        for (char c : value) {
+            appendJSONChar(builder, c);
+        }
+        builder.append('"');
+    }
+
+    private static void appendJSONChar(StringBuilder builder, char c) {
+        switch (c) {
+        case '"':
+        case '\\':
+            builder.append('\\').append(c);
+            break;
+        case '\b':
+            builder.append("\\b");
+            break;
+        case '\t':
+            builder.append("\\t");
+            break;
+        case '\n':
+            builder.append("\\n");
+            break;
+        case '\f':
+            builder.append("\\f");
+            break;
+        case '\r':
+            builder.append("\\r");
+            break;
+        default:
+            if (c < ' ') {
+                builder.append("\\u00").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xF]);
+            } else {
+                builder.append(c);
+            }
         }
-        return jsonObject.toString();
     }
 
     public static String getUserOperationJSONMessage(UserOperation userOperation) {
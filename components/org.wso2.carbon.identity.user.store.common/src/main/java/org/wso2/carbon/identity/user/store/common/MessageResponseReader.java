@@ -0,0 +1,373 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common;
+
+import org.json.JSONException;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the response data of agent replies in a single pass and writes the values straight into the target
+ * structures, without building intermediate JSON objects. The result element may be either a JSON value or a
+ * string holding the JSON text of the value.
+ */
+public class MessageResponseReader {
+
+    private final String json;
+    private int position;
+
+    private MessageResponseReader(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Read the result element of a reply
+     * @param responseData Response data of the reply
+     * @return Result as a string. Results that are not strings are returned as their JSON text.
+     * @throws JSONException if the response data is not valid JSON or has no result
+     */
+    public static String readResult(String responseData) throws JSONException {
+        return openResult(responseData).readValue();
+    }
+
+    /**
+     * Read the key/value pairs of the result object of a reply into a map
+     * @param responseData Response data of the reply
+     * @param attributes Map to put the attributes in
+     * @throws JSONException if the response data is not valid JSON or has no result
+     */
+    public static void readAttributes(String responseData, Map<String, String> attributes) throws JSONException {
+        openResult(responseData).openResultObject().readObject(attributes);
+    }
+
+    /**
+     * Read an object of the result object of a reply into a map
+     * @param responseData Response data of the reply
+     * @param name Name of the object in the result, ex. results
+     * @param values Map to put the key/value pairs in
+     * @throws JSONException if the response data is not valid JSON or the object is not found
+     */
+    public static void readMap(String responseData, String name, Map<String, String> values) throws JSONException {
+        MessageResponseReader reader = openResult(responseData).openResultObject();
+        reader.beginObject();
+        String key;
+        while ((key = reader.nextKey()) != null) {
+            if (name.equals(key)) {
+                reader.readObject(values);
+                return;
+            }
+            reader.skipValue();
+        }
+        throw new JSONException("JSONObject[\"" + name + "\"] not found.");
+    }
+
+    /**
+     * Read a string array of the result object of a reply into a list
+     * @param responseData Response data of the reply
+     * @param name Name of the array in the result, ex. groups, usernames
+     * @param values List to add the values to
+     * @throws JSONException if the response data is not valid JSON or the array is not found
+     */
+    public static void readStrings(String responseData, String name, List<String> values) throws JSONException {
+        MessageResponseReader reader = openResult(responseData).openResultObject();
+        reader.beginObject();
+        String key;
+        while ((key = reader.nextKey()) != null) {
+            if (name.equals(key)) {
+                reader.readStringArray(values);
+                return;
+            }
+            reader.skipValue();
+        }
+        throw new JSONException("JSONObject[\"" + name + "\"] not found.");
+    }
+
+    /**
+     * Read the values of the result object of a reply. The arrays named in the given array map are read into their
+     * lists and the other values into the value map as with {@link #readAttributes(String, Map)}.
+     * @param responseData Response data of the reply
+     * @param values Map to put the values in
+     * @param arrays Lists to add the values of the named string arrays to
+     * @throws JSONException if the response data is not valid JSON or has no result
+     */
+    public static void readResultObject(String responseData, Map<String, String> values,
+            Map<String, List<String>> arrays) throws JSONException {
+
+        MessageResponseReader reader = openResult(responseData).openResultObject();
+        reader.beginObject();
+        String key;
+        while ((key = reader.nextKey()) != null) {
+            List<String> array = arrays.get(key);
+            if (array != null && reader.peek() == '[') {
+                reader.readStringArray(array);
+            } else {
+                values.put(key, reader.readValue());
+            }
+        }
+    }
+
+    /**
+     * Read the reply of an authenticate-and-fetch operation. The claims and groups are only read when present.
+     * @param responseData Response data of the reply
+     * @param attributes Map to put the claims of the user in
+     * @param groups List to add the groups of the user to
+     * @return Authentication status
+     * @throws JSONException if the response data is not valid JSON or has no result
+     */
+    public static String readAuthenticationResult(String responseData, Map<String, String> attributes,
+            List<String> groups) throws JSONException {
+
+        MessageResponseReader reader = openResult(responseData).openResultObject();
+        reader.beginObject();
+        String status = null;
+        String key;
+        while ((key = reader.nextKey()) != null) {
+            if (UserStoreConstants.UM_JSON_ELEMENT_AUTHENTICATION_STATUS.equals(key)) {
+                status = reader.readValue();
+            } else if (UserStoreConstants.UM_JSON_ELEMENT_CLAIMS.equals(key)) {
+                reader.readObject(attributes);
+            } else if (UserStoreConstants.UM_JSON_ELEMENT_GROUPS.equals(key)) {
+                reader.readStringArray(groups);
+            } else {
+                reader.skipValue();
+            }
+        }
+        return status;
+    }
+
+    private static MessageResponseReader openResult(String responseData) throws JSONException {
+        if (responseData == null) {
+            throw new JSONException("Response data is null");
+        }
+        MessageResponseReader reader = new MessageResponseReader(responseData);
+        reader.beginObject();
+        String key;
+        while ((key = reader.nextKey()) != null) {
+            if (UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT.equals(key)) {
+                return reader;
+            }
+            reader.skipValue();
+        }
+        throw new JSONException("JSONObject[\"" + UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT +
+                "\"] not found.");
+    }
+
+    private MessageResponseReader openResultObject() throws JSONException {
+        if (peek() == '"') {
+            return new MessageResponseReader(readString());
+        }
+        return this;
+    }
+
+    private void beginObject() throws JSONException {
+        expect('{');
+    }
+
+    /**
+     * @return Next key of the current object or null at the end of the object
+     */
+    private String nextKey() throws JSONException {
+        char c = peek();
+        if (c == ',') {
+            position++;
+            c = peek();
+        }
+        if (c == '}') {
+            position++;
+            return null;
+        }
+        String key = readString();
+        expect(':');
+        return key;
+    }
+
+    private void readObject(Map<String, String> values) throws JSONException {
+        beginObject();
+        String key;
+        while ((key = nextKey()) != null) {
+            values.put(key, readValue());
+        }
+    }
+
+    private void readStringArray(List<String> values) throws JSONException {
+        expect('[');
+        while (true) {
+            char c = peek();
+            if (c == ']') {
+                position++;
+                return;
+            }
+            if (c == ',') {
+                position++;
+                continue;
+            }
+            values.add(readValue());
+        }
+    }
+
+    /**
+     * Read the current value. Strings are returned unescaped, null as null and other values as their JSON text.
+     */
+    private String readValue() throws JSONException {
+        char c = peek();
+        if (c == '"') {
+            return readString();
+        }
+        int start = position;
+        skipValue();
+        String value = json.substring(start, position);
+        return "null".equals(value) ? null : value;
+    }
+
+    private void skipValue() throws JSONException {
+        char c = peek();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 0;
+            do {
+                c = peek();
+                if (c == '"') {
+                    skipString();
+                    continue;
+                }
+                if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                }
+                position++;
+            } while (depth > 0);
+        } else {
+            int start = position;
+            while (position < json.length() && ",}] \t\r\n".indexOf(json.charAt(position)) < 0) {
+                position++;
+            }
+            if (start == position) {
+                throw syntaxError("Value expected");
+            }
+        }
+    }
+
+    private String readString() throws JSONException {
+        expect('"');
+        int start = position;
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c == '"') {
+                return json.substring(start, position++);
+            }
+            if (c == '\\') {
+                return readEscapedString(start);
+            }
+            position++;
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private String readEscapedString(int start) throws JSONException {
+        StringBuilder builder = new StringBuilder(position - start + 16);
+        builder.append(json, start, position);
+        while (position < json.length()) {
+            char c = json.charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (position >= json.length()) {
+                break;
+            }
+            c = json.charAt(position++);
+            switch (c) {
+            case 'b':
+                builder.append('\b');
+                break;
+            case 't':
+                builder.append('\t');
+                break;
+            case 'n':
+                builder.append('\n');
+                break;
+            case 'f':
+                builder.append('\f');
+                break;
+            case 'r':
+                builder.append('\r');
+                break;
+            case 'u':
+                if (position + 4 > json.length()) {
+                    throw syntaxError("Illegal escape");
+                }
+                try {
+                    builder.append((char) Integer.parseInt(json.substring(position, position + 4), 16));
+                } catch (NumberFormatException e) {
+                    throw syntaxError("Illegal escape");
+                }
+                position += 4;
+                break;
+            default:
+                builder.append(c);
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void skipString() throws JSONException {
+        expect('"');
+        while (position < json.length()) {
+            char c = json.charAt(position++);
+            if (c == '"') {
+                return;
+            }
+            if (c == '\\') {
+                position++;
+            }
+        }
+        throw syntaxError("Unterminated string");
+    }
+
+    private void expect(char expected) throws JSONException {
+        if (peek() != expected) {
+            throw syntaxError("Expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    /**
+     * Skip white space and return the next character without consuming it
+     */
+    private char peek() throws JSONException {
+        while (position < json.length()) {
+            char c = json.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n') {
+                return c;
+            }
+            position++;
+        }
+        throw syntaxError("Unexpected end of response data");
+    }
+
+    private JSONException syntaxError(String message) {
+        return new JSONException(message + " at " + position);
+    }
+}
@@ -23,14 +23,24 @@ package org.wso2.carbon.identity.user.store.common;
 public class UserStoreConstants {
 
     public final static String UM_OPERATION_TYPE_AUTHENTICATE = "authenticate";
+    public final static String UM_OPERATION_TYPE_AUTHENTICATE_AND_FETCH = "authenticateandfetch";
+    public final static String UM_OPERATION_TYPE_AUTHENTICATE_BATCH = "authenticatebatch";
     public final static String UM_OPERATION_TYPE_GET_CLAIMS = "getclaims";
     public final static String UM_OPERATION_TYPE_GET_USER_ROLES = "getuserroles";
     public final static String UM_OPERATION_TYPE_GET_ROLES = "getroles";
     public final static String UM_OPERATION_TYPE_GET_USER_LIST = "getuserlist";
     public final static String UM_OPERATION_TYPE_GET_ALL_ATTRIBUTES = "getallattributes";
+    public final static String UM_OPERATION_TYPE_PING = "ping";
     public final static String UM_OPERATION_TYPE_ERROR = "error";
 
     public final static String SERVER_OPERATION_TYPE_KILL_AGENTS = "killagents";
+    public final static String SERVER_OPERATION_TYPE_HELLO = "hello";
+
+    public final static int PROTOCOL_VERSION = 1;
+    public final static int PROTOCOL_VERSION_BASELINE = 0;
+    public final static String MESSAGE_CODEC_JSON = "json";
+    public final static String MESSAGE_COMPRESSION_DEFLATE = "deflate";
+    public final static int MESSAGE_COMPRESSION_THRESHOLD = 1024;
 
     public final static String UM_OPERATION_AUTHENTICATE_RESULT_SUCCESS = "SUCCESS";
 
@@ -41,15 +51,77 @@ public class UserStoreConstants {
     public static final String ACCESS_TOKEN_STATUS_INACTIVE = "I";
     public final static String TOPIC_NAME_REQUEST = "requestTopic";
     public final static String QUEUE_NAME_RESPONSE = "responseQueue";
+    public final static String TOPIC_NAME_CACHE_INVALIDATION = "cacheInvalidationTopic";
     public final static String USER_STORE_PROPERTY_NAME_MESSAGE_BROKER_ENDPOINT = "MessageBrokerEndPointURL";
     public final static String USER_STORE_PROPERTY_NAME_MESSAGE_CONSUME_TIMEOUT = "MessageConsumeTimeout";
     public final static String USER_STORE_PROPERTY_NAME_MESSAGE_LIFETIME = "MessageLifetime";
     public final static String USER_STORE_PROPERTY_NAME_MESSAGE_RETRY_LIMIT = "MessageRetryLimit";
+    public final static String USER_STORE_PROPERTY_NAME_MESSAGE_COMPRESSION_THRESHOLD = "MessageCompressionThreshold";
+    public final static String USER_STORE_PROPERTY_NAME_BULK_AUTHENTICATION_BATCH_SIZE =
+            "BulkAuthenticationBatchSize";
+    public final static String USER_STORE_PROPERTY_NAME_BULK_AUTHENTICATION_PARALLELISM =
+            "BulkAuthenticationParallelism";
+    public final static int BULK_AUTHENTICATION_BATCH_SIZE = 100;
+    public final static int BULK_AUTHENTICATION_PARALLELISM = 4;
+    public final static String USER_STORE_PROPERTY_NAME_CIRCUIT_FAILURE_THRESHOLD = "AgentCircuitFailureThreshold";
+    public final static String USER_STORE_PROPERTY_NAME_CIRCUIT_OPEN_DURATION = "AgentCircuitOpenDuration";
+    public final static int CIRCUIT_FAILURE_THRESHOLD = 5;
+    public final static int CIRCUIT_OPEN_DURATION = 30 * 1000;
+    public final static String USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION = "OfflineAuthenticationEnabled";
+    public final static String USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_EXPIRY = "OfflineAuthenticationExpiry";
+    public final static String USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_MAX_ENTRIES =
+            "OfflineAuthenticationMaxEntries";
+    public final static String USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_ITERATIONS =
+            "OfflineAuthenticationIterations";
+    public final static String USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_PERSISTED =
+            "OfflineAuthenticationPersisted";
+    public final static int OFFLINE_AUTHENTICATION_EXPIRY = 24 * 60 * 60;
+    public final static int OFFLINE_AUTHENTICATION_MAX_ENTRIES = 10000;
+    public final static int OFFLINE_AUTHENTICATION_ITERATIONS = 600000;
+    public final static String USER_STORE_PROPERTY_NAME_FAILED_AUTHENTICATION_CACHE_EXPIRY =
+            "FailedAuthenticationCacheExpiry";
+    public final static String USER_STORE_PROPERTY_NAME_FAILED_AUTHENTICATION_RATE_THRESHOLD =
+            "FailedAuthenticationRateThreshold";
+    public final static int FAILED_AUTHENTICATION_CACHE_EXPIRY = 60;
+    public final static int FAILED_AUTHENTICATION_RATE_THRESHOLD = 10;
+    public final static String USER_STORE_PROPERTY_NAME_CACHE_TENANT_QUOTA = "UserCacheTenantQuota";
+    public final static int CACHE_TENANT_QUOTA = 10000;
+    public final static String USER_STORE_PROPERTY_NAME_ATTRIBUTE_CACHE_SOFT_EXPIRY = "UserAttributeCacheSoftExpiry";
+    public final static String USER_STORE_PROPERTY_NAME_ATTRIBUTE_CACHE_HARD_EXPIRY = "UserAttributeCacheHardExpiry";
+    public final static int ATTRIBUTE_CACHE_SOFT_EXPIRY = 5 * 60;
+    public final static int ATTRIBUTE_CACHE_HARD_EXPIRY = 15 * 60;
+    public final static int ATTRIBUTE_CACHE_EXPIRY_JITTER_PERCENTAGE = 10;
+    public final static String USER_STORE_PROPERTY_NAME_ROLE_CACHE_EXPIRY = "UserRoleCacheExpiry";
+    public final static int ROLE_CACHE_EXPIRY = 60;
+    public final static String USER_STORE_PROPERTY_NAME_HOT_CLAIM_SET_SIZE = "HotClaimSetSize";
+    public final static int HOT_CLAIM_SET_SIZE = 10;
+    public final static String USER_STORE_PROPERTY_NAME_ATTRIBUTE_CACHE_OFF_HEAP_SIZE =
+            "UserAttributeCacheOffHeapSize";
+    public final static int ATTRIBUTE_CACHE_OFF_HEAP_SIZE = 0;
+    public final static String USER_STORE_PROPERTY_NAME_CACHE_SNAPSHOT_ENABLED = "UserCacheSnapshotEnabled";
     public final static long QUEUE_SERVER_MESSAGE_LIFETIME = 5 * 60 * 1000;
+    public final static long CACHE_INVALIDATION_MESSAGE_LIFETIME = 60 * 1000;
+
+    public final static String CACHE_TYPE_AUTHENTICATION = "authentication";
+    public final static String CACHE_TYPE_ATTRIBUTES = "attributes";
+    public final static String CACHE_TYPE_ROLES = "roles";
+    public final static String CACHE_TYPE_ALL = "all";
+    public final static String CACHE_TYPE_CLAIM_MAPPINGS = "claimmappings";
 
     public static final String UM_JSON_ELEMENT_REQUEST_DATA_CORRELATION_ID = "correlationId";
     public static final String UM_JSON_ELEMENT_RESPONSE_DATA = "responseData";
     public static final String UM_JSON_ELEMENT_RESPONSE_DATA_RESULT = "result";
     public static final String UM_JSON_ELEMENT_REQUEST_DATA = "requestData";
     public static final String UM_JSON_ELEMENT_REQUEST_DATA_TYPE = "requestType";
+    public static final String UM_JSON_ELEMENT_PROTOCOL_VERSION = "protocolVersion";
+    public static final String UM_JSON_ELEMENT_CODECS = "codecs";
+    public static final String UM_JSON_ELEMENT_COMPRESSION = "compression";
+    public static final String UM_JSON_ELEMENT_BATCHING = "batching";
+    public static final String UM_JSON_ELEMENT_STREAMING = "streaming";
+    public static final String UM_JSON_ELEMENT_OPERATIONS = "operations";
+    public static final String UM_JSON_ELEMENT_AUTHENTICATION_STATUS = "status";
+    public static final String UM_JSON_ELEMENT_CLAIMS = "claims";
+    public static final String UM_JSON_ELEMENT_GROUPS = "groups";
+    public static final String UM_JSON_ELEMENT_CREDENTIALS = "credentials";
+    public static final String UM_JSON_ELEMENT_RESULTS = "results";
 }
@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.cache;
+
+/**
+ * Estimates the memory used by a cache entry.
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public interface EntryWeigher<K, V> {
+
+    /**
+     * @param key Key
+     * @param value Value
+     * @return Estimated size of the entry, at least 1
+     */
+    int weigh(K key, V value);
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.cache;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded on-heap cache with a time to live, used as the local tier in front of a distributed cache. Reads don't
+ * lock. The size is bounded by a total weight and entries are evicted with a W-TinyLFU style policy:
+ * <ul>
+ * <li>New entries go to a small window holding 1% of the weight, in insertion order.</li>
+ * <li>An entry leaving the window is admitted to the main area only if its recent access frequency is higher than
+ * that of each entry it would evict, so one-off reads ex. listings or scans don't push out frequently used entries.
+ * </li>
+ * <li>The main area evicts with the CLOCK algorithm. An entry read since it was last considered gets another pass.
+ * </li>
+ * </ul>
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class NearCache<K, V> {
+
+    private static final int WINDOW_PERCENTAGE = 1;
+
+    private final ConcurrentMap<K, NearCacheEntry<K, V>> entries = new ConcurrentHashMap<>();
+    private final Map<K, NearCacheEntry<K, V>> window = new LinkedHashMap<>();
+    private final Map<K, NearCacheEntry<K, V>> main = new LinkedHashMap<>();
+    private final Object policyLock = new Object();
+    private final FrequencySketch sketch;
+    private final EntryWeigher<? super K, ? super V> weigher;
+    private final long maximumWeight;
+    private final long windowMaximumWeight;
+    private final long timeToLiveMillis;
+    private long windowWeight;
+    private long mainWeight;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /**
+     * @param maxEntries Maximum number of entries
+     * @param timeToLiveMillis Time in milliseconds an entry is served after it is added
+     */
+    public NearCache(int maxEntries, long timeToLiveMillis) {
+        this(maxEntries, maxEntries, timeToLiveMillis, new EntryWeigher<Object, Object>() {
+            @Override
+            public int weigh(Object key, Object value) {
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * @param maximumWeight Maximum total weight of the entries
+     * @param expectedEntries Expected number of entries when the cache is full, used to size the frequency sketch
+     * @param timeToLiveMillis Time in milliseconds an entry is served after it is added
+     * @param weigher Weigher of the entries
+     */
+    public NearCache(long maximumWeight, int expectedEntries, long timeToLiveMillis,
+            EntryWeigher<? super K, ? super V> weigher) {
+        this.maximumWeight = maximumWeight;
+        this.windowMaximumWeight = Math.max(1, maximumWeight * WINDOW_PERCENTAGE / 100);
+        this.timeToLiveMillis = timeToLiveMillis;
+        this.weigher = weigher;
+        this.sketch = new FrequencySketch(expectedEntries);
+    }
+
+    /**
+     * @param key Key
+     * @return Value or null if not cached or expired
+     */
+    public V get(K key) {
+        sketch.increment(key);
+        NearCacheEntry<K, V> entry = entries.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (entry.expiryTime < System.currentTimeMillis()) {
+            remove(key, entry);
+            missCount.incrementAndGet();
+            return null;
+        }
+        entry.accessed = true;
+        hitCount.incrementAndGet();
+        return entry.value;
+    }
+
+    public void put(K key, V value) {
+        NearCacheEntry<K, V> entry = new NearCacheEntry<>(key, value, Math.max(1, weigher.weigh(key, value)),
+                System.currentTimeMillis() + timeToLiveMillis);
+        synchronized (policyLock) {
+            NearCacheEntry<K, V> previous = entries.put(key, entry);
+            if (previous != null) {
+                unlink(previous);
+            }
+            window.put(key, entry);
+            windowWeight += entry.weight;
+            evict();
+        }
+    }
+
+    public void remove(K key) {
+        synchronized (policyLock) {
+            NearCacheEntry<K, V> entry = entries.remove(key);
+            if (entry != null) {
+                unlink(entry);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (policyLock) {
+            entries.clear();
+            window.clear();
+            main.clear();
+            windowWeight = 0;
+            mainWeight = 0;
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Total weight of the entries
+     */
+    public long getWeight() {
+        synchronized (policyLock) {
+            return windowWeight + mainWeight;
+        }
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return Number of entries evicted or not admitted due to the size bound
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * Get the unexpired entries with the highest recent access frequency
+     * @param maxEntries Maximum number of entries
+     * @return Entries in descending order of access frequency
+     */
+    public List<Map.Entry<K, V>> getHottestEntries(int maxEntries) {
+
+        final Map<NearCacheEntry<K, V>, Integer> frequencies = new LinkedHashMap<>();
+        long now = System.currentTimeMillis();
+        synchronized (policyLock) {
+            for (NearCacheEntry<K, V> entry : entries.values()) {
+                if (entry.expiryTime >= now) {
+                    frequencies.put(entry, sketch.frequency(entry.key));
+                }
+            }
+        }
+        List<NearCacheEntry<K, V>> hottestEntries = new ArrayList<>(frequencies.keySet());
+        Collections.sort(hottestEntries, new Comparator<NearCacheEntry<K, V>>() {
+            @Override
+            public int compare(NearCacheEntry<K, V> entry1, NearCacheEntry<K, V> entry2) {
+                return frequencies.get(entry2).compareTo(frequencies.get(entry1));
+            }
+        });
+        List<Map.Entry<K, V>> result = new ArrayList<>(Math.min(maxEntries, hottestEntries.size()));
+        for (NearCacheEntry<K, V> entry : hottestEntries) {
+            if (result.size() >= maxEntries) {
+                break;
+            }
+            result.add(new AbstractMap.SimpleImmutableEntry<>(entry.key, entry.value));
+        }
+        return result;
+    }
+
+    private void remove(K key, NearCacheEntry<K, V> entry) {
+        synchronized (policyLock) {
+            if (entries.remove(key, entry)) {
+                unlink(entry);
+            }
+        }
+    }
+
+    private void unlink(NearCacheEntry<K, V> entry) {
+        if (window.remove(entry.key) == entry) {
+            windowWeight -= entry.weight;
+        } else if (main.get(entry.key) == entry) {
+            main.remove(entry.key);
+            mainWeight -= entry.weight;
+        }
+    }
+
+    private void evict() {
+        while (windowWeight > windowMaximumWeight) {
+            Iterator<NearCacheEntry<K, V>> iterator = window.values().iterator();
+            NearCacheEntry<K, V> candidate = iterator.next();
+            iterator.remove();
+            windowWeight -= candidate.weight;
+            admit(candidate);
+        }
+    }
+
+    private void admit(NearCacheEntry<K, V> candidate) {
+        long mainMaximumWeight = maximumWeight - windowMaximumWeight;
+        if (candidate.weight > mainMaximumWeight) {
+            discard(candidate);
+            return;
+        }
+        long excessWeight = mainWeight + candidate.weight - mainMaximumWeight;
+        if (excessWeight > 0) {
+            List<NearCacheEntry<K, V>> passedOver = new ArrayList<>();
+            List<NearCacheEntry<K, V>> victims = selectVictims(excessWeight, passedOver);
+            // Nothing is evicted unless the candidate wins against every entry it would replace.
+            long now = System.currentTimeMillis();
+            int candidateFrequency = sketch.frequency(candidate.key);
+            for (NearCacheEntry<K, V> victim : victims) {
+                if (victim.expiryTime >= now && candidateFrequency <= sketch.frequency(victim.key)) {
+                    discard(candidate);
+                    return;
+                }
+            }
+            for (NearCacheEntry<K, V> victim : victims) {
+                main.remove(victim.key);
+                mainWeight -= victim.weight;
+                discard(victim);
+            }
+            for (NearCacheEntry<K, V> entry : passedOver) {
+                if (main.get(entry.key) == entry) {
+                    entry.accessed = false;
+                    main.remove(entry.key);
+                    main.put(entry.key, entry);
+                }
+            }
+        }
+        main.put(candidate.key, candidate);
+        mainWeight += candidate.weight;
+    }
+
+    /**
+     * Select the main area entries to evict to free the given weight, in CLOCK order, without evicting them.
+     * @param weight Weight to free
+     * @param passedOver Entries read since they were last considered, which get another pass if the victims are
+     *                   evicted
+     * @return Entries to evict
+     */
+    private List<NearCacheEntry<K, V>> selectVictims(long weight, List<NearCacheEntry<K, V>> passedOver) {
+
+        List<NearCacheEntry<K, V>> victims = new ArrayList<>();
+        long selectedWeight = 0;
+        for (NearCacheEntry<K, V> entry : main.values()) {
+            if (selectedWeight >= weight) {
+                break;
+            }
+            if (entry.accessed) {
+                passedOver.add(entry);
+            } else {
+                victims.add(entry);
+                selectedWeight += entry.weight;
+            }
+        }
+        Iterator<NearCacheEntry<K, V>> iterator = passedOver.iterator();
+        while (selectedWeight < weight && iterator.hasNext()) {
+            NearCacheEntry<K, V> entry = iterator.next();
+            iterator.remove();
+            victims.add(entry);
+            selectedWeight += entry.weight;
+        }
+        return victims;
+    }
+
+    private void discard(NearCacheEntry<K, V> entry) {
+        entries.remove(entry.key, entry);
+        evictionCount.incrementAndGet();
+    }
+
+    private static class NearCacheEntry<K, V> {
+
+        private final K key;
+        private final V value;
+        private final int weight;
+        private final long expiryTime;
+        private volatile boolean accessed;
+
+        private NearCacheEntry(K key, V value, int weight, long expiryTime) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
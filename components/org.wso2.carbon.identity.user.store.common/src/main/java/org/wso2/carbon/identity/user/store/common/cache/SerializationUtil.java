@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.cache;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.Charset;
+
+/**
+ * Helpers for the Externalizable forms of the cache keys and entries. Strings are written as their UTF-8 length
+ * followed by the UTF-8 bytes, with -1 for null, so that values longer than DataOutput.writeUTF allows are supported.
+ */
+public class SerializationUtil {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private SerializationUtil() {
+    }
+
+    public static void writeString(ObjectOutput out, String value) throws IOException {
+
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    public static String readString(ObjectInput in) throws IOException {
+
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Write a string known to be shorter than 65535 UTF-8 bytes, ex. a username or a domain name
+     * @param out Output
+     * @param value Value
+     * @throws IOException
+     */
+    public static void writeShortString(ObjectOutput out, String value) throws IOException {
+
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    public static String readShortString(ObjectInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    public static void writeBytes(ObjectOutput out, byte[] value) throws IOException {
+
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    public static byte[] readBytes(ObjectInput in) throws IOException {
+
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Read the format version of an entry and check that it can be read
+     * @param in Input
+     * @param supportedVersion Latest version the class reads
+     * @param type Class being read
+     * @return Format version
+     * @throws IOException if the version is newer than the supported version
+     */
+    public static byte readVersion(ObjectInput in, byte supportedVersion, Class<?> type) throws IOException {
+
+        byte version = in.readByte();
+        if (version < 1 || version > supportedVersion) {
+            throw new IOException("Unsupported serialization version: " + version + " of " + type.getName());
+        }
+        return version;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.cache;
+
+import org.wso2.carbon.identity.application.common.cache.BaseCache;
+import org.wso2.carbon.identity.application.common.listener.AbstractCacheListener;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.cache.event.CacheEntryEvent;
+import javax.cache.event.CacheEntryExpiredListener;
+import javax.cache.event.CacheEntryListenerException;
+import javax.cache.event.CacheEntryRemovedListener;
+import javax.cache.event.CacheEntryUpdatedListener;
+
+/**
+ * Carbon cache with a local {@link NearCache} in front of it. Lookups are served from the near cache when possible
+ * so that repeated reads don't go through the cache manager or deserialize from the distributed cache. Entries
+ * updated, removed or expired in the Carbon cache are removed from the near cache. The near cache time to live
+ * bounds the staleness of an entry changed on another node. A node local cache keeps its entries in the near cache
+ * only and never writes them to the Carbon cache.
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class TwoTierCache<K extends Serializable, V extends Serializable> extends BaseCache<K, V> {
+
+    private static final int NEAR_CACHE_MAX_ENTRIES = 10000;
+    protected static final long NEAR_CACHE_TIME_TO_LIVE = 60 * 1000;
+
+    private final NearCache<K, V> nearCache;
+    private final boolean distributed;
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    public TwoTierCache(String cacheName) {
+        this(cacheName, NEAR_CACHE_MAX_ENTRIES, NEAR_CACHE_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param cacheName Carbon cache name
+     * @param nearCacheMaxEntries Maximum number of entries of the near cache
+     * @param nearCacheTimeToLive Time to live of the near cache entries in milliseconds
+     */
+    public TwoTierCache(String cacheName, int nearCacheMaxEntries, long nearCacheTimeToLive) {
+        this(cacheName, new NearCache<K, V>(nearCacheMaxEntries, nearCacheTimeToLive));
+    }
+
+    /**
+     * @param cacheName Carbon cache name
+     * @param nearCache Near cache to put in front of the Carbon cache
+     */
+    public TwoTierCache(String cacheName, NearCache<K, V> nearCache) {
+        this(cacheName, nearCache, true);
+    }
+
+    /**
+     * @param cacheName Carbon cache name
+     * @param nearCache Near cache to put in front of the Carbon cache
+     * @param distributed Whether entries are written to the Carbon cache. Entries of a node local cache are kept in
+     *                    the near cache only.
+     */
+    public TwoTierCache(String cacheName, NearCache<K, V> nearCache, boolean distributed) {
+        super(cacheName);
+        this.nearCache = nearCache;
+        this.distributed = distributed;
+        if (distributed) {
+            addListener(new NearCacheInvalidator());
+        }
+    }
+
+    @Override
+    public void addToCache(K key, V entry) {
+        if (distributed) {
+            super.addToCache(key, entry);
+        }
+        if (isEnabled()) {
+            nearCache.put(key, entry);
+        }
+    }
+
+    @Override
+    public V getValueFromCache(K key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        V entry = nearCache.get(key);
+        if (entry != null) {
+            hitCount.incrementAndGet();
+            return entry;
+        }
+        if (!distributed) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        long invalidationCount = invalidations.get();
+        entry = super.getValueFromCache(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        // Don't keep an entry read before a concurrent invalidation.
+        if (invalidationCount == invalidations.get()) {
+            nearCache.put(key, entry);
+        }
+        return entry;
+    }
+
+    @Override
+    public void clearCacheEntry(K key) {
+        invalidate(key);
+        if (distributed) {
+            super.clearCacheEntry(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        invalidations.incrementAndGet();
+        nearCache.clear();
+        if (distributed) {
+            super.clear();
+        }
+    }
+
+    /**
+     * @return Number of lookups served from either tier
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return Number of lookups served from the near cache
+     */
+    public long getNearCacheHitCount() {
+        return nearCache.getHitCount();
+    }
+
+    /**
+     * @return Number of lookups not found in either tier
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return Number of near cache entries evicted or not admitted due to the size bound
+     */
+    public long getEvictionCount() {
+        return nearCache.getEvictionCount();
+    }
+
+    /**
+     * @return Estimated size of the near cache entries
+     */
+    public long getNearCacheWeight() {
+        return nearCache.getWeight();
+    }
+
+    /**
+     * @param maxEntries Maximum number of entries
+     * @return Near cache entries in descending order of recent access frequency
+     */
+    public List<Map.Entry<K, V>> getHottestEntries(int maxEntries) {
+        return nearCache.getHottestEntries(maxEntries);
+    }
+
+    private void invalidate(K key) {
+        invalidations.incrementAndGet();
+        nearCache.remove(key);
+    }
+
+    /**
+     * Removes the entries changed in the Carbon cache from the near cache.
+     */
+    private class NearCacheInvalidator extends AbstractCacheListener<K, V> implements CacheEntryUpdatedListener<K, V>,
+            CacheEntryRemovedListener<K, V>, CacheEntryExpiredListener<K, V> {
+
+        @Override
+        public void entryUpdated(CacheEntryEvent<? extends K, ? extends V> event)
+                throws CacheEntryListenerException {
+            invalidate(event.getKey());
+        }
+
+        @Override
+        public void entryRemoved(CacheEntryEvent<? extends K, ? extends V> event)
+                throws CacheEntryListenerException {
+            invalidate(event.getKey());
+        }
+
+        @Override
+        public void entryExpired(CacheEntryEvent<? extends K, ? extends V> event)
+                throws CacheEntryListenerException {
+            invalidate(event.getKey());
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.claim;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable list of the attributes mapped to claims in a user store domain, joined once so that requests for all
+ * mapped attributes don't walk the claim mappings. A list is built for a claim mapping version of the tenant and is
+ * replaced when ClaimMappingChangeNotifier reports a newer version or the list gets too old.
+ */
+public final class ClaimAttributeList {
+
+    private final long version;
+    private final long buildTime;
+    private final List<String> attributeNames;
+    private final String attributes;
+
+    /**
+     * @param version Claim mapping version of the tenant read before the claim mappings
+     * @param attributeNames Mapped attributes
+     */
+    public ClaimAttributeList(long version, List<String> attributeNames) {
+
+        this.version = version;
+        this.buildTime = System.currentTimeMillis();
+        this.attributeNames = Collections.unmodifiableList(new ArrayList<>(attributeNames));
+        StringBuilder builder = new StringBuilder();
+        for (String attributeName : attributeNames) {
+            if (builder.length() > 0) {
+                builder.append(',');
+            }
+            builder.append(attributeName);
+        }
+        this.attributes = builder.toString();
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return Time in milliseconds the list was built at
+     */
+    public long getBuildTime() {
+        return buildTime;
+    }
+
+    public List<String> getAttributeNames() {
+        return attributeNames;
+    }
+
+    /**
+     * @return Comma separated mapped attributes
+     */
+    public String getAttributes() {
+        return attributes;
+    }
+}
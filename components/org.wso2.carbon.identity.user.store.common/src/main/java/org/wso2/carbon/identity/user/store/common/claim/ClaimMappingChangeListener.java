@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.claim;
+
+/**
+ * Listener for the claim mapping changes reported on this node, ex. to signal them to the other nodes of the cluster.
+ */
+public interface ClaimMappingChangeListener {
+
+    /**
+     * Called after a claim mapping change of a tenant is reported on this node
+     * @param tenantId Tenant ID
+     */
+    void claimMappingsChanged(int tenantId);
+}
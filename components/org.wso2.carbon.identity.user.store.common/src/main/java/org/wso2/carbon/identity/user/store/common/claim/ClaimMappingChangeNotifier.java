@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.claim;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Claim mapping version of each tenant on this node. The claim manager listener reports each claim mapping change,
+ * which makes the claim attribute lists of the user stores of the tenant stale, and the registered
+ * ClaimMappingChangeListeners signal it to the other nodes, which apply it with {@link #applyChange(int)}. Claim
+ * manager listeners are called before a change is applied, so a list built around a change may hold the previous
+ * mappings. Lists are therefore also rebuilt once they are older than MAX_LIST_AGE.
+ */
+public class ClaimMappingChangeNotifier {
+
+    private static final long MAX_LIST_AGE = 60 * 1000;
+
+    private static ClaimMappingChangeNotifier instance = new ClaimMappingChangeNotifier();
+
+    private final ConcurrentMap<Integer, Long> tenantVersions = new ConcurrentHashMap<>();
+    private final AtomicLong versions = new AtomicLong();
+    private final List<ClaimMappingChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private ClaimMappingChangeNotifier() {
+    }
+
+    public static ClaimMappingChangeNotifier getInstance() {
+        return instance;
+    }
+
+    public void addListener(ClaimMappingChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(ClaimMappingChangeListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Report a change of the claim mappings of a tenant made on this node and signal it to the listeners
+     * @param tenantId Tenant ID
+     */
+    public void notifyChange(int tenantId) {
+        applyChange(tenantId);
+        for (ClaimMappingChangeListener listener : listeners) {
+            listener.claimMappingsChanged(tenantId);
+        }
+    }
+
+    /**
+     * Make the claim attribute lists of a tenant stale without signalling the listeners, ex. for a change made on
+     * another node
+     * @param tenantId Tenant ID
+     */
+    public void applyChange(int tenantId) {
+        tenantVersions.put(tenantId, versions.incrementAndGet());
+    }
+
+    /**
+     * @param tenantId Tenant ID
+     * @return Claim mapping version of the tenant, 0 if no change was reported
+     */
+    public long getVersion(int tenantId) {
+        Long version = tenantVersions.get(tenantId);
+        return version == null ? 0 : version;
+    }
+
+    /**
+     * Check whether a claim attribute list reflects the current claim mappings of a tenant
+     * @param tenantId Tenant ID
+     * @param attributeList Claim attribute list
+     * @return false if the list is null, was built for another version or is older than MAX_LIST_AGE
+     */
+    public boolean isCurrent(int tenantId, ClaimAttributeList attributeList) {
+
+        return attributeList != null && attributeList.getVersion() == getVersion(tenantId)
+                && System.currentTimeMillis() - attributeList.getBuildTime() < MAX_LIST_AGE;
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.messaging;
+
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.common.model.UserOperation;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compresses the request and response data of user operations exchanged with the agents. Payloads smaller than the
+ * threshold are sent as they are. A deflater or an inflater is created for each payload and ended once it is
+ * processed, so that container threads don't hold native zlib memory after the bundle is deactivated.
+ */
+public class PayloadCompressor {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+
+    private static PayloadCompressor instance = new PayloadCompressor();
+
+    private final ThreadLocal<byte[]> buffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
+    private final AtomicLong uncompressedBytes = new AtomicLong();
+    private final AtomicLong compressedBytes = new AtomicLong();
+    private final AtomicLong compressedPayloads = new AtomicLong();
+    private final AtomicLong uncompressedPayloads = new AtomicLong();
+
+    private PayloadCompressor() {
+    }
+
+    public static PayloadCompressor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Compress the request data of a user operation if it is larger than the threshold. The compression is set on
+     * the operation in any case so that the agent can compress its reply.
+     * @param userOperation User operation
+     * @param compression Compression algorithm agreed with the agent, or null to send the operation uncompressed
+     * @param threshold Minimum payload size in bytes to compress
+     */
+    public void compressRequest(UserOperation userOperation, String compression, int threshold) {
+        if (!UserStoreConstants.MESSAGE_COMPRESSION_DEFLATE.equals(compression)) {
+            return;
+        }
+        userOperation.setCompression(compression);
+        byte[] compressed = compress(userOperation.getRequestData(), threshold);
+        if (compressed != null) {
+            userOperation.setCompressedRequestData(compressed);
+            userOperation.setRequestData(null);
+        }
+    }
+
+    /**
+     * Compress the response data of a user operation if the server accepts compression and it is larger than the
+     * threshold.
+     * @param userOperation User operation
+     * @param threshold Minimum payload size in bytes to compress
+     */
+    public void compressResponse(UserOperation userOperation, int threshold) {
+        if (!UserStoreConstants.MESSAGE_COMPRESSION_DEFLATE.equals(userOperation.getCompression())) {
+            return;
+        }
+        byte[] compressed = compress(userOperation.getResponseData(), threshold);
+        if (compressed != null) {
+            userOperation.setCompressedResponseData(compressed);
+            userOperation.setResponseData(null);
+        }
+    }
+
+    /**
+     * Restore the request data of a user operation that was compressed with {@link #compressRequest}
+     * @param userOperation User operation
+     * @throws JMSConnectionException if the compressed data cannot be read
+     */
+    public void decompressRequest(UserOperation userOperation) throws JMSConnectionException {
+        if (userOperation.getCompressedRequestData() != null) {
+            userOperation.setRequestData(decompress(userOperation.getCompression(),
+                    userOperation.getCompressedRequestData()));
+            userOperation.setCompressedRequestData(null);
+        }
+    }
+
+    /**
+     * Restore the response data of a user operation that was compressed with {@link #compressResponse}
+     * @param userOperation User operation
+     * @throws JMSConnectionException if the compressed data cannot be read
+     */
+    public void decompressResponse(UserOperation userOperation) throws JMSConnectionException {
+        if (userOperation.getCompressedResponseData() != null) {
+            userOperation.setResponseData(decompress(userOperation.getCompression(),
+                    userOperation.getCompressedResponseData()));
+            userOperation.setCompressedResponseData(null);
+        }
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.get();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.get();
+    }
+
+    public long getCompressedPayloads() {
+        return compressedPayloads.get();
+    }
+
+    public long getUncompressedPayloads() {
+        return uncompressedPayloads.get();
+    }
+
+    private byte[] compress(String data, int threshold) {
+        if (data == null) {
+            return null;
+        }
+        byte[] input = data.getBytes(UTF_8);
+        if (input.length < threshold) {
+            uncompressedPayloads.incrementAndGet();
+            return null;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] buffer = buffers.get();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(input.length / 4);
+        try {
+            deflater.setInput(input);
+            deflater.finish();
+            while (!deflater.finished()) {
+                outputStream.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+        if (outputStream.size() >= input.length) {
+            uncompressedPayloads.incrementAndGet();
+            return null;
+        }
+        compressedPayloads.incrementAndGet();
+        uncompressedBytes.addAndGet(input.length);
+        compressedBytes.addAndGet(outputStream.size());
+        return outputStream.toByteArray();
+    }
+
+    private String decompress(String compression, byte[] data) throws JMSConnectionException {
+        if (!UserStoreConstants.MESSAGE_COMPRESSION_DEFLATE.equals(compression)) {
+            throw new JMSConnectionException("Unsupported message compression: " + compression);
+        }
+        Inflater inflater = new Inflater();
+        byte[] buffer = buffers.get();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(data.length * 4);
+        try {
+            inflater.setInput(data);
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new JMSConnectionException("Compressed message data is truncated");
+                }
+                outputStream.write(buffer, 0, count);
+                if (outputStream.size() > MAX_INFLATED_SIZE) {
+                    throw new JMSConnectionException("Compressed message data exceeds " + MAX_INFLATED_SIZE +
+                            " bytes");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new JMSConnectionException("Error occurred while decompressing message data", e);
+        } finally {
+            inflater.end();
+        }
+        compressedPayloads.incrementAndGet();
+        compressedBytes.addAndGet(data.length);
+        uncompressedBytes.addAndGet(outputStream.size());
+        return new String(outputStream.toByteArray(), UTF_8);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.common.model;
+
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Protocol features advertised by the agents of a user store in reply to a hello operation.
+ */
+public class AgentCapabilities implements Serializable {
+
+    private static final long serialVersionUID = 4383170262981553347L;
+
+    private static final AgentCapabilities BASELINE = new AgentCapabilities(
+            UserStoreConstants.PROTOCOL_VERSION_BASELINE,
+            Collections.singleton(UserStoreConstants.MESSAGE_CODEC_JSON), Collections.<String>emptySet(), false,
+            false, Collections.<String>emptySet());
+
+    private final int protocolVersion;
+    private final Set<String> codecs;
+    private final Set<String> compressions;
+    private final boolean batching;
+    private final boolean streaming;
+    private final Set<String> operations;
+
+    /**
+     * @param protocolVersion Protocol version of the agent
+     * @param codecs Supported message codecs
+     * @param compressions Supported compression algorithms
+     * @param batching Whether batched requests are supported
+     * @param streaming Whether streamed responses are supported
+     * @param operations Supported optional operation types, ex. authenticateandfetch
+     */
+    public AgentCapabilities(int protocolVersion, Set<String> codecs, Set<String> compressions, boolean batching,
+            boolean streaming, Set<String> operations) {
+        this.protocolVersion = protocolVersion;
+        this.codecs = Collections.unmodifiableSet(new LinkedHashSet<>(codecs));
+        this.compressions = Collections.unmodifiableSet(new LinkedHashSet<>(compressions));
+        this.batching = batching;
+        this.streaming = streaming;
+        this.operations = Collections.unmodifiableSet(new LinkedHashSet<>(operations));
+    }
+
+    /**
+     * Capabilities of agents that do not understand the hello operation
+     * @return Baseline capabilities
+     */
+    public static AgentCapabilities getBaseline() {
+        return BASELINE;
+    }
+
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    public Set<String> getCodecs() {
+        return codecs;
+    }
+
+    public Set<String> getCompressions() {
+        return compressions;
+    }
+
+    public boolean isBatching() {
+        return batching;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public Set<String> getOperations() {
+        return operations;
+    }
+
+    public boolean supportsOperation(String operationType) {
+        return operations.contains(operationType);
+    }
+
+    public boolean supportsCodec(String codec) {
+        return codecs.contains(codec);
+    }
+
+    public boolean supportsCompression(String compression) {
+        return compressions.contains(compression);
+    }
+
+    /**
+     * Pick the first compression algorithm in the given preference order that the agent supports
+     * @param preferred Compression algorithms ordered from the most to the least preferred
+     * @return Selected compression algorithm or null if none of them is supported
+     */
+    public String selectCompression(String... preferred) {
+        for (String compression : preferred) {
+            if (compressions.contains(compression)) {
+                return compression;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the capabilities supported by both this agent and the given agent, ex. to talk to agents of different
+     * versions listening on the same topic
+     * @param other Capabilities of another agent
+     * @return Common capabilities
+     */
+    public AgentCapabilities intersect(AgentCapabilities other) {
+        Set<String> commonCodecs = new LinkedHashSet<>(codecs);
+        commonCodecs.retainAll(other.codecs);
+        Set<String> commonCompressions = new LinkedHashSet<>(compressions);
+        commonCompressions.retainAll(other.compressions);
+        Set<String> commonOperations = new LinkedHashSet<>(operations);
+        commonOperations.retainAll(other.operations);
+        return new AgentCapabilities(Math.min(protocolVersion, other.protocolVersion), commonCodecs,
+                commonCompressions, batching && other.batching, streaming && other.streaming, commonOperations);
+    }
+
+    @Override
+    public String toString() {
+        return "protocolVersion=" + protocolVersion + ", codecs=" + codecs + ", compression=" + compressions +
+                ", batching=" + batching + ", streaming=" + streaming +
+                ", operations=" + operations;
+    }
+}
@@ -32,6 +32,9 @@ public class UserOperation implements Serializable {
     private String tenant;
     private String domain;
     private String serverNode;
+    private String compression;
+    private byte[] compressedRequestData;
+    private byte[] compressedResponseData;
 
     public String getCorrelationId() {
         return correlationId;
@@ -88,4 +91,28 @@ public class UserOperation implements Serializable {
     public void setDomain(String domain) {
         this.domain = domain;
     }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    public void setCompression(String compression) {
+        this.compression = compression;
+    }
+
+    public byte[] getCompressedRequestData() {
+        return compressedRequestData;
+    }
+
+    public void setCompressedRequestData(byte[] compressedRequestData) {
+        this.compressedRequestData = compressedRequestData;
+    }
+
+    public byte[] getCompressedResponseData() {
+        return compressedResponseData;
+    }
+
+    public void setCompressedResponseData(byte[] compressedResponseData) {
+        this.compressedResponseData = compressedResponseData;
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.identity.user.store.common;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.testng.Assert;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares the values read by MessageResponseReader with the values read from the same reply with org.json.
+ */
+public class MessageResponseReaderTest {
+
+    @DataProvider(name = "attributeResults")
+    public Object[][] getAttributeResults() {
+        return new Object[][] {
+                { "{\"givenname\":\"John\",\"lastname\":\"Doe\",\"email\":\"john@wso2.com\"}" },
+                { "{}" },
+                { " { \"givenname\" : \"John\" ,\n\t\"lastname\"\r\n:\"Doe\" } " },
+                { "{\"quoted\":\"a\\\"b\",\"slashes\":\"a\\\\b\\/c\",\"controls\":\"\\b\\f\\n\\r\\t\"}" },
+                { "{\"latin\":\"\\u00e9t\\u00E9\",\"cjk\":\"\\u4e2d\\u6587\",\"emoji\":\"\\ud83d\\ude00\"}" },
+                { "{\"raw\":\"\u00e9\u4e2d\",\"brackets\":\"}]{[,:\",\"empty\":\"\"}" },
+                { "{\"esc\\\"aped\\u0041\":\"key\"}" },
+                { JSONObject.quote("{\"givenname\":\"John\",\"note\":\"a\\\"b\\u00e9\"}") }
+        };
+    }
+
+    @Test(dataProvider = "attributeResults")
+    public void testReadAttributes(String result) throws JSONException {
+
+        String responseData = getResponseData(result);
+        Map<String, String> attributes = new HashMap<>();
+        MessageResponseReader.readAttributes(responseData, attributes);
+
+        JSONObject expected = getResultObject(responseData);
+        Assert.assertEquals(attributes.keySet(), expected.keySet());
+        for (String key : expected.keySet()) {
+            Assert.assertEquals(attributes.get(key), expected.getString(key), key);
+        }
+    }
+
+    @Test
+    public void testReadNestedValues() throws JSONException {
+
+        String responseData = getResponseData("{\"object\":{\"a\":[1,\"x]}\"],\"b\":{\"c\":true}}," +
+                "\"array\":[1,2.5,\"three\",[4],{\"five\":5}],\"number\":-12.5e3,\"flag\":false}");
+        Map<String, String> attributes = new HashMap<>();
+        MessageResponseReader.readAttributes(responseData, attributes);
+
+        JSONObject expected = getResultObject(responseData);
+        Assert.assertTrue(new JSONObject(attributes.get("object")).similar(expected.getJSONObject("object")));
+        Assert.assertTrue(new JSONArray(attributes.get("array")).similar(expected.getJSONArray("array")));
+        Assert.assertEquals(Double.parseDouble(attributes.get("number")), expected.getDouble("number"));
+        Assert.assertEquals(Boolean.parseBoolean(attributes.get("flag")), expected.getBoolean("flag"));
+    }
+
+    @Test
+    public void testReadNullValues() throws JSONException {
+
+        String responseData = getResponseData("{\"givenname\":null,\"lastname\":\"null\"}");
+        Map<String, String> attributes = new HashMap<>();
+        MessageResponseReader.readAttributes(responseData, attributes);
+
+        JSONObject expected = getResultObject(responseData);
+        Assert.assertTrue(attributes.containsKey("givenname"));
+        Assert.assertNull(attributes.get("givenname"));
+        Assert.assertTrue(expected.isNull("givenname"));
+        Assert.assertEquals(attributes.get("lastname"), expected.getString("lastname"));
+    }
+
+    @Test
+    public void testReadStrings() throws JSONException {
+
+        String responseData = getResponseData("{\"before\":{\"groups\":[\"nested\"]},\"groups\":[\"admin\"," +
+                "\"a\\\"b\",\"\\u00e9\", \"x]\" ],\"after\":[\"other\"]}");
+        List<String> groups = new ArrayList<>();
+        MessageResponseReader.readStrings(responseData, UserStoreConstants.UM_JSON_ELEMENT_GROUPS, groups);
+
+        Assert.assertEquals(groups, toList(getResultObject(responseData).getJSONArray("groups")));
+    }
+
+    @Test
+    public void testReadEmptyStrings() throws JSONException {
+
+        List<String> groups = new ArrayList<>();
+        MessageResponseReader.readStrings(getResponseData("{\"groups\":[]}"), UserStoreConstants.UM_JSON_ELEMENT_GROUPS,
+                groups);
+        Assert.assertEquals(groups, Collections.<String>emptyList());
+    }
+
+    @Test
+    public void testReadMap() throws JSONException {
+
+        String responseData = getResponseData("{\"count\":2,\"results\":{\"alice\":\"SUCCESS\",\"bob\":\"FAIL\"}}");
+        Map<String, String> results = new HashMap<>();
+        MessageResponseReader.readMap(responseData, UserStoreConstants.UM_JSON_ELEMENT_RESULTS, results);
+
+        JSONObject expected = getResultObject(responseData).getJSONObject("results");
+        Assert.assertEquals(results.keySet(), expected.keySet());
+        for (String key : expected.keySet()) {
+            Assert.assertEquals(results.get(key), expected.getString(key));
+        }
+    }
+
+    @Test
+    public void testReadResult() throws JSONException {
+
+        String responseData = getResponseData("\"SUCCESS\"");
+        Assert.assertEquals(MessageResponseReader.readResult(responseData),
+                new JSONObject(responseData).get(UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT).toString());
+    }
+
+    @Test
+    public void testReadAuthenticationResult() throws JSONException {
+
+        String responseData = getResponseData("{\"status\":\"SUCCESS\",\"claims\":{\"givenname\":\"J\\u00f6hn\"}," +
+                "\"extra\":{\"groups\":[\"ignored\"]},\"groups\":[\"admin\",\"dev\"]}");
+        Map<String, String> attributes = new HashMap<>();
+        List<String> groups = new ArrayList<>();
+        String status = MessageResponseReader.readAuthenticationResult(responseData, attributes, groups);
+
+        JSONObject expected = getResultObject(responseData);
+        Assert.assertEquals(status, expected.getString("status"));
+        Assert.assertEquals(attributes.get("givenname"), expected.getJSONObject("claims").getString("givenname"));
+        Assert.assertEquals(groups, toList(expected.getJSONArray("groups")));
+    }
+
+    @Test
+    public void testReadResultObject() throws JSONException {
+
+        String responseData = getResponseData("{\"protocolVersion\":2,\"codecs\":[\"json\",\"binary\"]," +
+                "\"operations\":[],\"batching\":true,\"name\":\"agent\"}");
+        Map<String, String> values = new HashMap<>();
+        Map<String, List<String>> arrays = new HashMap<>();
+        arrays.put("codecs", new ArrayList<String>());
+        arrays.put("operations", new ArrayList<String>());
+        MessageResponseReader.readResultObject(responseData, values, arrays);
+
+        JSONObject expected = getResultObject(responseData);
+        Assert.assertEquals(Integer.parseInt(values.get("protocolVersion")), expected.getInt("protocolVersion"));
+        Assert.assertEquals(Boolean.parseBoolean(values.get("batching")), expected.getBoolean("batching"));
+        Assert.assertEquals(values.get("name"), expected.getString("name"));
+        Assert.assertEquals(arrays.get("codecs"), toList(expected.getJSONArray("codecs")));
+        Assert.assertTrue(arrays.get("operations").isEmpty());
+    }
+
+    @DataProvider(name = "malformedResponses")
+    public Object[][] getMalformedResponses() {
+        return new Object[][] {
+                { "" },
+                { "[]" },
+                { "{\"correlationId\":\"1\"}" },
+                { "{\"result\":{\"givenname\":\"John\"" },
+                { "{\"result\":{\"givenname\":\"John}}" },
+                { "{\"result\":{\"givenname\":\"\\u12G4\"}}" },
+                { "{\"result\":{\"givenname\":\"\\u12\"}}" },
+                { "{\"result\":{\"givenname\" \"John\"}}" },
+                { "{\"result\":{\"givenname\":}}" },
+                { "{\"result\":" }
+        };
+    }
+
+    @Test(dataProvider = "malformedResponses")
+    public void testReadMalformedResponse(String responseData) {
+
+        try {
+            getResultObject(responseData);
+            Assert.fail("org.json accepted: " + responseData);
+        } catch (JSONException e) {
+            // Expected
+        }
+        try {
+            MessageResponseReader.readAttributes(responseData, new HashMap<String, String>());
+            Assert.fail("MessageResponseReader accepted: " + responseData);
+        } catch (JSONException e) {
+            // Expected
+        }
+    }
+
+    @Test(expectedExceptions = JSONException.class)
+    public void testReadNullResponse() throws JSONException {
+        MessageResponseReader.readAttributes(null, new HashMap<String, String>());
+    }
+
+    @Test(expectedExceptions = JSONException.class)
+    public void testReadMissingArray() throws JSONException {
+        MessageResponseReader.readStrings(getResponseData("{\"usernames\":[\"alice\"]}"),
+                UserStoreConstants.UM_JSON_ELEMENT_GROUPS, new ArrayList<String>());
+    }
+
+    private String getResponseData(String result) {
+        return "{\"correlationId\":\"5a2f\",\"result\":" + result + ",\"tenantDomain\":\"carbon.super\"}";
+    }
+
+    /**
+     * Read the result object the way the replies were read before MessageResponseReader
+     */
+    private JSONObject getResultObject(String responseData) throws JSONException {
+        JSONObject responseObject = new JSONObject(responseData);
+        return new JSONObject(responseObject.get(UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT).toString());
+    }
+
+    private List<String> toList(JSONArray array) throws JSONException {
+        List<String> values = new ArrayList<>();
+        Iterator<Object> iterator = array.iterator();
+        while (iterator.hasNext()) {
+            values.add((String) iterator.next());
+        }
+        return values;
+    }
+}
@@ -24,6 +24,7 @@ import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
 import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionException;
 import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionFactory;
 import org.wso2.carbon.identity.user.store.common.model.ServerOperation;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentCapabilityManager;
 import org.wso2.carbon.user.api.RealmConfiguration;
 import org.wso2.carbon.user.api.UserStoreException;
 
@@ -81,6 +82,7 @@ public class AgentConnectionHandler {
                 addNextServerOperationToTopic(UserStoreConstants.SERVER_OPERATION_TYPE_KILL_AGENTS, domain,
                         tenantDomain,
                         requestSession, producer, responseQueue);
+                AgentCapabilityManager.getInstance().removeCapabilities(tenantDomain, domain);
 
             } catch (JMSConnectionException e) {
                 LOGGER.error("Error occurred while creating JMS Connection", e);
@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound;
+
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.outbound.messaging.OperationProfiles;
+import org.wso2.carbon.identity.user.store.outbound.offline.OfflineAuthenticationConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the settings of an outbound user store parsed from its user store properties: the per
+ * operation type timeout and retry settings, and the compression, bulk authentication, circuit breaker, offline
+ * authentication and cache settings. A snapshot keeps a copy of the properties it was built from, so that changes
+ * to the properties are detected whether the properties are replaced or changed in place.
+ */
+public class UserStoreSettings {
+
+    private final Map<String, String> source;
+    private final OperationProfiles operationProfiles;
+    private final int compressionThreshold;
+    private final int bulkBatchSize;
+    private final int bulkParallelism;
+    private final int circuitFailureThreshold;
+    private final long circuitOpenDuration;
+    private final OfflineAuthenticationConfig offlineAuthenticationConfig;
+    private final long failedAuthenticationCacheExpiry;
+    private final int failedAuthenticationRateThreshold;
+    private final int cacheTenantQuota;
+    private final long attributeCacheSoftExpiry;
+    private final long attributeCacheHardExpiry;
+    private final long roleCacheExpiry;
+    private final int hotClaimSetSize;
+    private final long attributeCacheOffHeapSize;
+    private final boolean cacheSnapshotEnabled;
+
+    private UserStoreSettings(Map<String, String> source) {
+        this.source = source;
+        this.operationProfiles = OperationProfiles.build(source);
+        this.compressionThreshold = getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_COMPRESSION_THRESHOLD,
+                UserStoreConstants.MESSAGE_COMPRESSION_THRESHOLD);
+        this.bulkBatchSize = Math.max(1, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_BULK_AUTHENTICATION_BATCH_SIZE,
+                UserStoreConstants.BULK_AUTHENTICATION_BATCH_SIZE));
+        this.bulkParallelism = Math.max(1, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_BULK_AUTHENTICATION_PARALLELISM,
+                UserStoreConstants.BULK_AUTHENTICATION_PARALLELISM));
+        this.circuitFailureThreshold = Math.max(1, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_CIRCUIT_FAILURE_THRESHOLD,
+                UserStoreConstants.CIRCUIT_FAILURE_THRESHOLD));
+        this.circuitOpenDuration = getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_CIRCUIT_OPEN_DURATION,
+                UserStoreConstants.CIRCUIT_OPEN_DURATION);
+        this.offlineAuthenticationConfig = new OfflineAuthenticationConfig(
+                Boolean.parseBoolean(source.get(UserStoreConstants.USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION)),
+                getValue(source, UserStoreConstants.USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_EXPIRY,
+                        UserStoreConstants.OFFLINE_AUTHENTICATION_EXPIRY) * 1000L,
+                Math.max(1, getValue(source,
+                        UserStoreConstants.USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_MAX_ENTRIES,
+                        UserStoreConstants.OFFLINE_AUTHENTICATION_MAX_ENTRIES)),
+                Math.max(1, getValue(source,
+                        UserStoreConstants.USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_ITERATIONS,
+                        UserStoreConstants.OFFLINE_AUTHENTICATION_ITERATIONS)),
+                Boolean.parseBoolean(source.get(
+                        UserStoreConstants.USER_STORE_PROPERTY_NAME_OFFLINE_AUTHENTICATION_PERSISTED)));
+        this.failedAuthenticationCacheExpiry = getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_FAILED_AUTHENTICATION_CACHE_EXPIRY,
+                UserStoreConstants.FAILED_AUTHENTICATION_CACHE_EXPIRY) * 1000L;
+        this.failedAuthenticationRateThreshold = Math.max(1, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_FAILED_AUTHENTICATION_RATE_THRESHOLD,
+                UserStoreConstants.FAILED_AUTHENTICATION_RATE_THRESHOLD));
+        this.cacheTenantQuota = Math.max(1, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_CACHE_TENANT_QUOTA, UserStoreConstants.CACHE_TENANT_QUOTA));
+        this.attributeCacheSoftExpiry = getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_ATTRIBUTE_CACHE_SOFT_EXPIRY,
+                UserStoreConstants.ATTRIBUTE_CACHE_SOFT_EXPIRY) * 1000L;
+        this.attributeCacheHardExpiry = Math.max(attributeCacheSoftExpiry, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_ATTRIBUTE_CACHE_HARD_EXPIRY,
+                UserStoreConstants.ATTRIBUTE_CACHE_HARD_EXPIRY) * 1000L);
+        this.roleCacheExpiry = Math.max(0, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_ROLE_CACHE_EXPIRY,
+                UserStoreConstants.ROLE_CACHE_EXPIRY)) * 1000L;
+        this.hotClaimSetSize = getValue(source, UserStoreConstants.USER_STORE_PROPERTY_NAME_HOT_CLAIM_SET_SIZE,
+                UserStoreConstants.HOT_CLAIM_SET_SIZE);
+        this.attributeCacheOffHeapSize = Math.max(0, getValue(source,
+                UserStoreConstants.USER_STORE_PROPERTY_NAME_ATTRIBUTE_CACHE_OFF_HEAP_SIZE,
+                UserStoreConstants.ATTRIBUTE_CACHE_OFF_HEAP_SIZE)) * 1024L * 1024L;
+        this.cacheSnapshotEnabled = Boolean.parseBoolean(
+                source.get(UserStoreConstants.USER_STORE_PROPERTY_NAME_CACHE_SNAPSHOT_ENABLED));
+    }
+
+    /**
+     * Parse the settings from the user store properties
+     * @param userStoreProperties User store properties
+     * @return Settings
+     * @throws NumberFormatException if a base timeout or retry value is missing or invalid
+     */
+    public static UserStoreSettings build(Map<String, String> userStoreProperties) {
+        return new UserStoreSettings(new HashMap<>(userStoreProperties));
+    }
+
+    /**
+     * @return Timeout and retry settings of each operation type
+     */
+    public OperationProfiles getOperationProfiles() {
+        return operationProfiles;
+    }
+
+    /**
+     * @return Minimum size in bytes of the payloads that are compressed
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @return Maximum number of credentials sent in one batch authentication request
+     */
+    public int getBulkBatchSize() {
+        return bulkBatchSize;
+    }
+
+    /**
+     * @return Maximum number of bulk authentication requests of one call in flight at a time
+     */
+    public int getBulkParallelism() {
+        return bulkParallelism;
+    }
+
+    /**
+     * @return Number of consecutive requests without a reply that opens the agent circuit
+     */
+    public int getCircuitFailureThreshold() {
+        return circuitFailureThreshold;
+    }
+
+    /**
+     * @return Time in milliseconds the agent circuit stays open before a trial request is sent
+     */
+    public long getCircuitOpenDuration() {
+        return circuitOpenDuration;
+    }
+
+    public OfflineAuthenticationConfig getOfflineAuthenticationConfig() {
+        return offlineAuthenticationConfig;
+    }
+
+    /**
+     * @return Time in milliseconds a credential rejected by the agents is answered locally, 0 if disabled
+     */
+    public long getFailedAuthenticationCacheExpiry() {
+        return failedAuthenticationCacheExpiry;
+    }
+
+    /**
+     * @return Number of failures of a user within the failed authentication cache expiry above which the rejected
+     * credentials of the user are cached for longer
+     */
+    public int getFailedAuthenticationRateThreshold() {
+        return failedAuthenticationRateThreshold;
+    }
+
+    /**
+     * @return Maximum number of entries the tenant holds in each user cache
+     */
+    public int getCacheTenantQuota() {
+        return cacheTenantQuota;
+    }
+
+    /**
+     * @return Time in milliseconds after which cached attributes are refreshed in the background
+     */
+    public long getAttributeCacheSoftExpiry() {
+        return attributeCacheSoftExpiry;
+    }
+
+    /**
+     * @return Time in milliseconds after which cached attributes are no longer served
+     */
+    public long getAttributeCacheHardExpiry() {
+        return attributeCacheHardExpiry;
+    }
+
+    /**
+     * @return Time in milliseconds the role list of a user read from the agents is served from UserRoleCache, 0 if
+     * role lists are not cached
+     */
+    public long getRoleCacheExpiry() {
+        return roleCacheExpiry;
+    }
+
+    /**
+     * @return Maximum number of most requested attributes fetched when the attributes of a user are not cached, 0 to
+     * fetch all mapped attributes
+     */
+    public int getHotClaimSetSize() {
+        return hotClaimSetSize;
+    }
+
+    /**
+     * @return Size in bytes of the off heap buffer user attributes are cached in, 0 to cache them in
+     * UserAttributeCache
+     */
+    public long getAttributeCacheOffHeapSize() {
+        return attributeCacheOffHeapSize;
+    }
+
+    /**
+     * @return true if the hottest attribute and role cache entries are saved locally and loaded after a restart
+     */
+    public boolean isCacheSnapshotEnabled() {
+        return cacheSnapshotEnabled;
+    }
+
+    /**
+     * @param userStoreProperties User store properties
+     * @return true if this snapshot was built from properties equal to the given ones
+     */
+    public boolean isBuiltFrom(Map<String, String> userStoreProperties) {
+        return source.equals(userStoreProperties);
+    }
+
+    private static int getValue(Map<String, String> userStoreProperties, String propertyName, int defaultValue) {
+        return OperationProfiles.getValue(userStoreProperties, propertyName, defaultValue);
+    }
+}
@@ -17,19 +17,36 @@
  */
 package org.wso2.carbon.identity.user.store.outbound;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 import org.wso2.carbon.CarbonConstants;
 import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.identity.user.store.common.ClaimRequestTemplate;
 import org.wso2.carbon.identity.user.store.common.MessageRequestUtil;
+import org.wso2.carbon.identity.user.store.common.MessageResponseReader;
 import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimAttributeList;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimMappingChangeNotifier;
 import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionException;
-import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionFactory;
+import org.wso2.carbon.identity.user.store.common.messaging.PayloadCompressor;
+import org.wso2.carbon.identity.user.store.common.model.AgentCapabilities;
+import org.wso2.carbon.identity.user.store.common.model.CacheInvalidation;
 import org.wso2.carbon.identity.user.store.common.model.UserOperation;
 import org.wso2.carbon.identity.user.store.outbound.cache.*;
+import org.wso2.carbon.identity.user.store.outbound.internal.WSUserStoreComponentHolder;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentCapabilityManager;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentCircuitBreaker;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentCircuitBreakerManager;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentMessageChannel;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentMessageChannelManager;
+import org.wso2.carbon.identity.user.store.outbound.messaging.CacheInvalidationChannelManager;
+import org.wso2.carbon.identity.user.store.outbound.messaging.OperationProfile;
+import org.wso2.carbon.identity.user.store.outbound.offline.OfflineAuthenticationConfig;
+import org.wso2.carbon.identity.user.store.outbound.offline.OfflineVerifierManager;
+import org.wso2.carbon.identity.user.store.outbound.offline.OfflineVerifierStore;
+import org.wso2.carbon.identity.user.store.outbound.util.CredentialFingerprinter;
 import org.wso2.carbon.user.api.ClaimMapping;
 import org.wso2.carbon.user.api.Properties;
 import org.wso2.carbon.user.api.Property;
@@ -47,19 +64,21 @@ import org.wso2.carbon.user.core.util.DatabaseUtil;
 import org.wso2.carbon.user.core.util.JDBCRealmUtil;
 import org.wso2.carbon.user.core.util.UserCoreUtil;
 import org.wso2.carbon.utils.Secret;
+import org.wso2.carbon.utils.UnsupportedSecretTypeException;
 
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.security.GeneralSecurityException;
 import java.util.*;
-import javax.jms.Connection;
-import javax.jms.DeliveryMode;
-import javax.jms.Destination;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.jms.JMSException;
-import javax.jms.Message;
-import javax.jms.MessageConsumer;
-import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
-import javax.jms.Session;
 
 /**
  * Outbound Agent User store manager
@@ -67,9 +86,31 @@ import javax.jms.Session;
 public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
 
     private static Log LOGGER = LogFactory.getLog(WSOutboundUserStoreManager.class);
-    private static String JMS_CORRELATIONID_FILTER = "JMSCorrelationID='%s'";
-
-    private final String SHA_256 = "SHA-256";
+    private static final long NEGOTIATION_RETRY_INTERVAL = 30 * 1000;
+    private static final int CLAIM_REQUEST_TEMPLATE_CACHE_SIZE = 64;
+
+    private static final AgentCapabilities SERVER_CAPABILITIES = new AgentCapabilities(
+            UserStoreConstants.PROTOCOL_VERSION, Collections.singleton(UserStoreConstants.MESSAGE_CODEC_JSON),
+            Collections.singleton(UserStoreConstants.MESSAGE_COMPRESSION_DEFLATE), false, false,
+            new HashSet<>(Arrays.asList(UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE_AND_FETCH,
+                    UserStoreConstants.UM_OPERATION_TYPE_PING)));
+
+    private volatile UserStoreSettings userStoreSettings;
+    private final AtomicBoolean negotiatingCapabilities = new AtomicBoolean();
+    private volatile long lastNegotiationTime;
+    private volatile ClaimAttributeList claimAttributeList;
+    private volatile ClaimRequestTemplate claimRequestTemplate;
+    private volatile ClaimRequestTemplate hotClaimRequestTemplate;
+    private final Map<String, ClaimRequestTemplate> claimRequestTemplates =
+            new LinkedHashMap<String, ClaimRequestTemplate>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ClaimRequestTemplate> eldest) {
+                    return size() > CLAIM_REQUEST_TEMPLATE_CACHE_SIZE;
+                }
+            };
+    private volatile String tenantDomain;
+    private final ConcurrentMap<UserAttributeCacheKey, AttributeFetch> attributeFetches =
+            new ConcurrentHashMap<>();
 
     public WSOutboundUserStoreManager() {
 
@@ -120,6 +161,10 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
 
 	/* Initialize user roles cache as implemented in AbstractUserStoreManager */
         initUserRolesCache();
+
+        registerCacheSnapshot();
+        CacheInvalidationChannelManager.getInstance().subscribe(getMessageBrokerURL());
+        warmUpAgentChannel();
     }
 
     public WSOutboundUserStoreManager(org.wso2.carbon.user.api.RealmConfiguration realmConfig,
@@ -160,46 +205,71 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
 
     @Override
     public boolean doAuthenticate(String userName, Object credential) throws UserStoreException {
-        Date startDate = new Date();
+        long startTime = System.currentTimeMillis();
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Processing authentication request for tenantId  - [" + this.tenantId + "]");
         }
 
         if (userName != null && credential != null) {
             Secret secret = (Secret) credential;
+            UserStoreSettings settings = getSettings();
+            String userKey = getFailedAuthenticationKey(userName);
             String identifier;
+            Boolean cachedAuthentication;
             try {
-                identifier = getSha256SecuredIdentifier(String.copyValueOf(secret.getChars()));
-            } catch (NoSuchAlgorithmException e) {
-                LOGGER.error("Error occurred while generating identifier.", e);
-                return false;
-            }
-            UserAuthCacheKey userAuthCacheKey = new UserAuthCacheKey(userName);
-            UserAuthCacheEntry userAuthCacheEntry = UserAuthCache.getInstance().getValueFromCache(userAuthCacheKey);
-
-            if (userAuthCacheEntry != null) {
-                if (identifier.equals(userAuthCacheEntry.getUserIdentifier())) {
+                identifier = CredentialFingerprinter.getInstance().getIdentifier(userName, secret.getChars());
+                if (settings.getFailedAuthenticationCacheExpiry() > 0
+                        && FailedAuthenticationCache.getInstance().isRejected(userKey, identifier)) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Failed authentication cache hit for user : " + userName + ". Authentication " +
+                                "completed in " + (System.currentTimeMillis() - startTime) + "ms.");
+                    }
+                    return false;
+                }
+                cachedAuthentication = isAuthenticatedFromCache(userName, secret.getChars());
+                if (Boolean.TRUE.equals(cachedAuthentication)) {
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("Cache hit for user : " + userName + ". Authentication completed in "
-                                + (new Date().getTime() - startDate.getTime()) + "ms.");
+                                + (System.currentTimeMillis() - startTime) + "ms.");
                     }
                     return true;
-                } else {
-                    UserAuthCache.getInstance().clearCacheEntry(userAuthCacheKey);
                 }
+            } catch (GeneralSecurityException e) {
+                LOGGER.error("Error occurred while generating identifier.", e);
+                return false;
+            }
+
+            OfflineAuthenticationConfig offlineConfig = settings.getOfflineAuthenticationConfig();
+            if (offlineConfig.isEnabled() && getCircuitBreaker().isOpen()
+                    && getOfflineVerifierStore(offlineConfig).verify(userName, secret.getChars())) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Agents unreachable. User : " + userName + " authenticated offline in "
+                            + (System.currentTimeMillis() - startTime) + "ms.");
+                }
+                return true;
             }
 
-            boolean isAuthenticated = processAuthenticationRequest(userName, credential);
+            Boolean authenticationResult = processAuthenticationRequest(userName, credential);
+            boolean isAuthenticated = Boolean.TRUE.equals(authenticationResult);
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Authentication the user:" + userName + " completed with result:"
-                        + isAuthenticated + " in " + (new Date().getTime() - startDate.getTime()) + "ms.");
+                        + isAuthenticated + " in " + (System.currentTimeMillis() - startTime) + "ms.");
             }
             if (isAuthenticated) {
-                String lockedString = userName + "@WSOutboundUserStoreManager_doAuthenticate";
-                synchronized (lockedString.intern()) {
-                    if (UserAuthCache.getInstance().getValueFromCache(userAuthCacheKey) == null) {
-                        UserAuthCache.getInstance().addToCache(userAuthCacheKey, new UserAuthCacheEntry(identifier));
-                    }
+                if (Boolean.FALSE.equals(cachedAuthentication)) {
+                    // The credential changed. Other nodes may still accept the previous one from their caches.
+                    invalidateUserCache(userName, UserStoreConstants.CACHE_TYPE_AUTHENTICATION);
+                }
+                addAuthenticationToCache(userName, secret.getChars());
+                FailedAuthenticationCache.getInstance().resetFailures(userKey);
+                if (offlineConfig.isEnabled()) {
+                    addOfflineVerifier(userName, secret.getChars(), offlineConfig);
+                }
+            } else if (authenticationResult != null) {
+                FailedAuthenticationCache.getInstance().addRejection(userKey, identifier,
+                        settings.getFailedAuthenticationCacheExpiry(), settings.getFailedAuthenticationRateThreshold());
+                if (offlineConfig.isEnabled()) {
+                    getOfflineVerifierStore(offlineConfig).removeMatchingVerifier(userName, secret.getChars());
                 }
             }
 
@@ -208,129 +278,681 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
         return false;
     }
 
-    private String getSha256SecuredIdentifier(String originalIdentifier) throws NoSuchAlgorithmException {
-        String sha256Identifier;
-        MessageDigest md = MessageDigest.getInstance(SHA_256);
-        md.update(originalIdentifier.getBytes());
-        byte[] hashInBytes = md.digest();
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hashInBytes) {
-            sb.append(String.format("%02x", b));
-        }
-        sha256Identifier = sb.toString();
-        return sha256Identifier;
-    }
+    /**
+     * Verify the credentials of many users, ex. to validate a user migration. Users with a matching entry in the
+     * authentication cache are answered from the cache. The others are sent to the agents in batches when the agents
+     * support batching, or one user per request otherwise, with at most BulkAuthenticationParallelism requests of
+     * this call in flight.
+     * @param credentials Credentials by username
+     * @return Authentication result by username, in the iteration order of the given credentials
+     */
+    public Map<String, Boolean> bulkAuthenticate(Map<String, Object> credentials) {
 
-    private boolean processAuthenticationRequest(String userName, Object credential) {
         Date startDate = new Date();
-        JMSConnectionFactory connectionFactory = new JMSConnectionFactory();
-        Connection connection = null;
-        Session requestSession;
-        Session responseSession;
-        Destination requestTopic;
-        Destination responseQueue;
-        MessageProducer producer;
+        final UserStoreSettings settings = getSettings();
+        final Map<String, Boolean> results = new ConcurrentHashMap<>();
+        List<PendingAuthentication> pendingAuthentications = new ArrayList<>();
+        for (Map.Entry<String, Object> credential : credentials.entrySet()) {
+            String userName = credential.getKey();
+            if (userName == null) {
+                continue;
+            }
+            results.put(userName, false);
+            if (credential.getValue() == null) {
+                continue;
+            }
+            try {
+                char[] password = Secret.getSecret(credential.getValue()).getChars();
+                String identifier = CredentialFingerprinter.getInstance().getIdentifier(userName, password);
+                if (settings.getFailedAuthenticationCacheExpiry() > 0 && FailedAuthenticationCache.getInstance()
+                        .isRejected(getFailedAuthenticationKey(userName), identifier)) {
+                    continue;
+                }
+                if (Boolean.TRUE.equals(isAuthenticatedFromCache(userName, password))) {
+                    results.put(userName, true);
+                    continue;
+                }
+                pendingAuthentications.add(new PendingAuthentication(userName, password.clone(), identifier));
+            } catch (UnsupportedSecretTypeException e) {
+                LOGGER.error("Unsupported credential type for user: " + userName, e);
+            } catch (GeneralSecurityException e) {
+                LOGGER.error("Error occurred while generating identifier.", e);
+            }
+        }
+
+        final boolean batching = getAgentCapabilities().isBatching();
+        int batchSize = batching ? settings.getBulkBatchSize() : 1;
+        final Queue<List<PendingAuthentication>> batches = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < pendingAuthentications.size(); i += batchSize) {
+            batches.add(pendingAuthentications.subList(i, Math.min(i + batchSize, pendingAuthentications.size())));
+        }
 
+        int workerCount = Math.min(settings.getBulkParallelism(), batches.size());
+        List<Future<?>> workers = new ArrayList<>(workerCount);
+        Runnable bulkWorker = new Runnable() {
+            @Override
+            public void run() {
+                List<PendingAuthentication> batch;
+                while (!Thread.currentThread().isInterrupted() && (batch = batches.poll()) != null) {
+                    try {
+                        if (batching) {
+                            processBatchAuthenticationRequest(batch, results, settings);
+                        } else {
+                            PendingAuthentication pending = batch.get(0);
+                            Boolean authenticationResult = sendAuthenticationRequest(pending.userName,
+                                    pending.password);
+                            if (authenticationResult != null) {
+                                recordAuthenticationResult(pending, authenticationResult, settings);
+                                results.put(pending.userName, authenticationResult);
+                            }
+                        }
+                    } finally {
+                        clearPasswords(batch);
+                    }
+                }
+            }
+        };
+        for (int i = 0; i < workerCount; i++) {
+            try {
+                workers.add(WSUserStoreComponentHolder.getInstance().getBulkExecutor().submit(bulkWorker));
+            } catch (RejectedExecutionException e) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Bulk authentication worker rejected. Submitted " + workers.size() + " workers", e);
+                }
+                break;
+            }
+        }
         try {
+            if (workers.isEmpty()) {
+                // The bulk executor is shut down. The batches are sent from the calling thread.
+                bulkWorker.run();
+            }
+            for (Future<?> worker : workers) {
+                try {
+                    worker.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    for (Future<?> pendingWorker : workers) {
+                        pendingWorker.cancel(true);
+                    }
+                    break;
+                } catch (ExecutionException e) {
+                    LOGGER.error("Error occurred during bulk authentication for tenant: " + tenantId, e);
+                }
+            }
+        } finally {
+            // Batches taken by a worker are cleared by the worker, the ones never taken are cleared here.
+            List<PendingAuthentication> batch;
+            while ((batch = batches.poll()) != null) {
+                clearPasswords(batch);
+            }
+        }
+
+        Map<String, Boolean> orderedResults = new LinkedHashMap<>();
+        for (String userName : credentials.keySet()) {
+            if (userName != null) {
+                orderedResults.put(userName, results.get(userName));
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Bulk authentication of " + orderedResults.size() + " users with " +
+                    pendingAuthentications.size() + " cache misses completed in " +
+                    (new Date().getTime() - startDate.getTime()) + "ms.");
+        }
+        return orderedResults;
+    }
+
+    /**
+     * Send one batch authentication request and record the result of each user of the batch
+     * @param batch Users to authenticate
+     * @param results Authentication results by username
+     * @param settings Settings of the user store
+     */
+    private void processBatchAuthenticationRequest(List<PendingAuthentication> batch, Map<String, Boolean> results,
+            UserStoreSettings settings) {
+
+        List<String> userNames = new ArrayList<>(batch.size());
+        List<char[]> passwords = new ArrayList<>(batch.size());
+        for (PendingAuthentication pending : batch) {
+            userNames.add(pending.userName);
+            passwords.add(pending.password);
+        }
+        UserOperation response = sendUserOperation(UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE_BATCH,
+                MessageRequestUtil.getBatchAuthenticationRequest(userNames, passwords));
+        if (response == null) {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Sending authentication request to queue for tenant  - [" + this.tenantId + "]");
+                LOGGER.debug("Batch authentication of " + batch.size() + " users failed due to response object is " +
+                        "null");
+            }
+            return;
+        }
+        Map<String, String> batchResults = new HashMap<>();
+        try {
+            MessageResponseReader.readMap(response.getResponseData(), UserStoreConstants.UM_JSON_ELEMENT_RESULTS,
+                    batchResults);
+        } catch (JSONException e) {
+            LOGGER.error("Error occurred transforming json message response", e);
+            return;
+        }
+        for (PendingAuthentication pending : batch) {
+            String result = batchResults.get(pending.userName);
+            if (result != null) {
+                boolean authenticated = UserStoreConstants.UM_OPERATION_AUTHENTICATE_RESULT_SUCCESS.equals(result);
+                recordAuthenticationResult(pending, authenticated, settings);
+                results.put(pending.userName, authenticated);
             }
-            connectionFactory.createActiveMQConnectionFactory(getMessageBrokerURL());
-            connection = connectionFactory.createConnection();
-            connectionFactory.start(connection);
+        }
+    }
+
+    private void clearPasswords(List<PendingAuthentication> batch) {
+        for (PendingAuthentication pending : batch) {
+            Arrays.fill(pending.password, '\0');
+        }
+    }
+
+    private void recordAuthenticationResult(PendingAuthentication pending, boolean authenticated,
+            UserStoreSettings settings) {
+
+        String userKey = getFailedAuthenticationKey(pending.userName);
+        if (authenticated) {
+            addAuthenticationToCache(pending.userName, pending.password);
+            FailedAuthenticationCache.getInstance().resetFailures(userKey);
+        } else {
+            FailedAuthenticationCache.getInstance().addRejection(userKey, pending.identifier,
+                    settings.getFailedAuthenticationCacheExpiry(), settings.getFailedAuthenticationRateThreshold());
+        }
+    }
+
+    /**
+     * @param userName Username
+     * @return Key of the user in the failed authentication cache
+     */
+    private String getFailedAuthenticationKey(String userName) {
+        return getTenantDomain() + "/" + getMyDomainName() + "/" + userName;
+    }
+
+    /**
+     * Check the credential against the fingerprint in the authentication cache. A cached fingerprint of a different
+     * credential is kept, since the credential may just be wrong. It is replaced only once the agents accept the new
+     * credential. A fingerprint computed with the secret of another node counts as a miss.
+     * @param userName Username
+     * @param password Password characters
+     * @return true if the cache holds the fingerprint of the same credential for the user, false if it held the
+     * fingerprint of a different credential or null if it holds no usable fingerprint
+     * @throws GeneralSecurityException if the fingerprint can't be computed
+     */
+    private Boolean isAuthenticatedFromCache(String userName, char[] password) throws GeneralSecurityException {
+
+        UserAuthCacheKey userAuthCacheKey = new UserAuthCacheKey(tenantId, getMyDomainName(), userName);
+        UserAuthCacheEntry userAuthCacheEntry = TenantCacheQuota.getInstance()
+                .getValueFromCache(UserAuthCache.getInstance(), userAuthCacheKey);
+        if (userAuthCacheEntry == null) {
+            return null;
+        }
+        CredentialFingerprinter fingerprinter = CredentialFingerprinter.getInstance();
+        if (userAuthCacheEntry.getKeyId() != fingerprinter.getKeyId()) {
+            return null;
+        }
+        return fingerprinter.matches(userAuthCacheEntry.getSalt(), password, userAuthCacheEntry.getFingerprint());
+    }
+
+    /**
+     * Drop cached data of a user from the caches of this node and of every other node sharing the message broker
+     * @param userName Username
+     * @param cacheType Cache type, one of the CACHE_TYPE_* constants of UserStoreConstants
+     */
+    public void invalidateUserCache(String userName, String cacheType) {
+
+        CacheInvalidation invalidation = new CacheInvalidation();
+        invalidation.setTenantId(tenantId);
+        invalidation.setTenantDomain(getTenantDomain());
+        invalidation.setDomain(getMyDomainName());
+        invalidation.setUserName(userName);
+        invalidation.setCacheType(cacheType);
+        CacheInvalidationChannelManager.getInstance().invalidate(getMessageBrokerURL(), invalidation);
+    }
+
+    /**
+     * Cache the fingerprint of a credential the agents accepted. A cached fingerprint of another credential is
+     * replaced.
+     * @param userName Username
+     * @param password Password characters
+     */
+    private void addAuthenticationToCache(String userName, char[] password) {
+
+        CredentialFingerprinter fingerprinter = CredentialFingerprinter.getInstance();
+        UserAuthCacheKey userAuthCacheKey = new UserAuthCacheKey(tenantId, getMyDomainName(), userName);
+        String lockedString = userName + "@WSOutboundUserStoreManager_doAuthenticate";
+        try {
+            synchronized (lockedString.intern()) {
+                UserAuthCacheEntry cachedEntry = UserAuthCache.getInstance().getValueFromCache(userAuthCacheKey);
+                if (cachedEntry != null && cachedEntry.getKeyId() == fingerprinter.getKeyId()
+                        && fingerprinter.matches(cachedEntry.getSalt(), password, cachedEntry.getFingerprint())) {
+                    return;
+                }
+                byte[] salt = fingerprinter.newSalt();
+                UserAuthCacheEntry userAuthCacheEntry = new UserAuthCacheEntry(fingerprinter.getKeyId(), salt,
+                        fingerprinter.getFingerprint(salt, password));
+                TenantCacheQuota.getInstance().addToCache(UserAuthCache.getInstance(), userAuthCacheKey,
+                        userAuthCacheEntry, getSettings().getCacheTenantQuota());
+            }
+        } catch (GeneralSecurityException e) {
+            LOGGER.error("Error occurred while generating identifier.", e);
+        }
+    }
+
+    /**
+     * Authenticate the user with the agents
+     * @param userName Username
+     * @param credential Credential
+     * @return Result of the agents or null if the agents did not answer
+     */
+    private Boolean processAuthenticationRequest(String userName, Object credential) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Sending authentication request to queue for tenant  - [" + this.tenantId + "]");
+        }
+        char[] password = ((Secret) credential).getChars();
+        if (getAgentCapabilities().supportsOperation(UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE_AND_FETCH)
+                && (getUserAttributesFromCache(userName) == null || getUserRolesFromCache(userName) == null)) {
+            try {
+                return processAuthenticateAndFetchRequest(userName, getHotClaimRequestTemplate(), password);
+            } catch (org.wso2.carbon.user.api.UserStoreException e) {
+                LOGGER.error("Error occurred while getting claim mappings", e);
+            }
+        }
+        return sendAuthenticationRequest(userName, password);
+    }
+
+    private Boolean sendAuthenticationRequest(String userName, char[] password) {
+        UserOperation response = sendUserOperation(UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE,
+                MessageRequestUtil.getAuthenticationRequest(userName, password));
+        if (response == null) {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("JMS connection created in " + (new Date().getTime() - startDate.getTime()) + "ms.");
+                LOGGER.debug("Authentication failed for user: " + userName + " due to response object is null");
             }
-            requestSession = connectionFactory.createSession(connection);
-            requestTopic = connectionFactory
-                    .createTopicDestination(requestSession, UserStoreConstants.TOPIC_NAME_REQUEST);
-            producer = connectionFactory
-                    .createMessageProducer(requestSession, requestTopic, DeliveryMode.NON_PERSISTENT);
+            return null;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Authentication response: " + response.getResponseData() + " for user: " + userName);
+        }
+        try {
+            return UserStoreConstants.UM_OPERATION_AUTHENTICATE_RESULT_SUCCESS
+                    .equals(MessageResponseReader.readResult(response.getResponseData()));
+        } catch (JSONException e) {
+            LOGGER.error("Error occurred transforming json message response", e);
+        }
+        return null;
+    }
+
+    /**
+     * Authenticate the user and fetch the claims and groups of the user in the same round trip. On success the
+     * attribute and role caches are filled so that the calls that usually follow a login are served from the cache.
+     * @param userName Username
+     * @param claimRequestTemplate Claim request template of the mapped attributes
+     * @param password Password characters
+     * @return true if authenticated, false if rejected or null if the agents did not answer
+     */
+    private Boolean processAuthenticateAndFetchRequest(String userName, ClaimRequestTemplate claimRequestTemplate,
+            char[] password) {
+
+        UserOperation response = sendUserOperation(UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE_AND_FETCH,
+                claimRequestTemplate.getAuthenticationRequestData(userName, password));
+        if (response == null) {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("JMS connection and producer created in " +
-                        (new Date().getTime() - startDate.getTime()) + "ms.");
+                LOGGER.debug("Authentication failed for user: " + userName + " due to response object is null");
             }
-            Message responseMessage = null;
-            int retryCount = 0;
-            while (responseMessage == null && getMessageRetryLimit() > retryCount) {
+            return null;
+        }
+        Map<String, String> attributes = new HashMap<>();
+        List<String> groups = new ArrayList<>();
+        try {
+            String status = MessageResponseReader
+                    .readAuthenticationResult(response.getResponseData(), attributes, groups);
+            if (!UserStoreConstants.UM_OPERATION_AUTHENTICATE_RESULT_SUCCESS.equals(status)) {
+                return false;
+            }
+        } catch (JSONException e) {
+            LOGGER.error("Error occurred transforming json message response", e);
+            return null;
+        }
+        mergeAttributesToCache(userName, attributes, claimRequestTemplate.getAttributeNames());
+        addRolesToCache(userName, groups.toArray(new String[groups.size()]));
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Cached " + attributes.size() + " attributes and " + groups.size() + " groups of user: " +
+                    userName + " from authentication response");
+        }
+        return true;
+    }
+
+    /**
+     * Send a user operation to the agents over the broker channel and wait for the reply. The operation is resent
+     * with a new correlation id until a reply is received or the retry limit is reached.
+     * @param operationType Operation type ex. authenticate, getuserlist etc.
+     * @param requestData Request data ex. username/password
+     * @return Reply from the agent or null if no reply was received
+     */
+    private UserOperation sendUserOperation(String operationType, String requestData) {
 
+        int retryCount = 0;
+        UserStoreSettings settings = getSettings();
+        AgentCircuitBreaker circuitBreaker = getCircuitBreaker();
+        AgentCircuitBreaker.Permit permit = circuitBreaker.allowRequest(settings.getCircuitOpenDuration());
+        if (permit == AgentCircuitBreaker.Permit.DENIED) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Agent circuit is open. User operation : " + operationType + " not sent for tenant id : "
+                        + tenantId);
+            }
+            return null;
+        }
+        try {
+            OperationProfile profile = settings.getOperationProfiles().getProfile(operationType);
+            String compression = getAgentCapabilities()
+                    .selectCompression(UserStoreConstants.MESSAGE_COMPRESSION_DEFLATE);
+            AgentMessageChannel channel = AgentMessageChannelManager.getInstance().getChannel(getMessageBrokerURL());
+            while (profile.getRetryLimit() > retryCount) {
                 if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Trying to authenticate user: " + userName + " count: " + retryCount);
+                    LOGGER.debug("Trying user operation : " + operationType + " count: " + retryCount);
                 }
                 String correlationId = UUID.randomUUID().toString();
-                responseQueue = connectionFactory
-                        .createQueueDestination(requestSession, UserStoreConstants.QUEUE_NAME_RESPONSE);
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("JMS connection,producer and destination queue created in "
-                            + (new Date().getTime() - startDate.getTime()) + "ms.");
-                }
-                addNextUserOperationToTopic(correlationId, UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE,
-                        MessageRequestUtil.getAuthenticationRequest(userName, credential), requestSession, producer,
-                        responseQueue);
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Authentication request published to tpoic in " +
-                            (new Date().getTime() - startDate.getTime()) + "ms.");
-                }
-                responseSession = connectionFactory.createSession(connection);
-
-                String filter = String.format(JMS_CORRELATIONID_FILTER, correlationId);
-                MessageConsumer consumer = responseSession.createConsumer(responseQueue, filter);
                 Date startReceiveTime = new Date();
-                responseMessage = consumer.receive(getMessageConsumeTimeout());
+                UserOperation requestOperation = createUserOperation(correlationId, operationType, requestData);
+                PayloadCompressor.getInstance()
+                        .compressRequest(requestOperation, compression, settings.getCompressionThreshold());
+                UserOperation response = channel.sendAndReceive(requestOperation, profile.getMessageLifetime(),
+                        profile.getConsumeTimeout());
                 retryCount++;
-                if (LOGGER.isDebugEnabled() && responseMessage != null) {
-                    LOGGER.debug("Received response for user operation : " + UserStoreConstants
-                            .UM_OPERATION_TYPE_AUTHENTICATE + " correlationId : " + correlationId + " tenant id " +
-                            ": " + tenantId + " in " + (new Date().getTime() - startReceiveTime.getTime()) + "ms.");
+                if (response != null) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Received response for user operation : " + operationType + " correlationId : "
+                                + correlationId + " tenant id : " + tenantId + " in "
+                                + (new Date().getTime() - startReceiveTime.getTime()) + "ms.");
+                    }
+                    circuitBreaker.recordSuccess(permit);
+                    return decompressResponse(response);
                 }
-            }
-
-            if (responseMessage != null) {
-                UserOperation response = (UserOperation) ((ObjectMessage) responseMessage).getObject();
                 if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug(
-                            "Authentication response: " + response.getResponseData() + " for user: " + userName);
+                    LOGGER.debug("Response is null for user operation : " + operationType + " count: " + retryCount);
                 }
-                JSONObject jsonResult = new JSONObject(response.getResponseData());
-                return UserStoreConstants.UM_OPERATION_AUTHENTICATE_RESULT_SUCCESS
-                        .equals(jsonResult.get(UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT).toString());
-            } else {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Authentication failed for user: " + userName + " due to response object is null");
-                }
-                return false;
             }
         } catch (JMSConnectionException e) {
             LOGGER.error("Error occurred while creating JMS connection", e);
         } catch (JMSException e) {
             LOGGER.error("Error occurred while adding message to queue", e);
-        } catch (JSONException e) {
-            LOGGER.error("Error occurred transforming json message response", e);
+        } catch (RuntimeException e) {
+            // Not an agent failure, but a trial request must not keep the circuit from being tried again.
+            circuitBreaker.releaseTrial(permit);
+            throw e;
+        }
+        circuitBreaker.recordFailure(permit, settings.getCircuitFailureThreshold());
+        return null;
+    }
+
+    private AgentCircuitBreaker getCircuitBreaker() {
+        return AgentCircuitBreakerManager.getInstance().getCircuitBreaker(getTenantDomain(), getMyDomainName());
+    }
+
+    private OfflineVerifierStore getOfflineVerifierStore(OfflineAuthenticationConfig config) {
+        return OfflineVerifierManager.getInstance().getStore(getTenantDomain(), getMyDomainName(), config);
+    }
+
+    /**
+     * Store an offline verifier of a credential the agents accepted. The verifier is derived in the background
+     * since the key derivation is deliberately slow. Nothing is derived if the stored verifier of the user is recent
+     * and matches the credential, or if the verifier executor is saturated.
+     * @param userName Username
+     * @param password Password characters
+     * @param config Offline authentication settings
+     */
+    private void addOfflineVerifier(final String userName, char[] password, final OfflineAuthenticationConfig config) {
+        if (getOfflineVerifierStore(config).isCurrent(userName, password)) {
+            return;
+        }
+        final char[] passwordCopy = password.clone();
+        boolean submitted = false;
+        try {
+            WSUserStoreComponentHolder.getInstance().getVerifierExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getOfflineVerifierStore(config).addVerifier(userName, passwordCopy);
+                    } finally {
+                        Arrays.fill(passwordCopy, '\0');
+                    }
+                }
+            });
+            submitted = true;
+        } catch (RejectedExecutionException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Offline verifier of user: " + userName + " not derived. Verifier executor is busy.");
+            }
         } finally {
+            if (!submitted) {
+                Arrays.fill(passwordCopy, '\0');
+            }
+        }
+    }
+
+    private UserOperation decompressResponse(UserOperation response) {
+        try {
+            PayloadCompressor.getInstance().decompressResponse(response);
+        } catch (JMSConnectionException e) {
+            LOGGER.error("Error occurred while reading compressed response for correlationId : " +
+                    response.getCorrelationId(), e);
+            return null;
+        }
+        if (LOGGER.isDebugEnabled() && response.getCompression() != null) {
+            PayloadCompressor compressor = PayloadCompressor.getInstance();
+            LOGGER.debug("Agent payloads compressed : " + compressor.getCompressedPayloads() + " uncompressed : " +
+                    compressor.getUncompressedPayloads() + " bytes before compression : " +
+                    compressor.getUncompressedBytes() + " bytes after compression : " +
+                    compressor.getCompressedBytes());
+        }
+        return response;
+    }
+
+    /**
+     * Get the capabilities negotiated with the agents of this user store. If they are not negotiated yet or expired,
+     * the negotiation is started in the background and the expired or else the baseline capabilities are used
+     * meanwhile. A failed negotiation is retried after NEGOTIATION_RETRY_INTERVAL.
+     * @return Agent capabilities
+     */
+    private AgentCapabilities getAgentCapabilities() {
+        AgentCapabilityManager capabilityManager = AgentCapabilityManager.getInstance();
+        AgentCapabilities capabilities = capabilityManager.getCapabilities(getTenantDomain(), getMyDomainName());
+        if (capabilities == null || capabilityManager.isExpired(getTenantDomain(), getMyDomainName())) {
+            startCapabilityNegotiation();
+        }
+        return capabilities == null ? AgentCapabilities.getBaseline() : capabilities;
+    }
+
+    private void startCapabilityNegotiation() {
+        long now = System.currentTimeMillis();
+        if (now - lastNegotiationTime < NEGOTIATION_RETRY_INTERVAL) {
+            return;
+        }
+        if (AgentMessageChannelManager.getInstance().isActive() && negotiatingCapabilities.compareAndSet(false, true)) {
+            lastNegotiationTime = now;
             try {
-                connectionFactory.closeConnection(connection);
-            } catch (JMSConnectionException e) {
-                LOGGER.error("Error occurred while closing the connection", e);
+                WSUserStoreComponentHolder.getInstance().getTaskExecutor().execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            negotiateCapabilities(AgentMessageChannelManager.getInstance()
+                                    .getChannel(getMessageBrokerURL()));
+                        } catch (JMSConnectionException | JMSException e) {
+                            LOGGER.error("Error occurred while negotiating agent capabilities for user store " +
+                                    "domain: " + getMyDomainName() + " of tenant: " + tenantId, e);
+                        } finally {
+                            negotiatingCapabilities.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                negotiatingCapabilities.set(false);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Agent capability negotiation for user store domain: " + getMyDomainName() +
+                            " of tenant: " + tenantId + " rejected", e);
+                }
             }
         }
-        return false;
     }
 
     /**
-     * Add next user operation to queue
+     * Get the timeout and retry settings of an operation type
+     * @param operationType Operation type ex. authenticate, getuserlist etc.
+     * @return Operation profile
+     */
+    private OperationProfile getOperationProfile(String operationType) {
+        return getSettings().getOperationProfiles().getProfile(operationType);
+    }
+
+    /**
+     * Get the settings of the user store. The settings are parsed once and parsed again only when the user store
+     * properties of the realm configuration change, whether they are replaced or changed in place.
+     * @return User store settings
+     */
+    private UserStoreSettings getSettings() {
+        Map<String, String> userStoreProperties = realmConfig.getUserStoreProperties();
+        UserStoreSettings currentSettings = userStoreSettings;
+        if (currentSettings == null || !currentSettings.isBuiltFrom(userStoreProperties)) {
+            currentSettings = UserStoreSettings.build(userStoreProperties);
+            userStoreSettings = currentSettings;
+        }
+        return currentSettings;
+    }
+
+    /**
+     * Register the user store with the cache snapshot manager according to its settings
+     */
+    private void registerCacheSnapshot() {
+        try {
+            UserStoreSettings currentSettings = getSettings();
+            CacheSnapshotManager.getInstance().setSnapshotEnabled(tenantId, getMyDomainName(),
+                    currentSettings.isCacheSnapshotEnabled(), currentSettings.getCacheTenantQuota());
+        } catch (NumberFormatException e) {
+            LOGGER.error("Invalid message configuration for user store domain: " + getMyDomainName() +
+                    " of tenant: " + tenantId, e);
+        }
+    }
+
+    /**
+     * Open and validate the broker connection in the background, negotiate the protocol capabilities and ping the
+     * agents that support it, so that the first request does not pay for connection setup and configuration problems
+     * are reported before users log in.
+     */
+    private void warmUpAgentChannel() {
+
+        final String messageBrokerURL = getMessageBrokerURL();
+        boolean disabled = Boolean.parseBoolean(
+                realmConfig.getUserStoreProperty(UserCoreConstants.RealmConfig.USER_STORE_DISABLED));
+        if (messageBrokerURL == null || disabled || !AgentMessageChannelManager.getInstance().isActive()) {
+            return;
+        }
+        Runnable warmUp = new Runnable() {
+            @Override
+            public void run() {
+                Date startDate = new Date();
+                try {
+                    AgentMessageChannel channel = AgentMessageChannelManager.getInstance()
+                            .getChannel(messageBrokerURL);
+                    channel.warmUp();
+                    AgentCapabilities capabilities = negotiateCapabilities(channel);
+                    if (capabilities == null) {
+                        LOGGER.warn("No agent replied to hello for user store domain: " + getMyDomainName() +
+                                " of tenant: " + tenantId + " through message broker: " + messageBrokerURL);
+                        return;
+                    }
+                    if (capabilities.supportsOperation(UserStoreConstants.UM_OPERATION_TYPE_PING)) {
+                        OperationProfile profile = getOperationProfile(UserStoreConstants.UM_OPERATION_TYPE_PING);
+                        UserOperation response = channel.sendAndReceive(createUserOperation(
+                                UUID.randomUUID().toString(), UserStoreConstants.UM_OPERATION_TYPE_PING,
+                                MessageRequestUtil.getPingRequest()), profile.getMessageLifetime(),
+                                profile.getConsumeTimeout());
+                        if (response == null) {
+                            LOGGER.warn("No agent replied to ping for user store domain: " + getMyDomainName() +
+                                    " of tenant: " + tenantId + " through message broker: " + messageBrokerURL);
+                            return;
+                        }
+                    }
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Agent connection for user store domain: " + getMyDomainName() +
+                                " of tenant: " + tenantId + " warmed up in " +
+                                (new Date().getTime() - startDate.getTime()) + "ms.");
+                    }
+                } catch (JMSConnectionException | JMSException e) {
+                    LOGGER.error("Error occurred while warming up message broker connection for user store domain: "
+                            + getMyDomainName() + " of tenant: " + tenantId, e);
+                } catch (NumberFormatException e) {
+                    LOGGER.error("Invalid message configuration for user store domain: " + getMyDomainName() +
+                            " of tenant: " + tenantId, e);
+                }
+            }
+        };
+        try {
+            WSUserStoreComponentHolder.getInstance().getTaskExecutor().execute(warmUp);
+        } catch (RejectedExecutionException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Agent connection warm up for user store domain: " + getMyDomainName() + " of tenant: " +
+                        tenantId + " rejected", e);
+            }
+        }
+    }
+
+    /**
+     * Exchange hello messages with the agents and remember the protocol features that all of them support. Every
+     * agent listening on the topic replies, so the replies are collected for the whole hello timeout and only the
+     * capabilities common to all the agents that reply are used, so that an older agent never receives a request it
+     * can not handle. Agents that do not understand the hello operation are taken as supporting the baseline protocol
+     * only. Nothing is remembered if no agent replies.
+     * @param channel Agent message channel
+     * @return Negotiated capabilities or null if no agent replied
+     * @throws JMSConnectionException
+     * @throws JMSException
+     */
+    private AgentCapabilities negotiateCapabilities(AgentMessageChannel channel)
+            throws JMSConnectionException, JMSException {
+
+        OperationProfile profile = getOperationProfile(UserStoreConstants.SERVER_OPERATION_TYPE_HELLO);
+        List<UserOperation> responses = channel.sendAndReceiveAll(
+                createUserOperation(UUID.randomUUID().toString(), UserStoreConstants.SERVER_OPERATION_TYPE_HELLO,
+                        MessageRequestUtil.getHelloRequest(SERVER_CAPABILITIES)), profile.getMessageLifetime(),
+                profile.getConsumeTimeout());
+        if (responses.isEmpty()) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("No agent replied to hello for user store domain: " + getMyDomainName() +
+                        " of tenant: " + tenantId);
+            }
+            return null;
+        }
+        AgentCapabilities capabilities = null;
+        for (UserOperation response : responses) {
+            AgentCapabilities agentCapabilities;
+            if (UserStoreConstants.UM_OPERATION_TYPE_ERROR.equals(response.getRequestType())) {
+                agentCapabilities = AgentCapabilities.getBaseline();
+            } else {
+                agentCapabilities = MessageRequestUtil.getAgentCapabilities(response.getResponseData());
+            }
+            capabilities = capabilities == null ? agentCapabilities : capabilities.intersect(agentCapabilities);
+        }
+        AgentCapabilityManager.getInstance()
+                .setCapabilities(getTenantDomain(), getMyDomainName(), capabilities);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Negotiated agent capabilities for user store domain: " + getMyDomainName() +
+                    " of tenant: " + tenantId + " with " + responses.size() + " agents : " + capabilities);
+        }
+        return capabilities;
+    }
+
+    /**
+     * Create user operation to send to the agents
      * @param correlationId Connection Id
      * @param operationType Operation type ex. authenticate, getuserlist etc.
      * @param requestData Request data ex. username/password
-     * @param requestSession JMS session
-     * @param producer JMS Producer
-     * @param responseQueue Destination queue to add the message
-     * @throws JMSException
+     * @return User operation
      */
-    private void addNextUserOperationToTopic(String correlationId, String operationType, String requestData,
-            Session requestSession, MessageProducer producer, Destination responseQueue)
-            throws JMSException {
+    private UserOperation createUserOperation(String correlationId, String operationType, String requestData) {
 
-        String tenantDomain = IdentityTenantUtil.getTenantDomain(tenantId);
+        String tenantDomain = getTenantDomain();
 
         UserOperation requestOperation = new UserOperation();
         requestOperation.setCorrelationId(correlationId);
@@ -339,18 +961,11 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
         requestOperation.setRequestType(operationType);
         requestOperation.setDomain(realmConfig.getUserStoreProperty(UserStoreConfigConstants.DOMAIN_NAME));
 
-        ObjectMessage requestMessage = requestSession.createObjectMessage();
-        requestMessage.setObject(requestOperation);
-        requestMessage.setJMSCorrelationID(correlationId);
-        requestMessage.setJMSExpiration(getMessageLifeTime());
-        requestMessage.setJMSReplyTo(responseQueue);
-
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Sending user operation : " + operationType + " with correlationId : " + correlationId +
                     " tenant domain : " + tenantDomain);
         }
-
-        producer.send(requestMessage);
+        return requestOperation;
     }
 
     @Override
@@ -421,119 +1036,152 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
 
     }
 
-    private String getAllClaimMapAttributes(ClaimMapping[] claimMappings) {
+    private List<String> getAllClaimMapAttributes(ClaimMapping[] claimMappings) {
 
-        StringBuilder queryBuilder = new StringBuilder();
+        List<String> mapAttributes = new ArrayList<>();
         String myDomainName = getMyDomainName();
 
         for (ClaimMapping mapping : claimMappings) {
-            if (mapping.getMappedAttribute(myDomainName) != null) {
-                queryBuilder.append(",").append(mapping.getMappedAttribute(myDomainName));
+            String mappedAttribute = mapping.getMappedAttribute(myDomainName);
+            if (mappedAttribute != null) {
+                mapAttributes.add(mappedAttribute);
             }
         }
-        String attributeList = queryBuilder.toString().replaceFirst(",", "");
-        if (LOGGER.isDebugEnabled()) {
-            LOGGER.debug("Requested Attributes list: " + attributeList);
+        return mapAttributes;
+    }
+
+    /**
+     * Get the attributes mapped to claims in this user store. The list is rebuilt only when the claim mappings of the
+     * tenant change.
+     * @return Claim attribute list
+     * @throws org.wso2.carbon.user.api.UserStoreException
+     */
+    private ClaimAttributeList getClaimAttributeList() throws org.wso2.carbon.user.api.UserStoreException {
+
+        ClaimMappingChangeNotifier notifier = ClaimMappingChangeNotifier.getInstance();
+        ClaimAttributeList attributeList = claimAttributeList;
+        if (!notifier.isCurrent(tenantId, attributeList)) {
+            long version = notifier.getVersion(tenantId);
+            attributeList = new ClaimAttributeList(version, getAllClaimMapAttributes(
+                    claimManager.getAllClaimMappings()));
+            claimAttributeList = attributeList;
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Requested Attributes list: " + attributeList.getAttributes());
+            }
         }
         return attributeList;
     }
 
+    /**
+     * Get the get claims request template of the mapped attributes. The encoded template is reused as long as the
+     * attribute list does not change.
+     * @return Claim request template
+     * @throws org.wso2.carbon.user.api.UserStoreException
+     */
+    private ClaimRequestTemplate getClaimRequestTemplate() throws org.wso2.carbon.user.api.UserStoreException {
+        String attributes = getClaimAttributeList().getAttributes();
+        ClaimRequestTemplate template = claimRequestTemplate;
+        if (template == null || !attributes.equals(template.getAttributes())) {
+            template = new ClaimRequestTemplate(attributes);
+            claimRequestTemplate = template;
+        }
+        return template;
+    }
+
+    /**
+     * Get the claim request template of the hot attributes of the domain. All mapped attributes are requested until
+     * the hot set is learned.
+     * @return Claim request template
+     * @throws org.wso2.carbon.user.api.UserStoreException
+     */
+    private ClaimRequestTemplate getHotClaimRequestTemplate() throws org.wso2.carbon.user.api.UserStoreException {
+
+        ClaimRequestTemplate template = getClaimRequestTemplate();
+        Set<String> attributeNames = new HashSet<>(getHotAttributes());
+        attributeNames.retainAll(template.getAttributeNames());
+        if (attributeNames.isEmpty()) {
+            return template;
+        }
+        ClaimRequestTemplate hotTemplate = hotClaimRequestTemplate;
+        if (hotTemplate == null || !attributeNames.equals(hotTemplate.getAttributeNames())) {
+            hotTemplate = new ClaimRequestTemplate(StringUtils.join(attributeNames, ','));
+            hotClaimRequestTemplate = hotTemplate;
+        }
+        return hotTemplate;
+    }
+
+    /**
+     * Get the get claims request template of an attribute set. Templates of the most recently requested attribute
+     * sets are reused.
+     * @param attributeNames Attributes to request
+     * @return Claim request template
+     */
+    private ClaimRequestTemplate getClaimRequestTemplate(Set<String> attributeNames) {
+
+        String attributes = StringUtils.join(new TreeSet<>(attributeNames), ',');
+        synchronized (claimRequestTemplates) {
+            ClaimRequestTemplate template = claimRequestTemplates.get(attributes);
+            if (template == null) {
+                template = new ClaimRequestTemplate(attributes);
+                claimRequestTemplates.put(attributes, template);
+            }
+            return template;
+        }
+    }
+
+    private Set<String> getHotAttributes() {
+        return ClaimAccessTracker.getInstance().getHotAttributes(tenantId, getMyDomainName(),
+                getSettings().getHotClaimSetSize());
+    }
+
+    private String getTenantDomain() {
+        String domain = tenantDomain;
+        if (domain == null) {
+            domain = IdentityTenantUtil.getTenantDomain(tenantId);
+            tenantDomain = domain;
+        }
+        return domain;
+    }
+
     public Map<String, String> getUserPropertyValues(String userName, String[] propertyNames, String profileName)
             throws UserStoreException {
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Sending get user properties of user: " + userName + " for tenant  - [" + this.tenantId + "]");
         }
+        if (propertyNames == null || propertyNames.length == 0) {
+            return new HashMap<>();
+        }
 
         UserAttributeCacheEntry cacheEntry = getUserAttributesFromCache(userName);
-        Map<String, String> allUserAttributes = new HashMap<>();
-        Map<String, String> mapAttributes = new HashMap<>();
-        if (cacheEntry == null) {
-
-            JMSConnectionFactory connectionFactory = new JMSConnectionFactory();
-            Connection connection = null;
-            Session requestSession;
-            Session responseSession;
-            Destination requestTopic;
-            Destination responseQueue;
-            MessageProducer producer;
-            try {
-                connectionFactory.createActiveMQConnectionFactory(getMessageBrokerURL());
-                connection = connectionFactory.createConnection();
-                connectionFactory.start(connection);
-                requestSession = connectionFactory.createSession(connection);
-                requestTopic = connectionFactory
-                        .createTopicDestination(requestSession, UserStoreConstants.TOPIC_NAME_REQUEST);
-                producer = connectionFactory
-                        .createMessageProducer(requestSession, requestTopic, DeliveryMode.NON_PERSISTENT);
-
-                int retryCount = 0;
-                Message responseMessage = null;
-
-                while (responseMessage == null && getMessageRetryLimit() > retryCount) {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Trying to get user properties [" + Arrays.toString(propertyNames) +  "]" +
-                                "  for user: " + userName + " count: " + retryCount);
-                    }
-                    String correlationId = UUID.randomUUID().toString();
-                    responseQueue = connectionFactory
-                            .createQueueDestination(requestSession, UserStoreConstants.QUEUE_NAME_RESPONSE);
-
-                    addNextUserOperationToTopic(correlationId, UserStoreConstants.UM_OPERATION_TYPE_GET_CLAIMS,
-                            MessageRequestUtil.getUserPropertyValuesRequestData(userName, getAllClaimMapAttributes(
-                                    claimManager.getAllClaimMappings())),
-                            requestSession, producer, responseQueue);
-
-                    responseSession = connectionFactory.createSession(connection);
-
-                    String filter = String.format(JMS_CORRELATIONID_FILTER, correlationId);
-                    MessageConsumer consumer = responseSession.createConsumer(responseQueue, filter);
-                    responseMessage = consumer.receive(getMessageConsumeTimeout());
-
-                    if(responseMessage != null) {
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Received response for user operation : " + UserStoreConstants
-                                    .UM_OPERATION_TYPE_GET_CLAIMS + " correlationId : " + correlationId + " tenant id" +
-                                    " : " + tenantId);
-                        }
-                        UserOperation response = (UserOperation) ((ObjectMessage) responseMessage).getObject();
-                        JSONObject responseObj = new JSONObject(response.getResponseData());
-                        JSONObject resultObj = new JSONObject(
-                                responseObj.get(UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT).toString());
-                        Iterator iterator = resultObj.keys();
-                        while (iterator.hasNext()) {
-                            String key = (String) iterator.next();
-                            allUserAttributes.put(key, (String) resultObj.get(key));
-                        }
-                        addAttributesToCache(userName, allUserAttributes);
-                    } else {
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Response is null for get user properties user: " + userName + " count: "
-                                    + retryCount);
-                        }
-                    }
-                    retryCount++;
-                }
-
-            } catch (JMSConnectionException e) {
-                LOGGER.error("Error occurred while creating JMS connection", e);
-            } catch (JMSException e) {
-                LOGGER.error("Error occurred while adding message to queue", e);
-            } catch (org.wso2.carbon.user.api.UserStoreException e) {
-                LOGGER.error("Error occurred while getting claim mappings", e);
-            } catch (JSONException e) {
-                LOGGER.error("Error occurred while reading JSON object", e);
-            } finally {
-                try {
-                    connectionFactory.closeConnection(connection);
-                } catch (JMSConnectionException e) {
-                    LOGGER.error("Error occurred while closing the connection", e);
+        long now = System.currentTimeMillis();
+        // An entry without attribute values is a miss, whatever attributes it lists as fetched.
+        if (cacheEntry != null && (cacheEntry.getUserAttributes() == null
+                || (cacheEntry.getHardExpiryTime() > 0 && cacheEntry.getHardExpiryTime() <= now))) {
+            cacheEntry = null;
+        }
+        if (cacheEntry != null && cacheEntry.getSoftExpiryTime() > 0 && cacheEntry.getSoftExpiryTime() <= now
+                && cacheEntry.getFetchedAttributes() != null) {
+            refreshUserAttributes(userName, cacheEntry.getFetchedAttributes());
+        }
+        ClaimAccessTracker.getInstance().recordAccess(tenantId, getMyDomainName(), propertyNames);
+        Set<String> missingAttributes = new HashSet<>();
+        for (String propertyName : propertyNames) {
+            if (cacheEntry == null || !cacheEntry.isFetched(propertyName)) {
+                missingAttributes.add(propertyName);
+            }
+        }
+        if (!missingAttributes.isEmpty()) {
+            // Prefetch the hot attributes along with the missing ones, the others are fetched when requested.
+            for (String hotAttribute : getHotAttributes()) {
+                if (cacheEntry == null || !cacheEntry.isFetched(hotAttribute)) {
+                    missingAttributes.add(hotAttribute);
                 }
             }
-
-        } else {
-            allUserAttributes = cacheEntry.getUserAttributes();
         }
+        Map<String, String> allUserAttributes = missingAttributes.isEmpty() ? cacheEntry.getUserAttributes() :
+                fetchUserAttributes(userName, missingAttributes);
+        Map<String, String> mapAttributes = new HashMap<>();
         for (String propertyName : propertyNames) {
             mapAttributes.put(propertyName, allUserAttributes.get(propertyName));
         }
@@ -544,18 +1192,244 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
         return mapAttributes;
     }
 
-    private void addAttributesToCache(String userName, Map<String, String> attributes) {
+    /**
+     * Fetch attributes of the user from the agents and merge them into the cached attributes. A caller waits for a
+     * fetch of the same user in progress instead of sending its own request when that fetch covers the attributes.
+     * @param userName Username
+     * @param attributeNames Attributes to fetch
+     * @return Cached attributes of the user including the fetched ones
+     */
+    private Map<String, String> fetchUserAttributes(String userName, Set<String> attributeNames) {
 
-        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(userName);
-        UserAttributeCacheEntry cacheEntry = new UserAttributeCacheEntry();
-        cacheEntry.setUserAttributes(attributes);
-        UserAttributeCache.getInstance().addToCache(cacheKey, cacheEntry);
+        AttributeFetch fetch = getAttributeFetch(userName, attributeNames);
+        try {
+            // A queued background refresh is run here rather than waited for. Running a started fetch is a no-op.
+            fetch.task.run();
+            return fetch.task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOGGER.error("Error occurred while fetching attributes of user: " + userName, e);
+        }
+        return new HashMap<>();
+    }
+
+    /**
+     * Refresh the cached attributes of the user in the background unless a fetch for the user is in progress. The
+     * refresh is registered as the fetch of the user before it is queued, so a burst of reads queues one refresh.
+     * @param userName Username
+     * @param attributeNames Attributes to refresh
+     */
+    private void refreshUserAttributes(final String userName, final Set<String> attributeNames) {
+
+        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(tenantId, getMyDomainName(), userName);
+        if (attributeFetches.containsKey(cacheKey)) {
+            return;
+        }
+        AttributeFetch refresh = new AttributeFetch(cacheKey, attributeNames, new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() {
+                // Another fetch may have refreshed the attributes while this one was queued.
+                UserAttributeCacheEntry cacheEntry = getUserAttributesFromCache(userName);
+                if (isRefreshed(cacheEntry, attributeNames)) {
+                    return cacheEntry.getUserAttributes();
+                }
+                return sendGetAttributesRequest(userName, attributeNames);
+            }
+        });
+        if (attributeFetches.putIfAbsent(cacheKey, refresh) != null) {
+            return;
+        }
+        try {
+            WSUserStoreComponentHolder.getInstance().getTaskExecutor().execute(refresh.task);
+        } catch (RejectedExecutionException e) {
+            attributeFetches.remove(cacheKey, refresh);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Background refresh of attributes of user: " + userName + " rejected", e);
+            }
+        }
+    }
+
+    /**
+     * @param cacheEntry Cached attributes of a user
+     * @param attributeNames Attribute names
+     * @return true if the entry has values for the attributes and is not past its soft expiry
+     */
+    private static boolean isRefreshed(UserAttributeCacheEntry cacheEntry, Set<String> attributeNames) {
+
+        if (cacheEntry == null || cacheEntry.getUserAttributes() == null || (cacheEntry.getSoftExpiryTime() > 0
+                && cacheEntry.getSoftExpiryTime() <= System.currentTimeMillis())) {
+            return false;
+        }
+        for (String attributeName : attributeNames) {
+            if (!cacheEntry.isFetched(attributeName)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get a fetch in progress for the user covering the attributes or run one in the calling thread
+     * @param userName Username
+     * @param attributeNames Attributes to fetch
+     * @return Fetch in progress or completed fetch
+     */
+    private AttributeFetch getAttributeFetch(final String userName, final Set<String> attributeNames) {
+
+        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(tenantId, getMyDomainName(), userName);
+        AttributeFetch fetch = attributeFetches.get(cacheKey);
+        if (fetch != null && fetch.attributeNames.containsAll(attributeNames)) {
+            return fetch;
+        }
+        AttributeFetch newFetch = new AttributeFetch(cacheKey, attributeNames, new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() {
+                return sendGetAttributesRequest(userName, attributeNames);
+            }
+        });
+        if (fetch == null) {
+            fetch = attributeFetches.putIfAbsent(cacheKey, newFetch);
+            if (fetch != null && fetch.attributeNames.containsAll(attributeNames)) {
+                return fetch;
+            }
+        }
+        // Only a fetch registered for the user is shared, and it unregisters itself once done. Otherwise another
+        // fetch is in progress.
+        newFetch.task.run();
+        return newFetch;
+    }
+
+    private Map<String, String> sendGetAttributesRequest(String userName, Set<String> attributeNames) {
+
+        Map<String, String> attributes = new HashMap<>();
+        UserOperation response = sendUserOperation(UserStoreConstants.UM_OPERATION_TYPE_GET_CLAIMS,
+                getClaimRequestTemplate(attributeNames).getRequestData(userName));
+        if (response != null) {
+            try {
+                MessageResponseReader.readAttributes(response.getResponseData(), attributes);
+                return mergeAttributesToCache(userName, attributes, attributeNames);
+            } catch (JSONException e) {
+                LOGGER.error("Error occurred while reading JSON object", e);
+            }
+        }
+        // The cached attributes are served while the agents can't be reached, but not past their hard expiry.
+        UserAttributeCacheEntry cacheEntry = getUserAttributesFromCache(userName);
+        if (cacheEntry == null || cacheEntry.getUserAttributes() == null || (cacheEntry.getHardExpiryTime() > 0
+                && cacheEntry.getHardExpiryTime() <= System.currentTimeMillis())) {
+            return attributes;
+        }
+        return cacheEntry.getUserAttributes();
+    }
+
+    /**
+     * Merge fetched attributes into the cached attributes of the user. The expiry of the cached attributes is kept
+     * unless all of them were fetched again.
+     * @param userName Username
+     * @param attributes Fetched attribute values
+     * @param attributeNames Names of the fetched attributes, including the ones the user has no value for
+     * @return Merged attributes
+     */
+    private Map<String, String> mergeAttributesToCache(String userName, Map<String, String> attributes,
+            Set<String> attributeNames) {
+
+        String lockedString = tenantId + "/" + getMyDomainName() + "/" + userName +
+                "@WSOutboundUserStoreManager_getUserPropertyValues";
+        synchronized (lockedString.intern()) {
+            UserAttributeCacheEntry currentEntry = getUserAttributesFromCache(userName);
+            long now = System.currentTimeMillis();
+            if (currentEntry != null && (currentEntry.getFetchedAttributes() == null
+                    || currentEntry.getUserAttributes() == null || (currentEntry.getHardExpiryTime() > 0
+                    && currentEntry.getHardExpiryTime() <= now))) {
+                currentEntry = null;
+            }
+            Map<String, String> mergedAttributes = new HashMap<>();
+            Set<String> fetchedAttributes = new HashSet<>();
+            if (currentEntry != null) {
+                mergedAttributes.putAll(currentEntry.getUserAttributes());
+                fetchedAttributes.addAll(currentEntry.getFetchedAttributes());
+                for (String attributeName : attributeNames) {
+                    mergedAttributes.remove(attributeName);
+                }
+            }
+            mergedAttributes.putAll(attributes);
+            fetchedAttributes.addAll(attributeNames);
+
+            UserAttributeCacheEntry cacheEntry = new UserAttributeCacheEntry(
+                    AttributeDictionary.getInstance().getSchema(tenantId, getMyDomainName()));
+            cacheEntry.setUserAttributes(mergedAttributes);
+            cacheEntry.setFetchedAttributes(fetchedAttributes);
+            UserStoreSettings settings = getSettings();
+            if (currentEntry == null || attributeNames.containsAll(currentEntry.getFetchedAttributes())) {
+                cacheEntry.setSoftExpiryTime(now + withJitter(settings.getAttributeCacheSoftExpiry()));
+                cacheEntry.setHardExpiryTime(now + withJitter(settings.getAttributeCacheHardExpiry()));
+            } else {
+                cacheEntry.setSoftExpiryTime(currentEntry.getSoftExpiryTime());
+                cacheEntry.setHardExpiryTime(currentEntry.getHardExpiryTime());
+            }
+            UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(tenantId, getMyDomainName(), userName);
+            if (settings.getAttributeCacheOffHeapSize() > 0) {
+                OffHeapUserAttributeCache offHeapCache = OffHeapUserAttributeCache.getInstance();
+                offHeapCache.initialize(settings.getAttributeCacheOffHeapSize());
+                offHeapCache.addToCache(cacheKey, cacheEntry);
+            } else {
+                TenantCacheQuota.getInstance().addToCache(UserAttributeCache.getInstance(), cacheKey, cacheEntry,
+                        settings.getCacheTenantQuota());
+            }
+            return mergedAttributes;
+        }
+    }
+
+    /**
+     * Spread an expiry time randomly so that entries cached together don't expire together
+     * @param expiryMillis Expiry time in milliseconds
+     * @return Expiry time changed by up to ATTRIBUTE_CACHE_EXPIRY_JITTER_PERCENTAGE percent
+     */
+    private long withJitter(long expiryMillis) {
+        long jitter = expiryMillis * UserStoreConstants.ATTRIBUTE_CACHE_EXPIRY_JITTER_PERCENTAGE / 100;
+        if (jitter <= 0) {
+            return expiryMillis;
+        }
+        return expiryMillis - jitter + ThreadLocalRandom.current().nextLong(2 * jitter + 1);
     }
 
     private UserAttributeCacheEntry getUserAttributesFromCache(String userName) {
 
-        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(userName);
-        return UserAttributeCache.getInstance().getValueFromCache(cacheKey);
+        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(tenantId, getMyDomainName(), userName);
+        if (getSettings().getAttributeCacheOffHeapSize() > 0) {
+            return OffHeapUserAttributeCache.getInstance().getValueFromCache(cacheKey);
+        }
+        return TenantCacheQuota.getInstance().getValueFromCache(UserAttributeCache.getInstance(), cacheKey);
+    }
+
+    private void addRolesToCache(String userName, String[] roleNames) {
+
+        UserStoreSettings settings = getSettings();
+        if (settings.getRoleCacheExpiry() <= 0) {
+            return;
+        }
+        TenantCacheQuota.getInstance().addToCache(UserRoleCache.getInstance(),
+                new UserRoleCacheKey(tenantId, getMyDomainName(), userName),
+                new UserRoleCacheEntry(roleNames, System.currentTimeMillis() + settings.getRoleCacheExpiry()),
+                settings.getCacheTenantQuota());
+    }
+
+    /**
+     * Get the cached role list of a user
+     * @param userName Username
+     * @return Cache entry or null if the role list is not cached or has expired
+     */
+    private UserRoleCacheEntry getUserRolesFromCache(String userName) {
+
+        if (getSettings().getRoleCacheExpiry() <= 0) {
+            return null;
+        }
+        UserRoleCacheEntry cacheEntry = TenantCacheQuota.getInstance().getValueFromCache(UserRoleCache.getInstance(),
+                new UserRoleCacheKey(tenantId, getMyDomainName(), userName));
+        if (cacheEntry == null || cacheEntry.getExpiryTime() <= System.currentTimeMillis()) {
+            return null;
+        }
+        return cacheEntry;
     }
 
     //Todo: Implement doCheckExistingRole
@@ -652,22 +1526,6 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
                 .getUserStoreProperty(UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_BROKER_ENDPOINT);
     }
 
-    private int getMessageRetryLimit() {
-        return Integer.parseInt(
-                this.realmConfig.getUserStoreProperty(UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_RETRY_LIMIT));
-    }
-
-    private int getMessageLifeTime() {
-        return Integer.parseInt(
-                this.realmConfig.getUserStoreProperty(UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_LIFETIME));
-    }
-
-    private int getMessageConsumeTimeout() {
-        return Integer.parseInt(
-                this.realmConfig
-                        .getUserStoreProperty(UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_CONSUME_TIMEOUT));
-    }
-
     public Properties getDefaultUserStoreProperties() {
 
         Properties properties = new Properties();
@@ -714,82 +1572,22 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
             LOGGER.debug("Processing doListUsers request for tenantId  - [" + this.tenantId + "]");
         }
 
-        JMSConnectionFactory connectionFactory = new JMSConnectionFactory();
-        Connection connection = null;
-        Session requestSession;
-        Session responseSession;
-        Destination requestTopic;
-        Destination responseQueue;
-        MessageProducer producer;
         List<String> userList = new ArrayList<>();
-        try {
-            connectionFactory.createActiveMQConnectionFactory(getMessageBrokerURL());
-            connection = connectionFactory.createConnection();
-            connectionFactory.start(connection);
-            requestSession = connectionFactory.createSession(connection);
-            requestTopic = connectionFactory
-                    .createTopicDestination(requestSession, UserStoreConstants.TOPIC_NAME_REQUEST);
-            producer = connectionFactory
-                    .createMessageProducer(requestSession, requestTopic, DeliveryMode.NON_PERSISTENT);
-
-            int retryCount = 0;
-            Message responseMessage = null;
-
-            while (responseMessage == null && getMessageRetryLimit() > retryCount) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Trying to get user list count: " + retryCount);
-                }
-                String correlationId = UUID.randomUUID().toString();
-                responseQueue = connectionFactory
-                        .createQueueDestination(requestSession, UserStoreConstants.QUEUE_NAME_RESPONSE);
-
-                addNextUserOperationToTopic(correlationId, UserStoreConstants.UM_OPERATION_TYPE_GET_USER_LIST,
-                        MessageRequestUtil.getUserListRequest(
-                                filter, maxItemLimit), requestSession, producer, responseQueue);
-
-                responseSession = connectionFactory.createSession(connection);
-
-                String selector = String.format(JMS_CORRELATIONID_FILTER, correlationId);
-                MessageConsumer consumer = responseSession.createConsumer(responseQueue, selector);
-                responseMessage = consumer.receive(getMessageConsumeTimeout());
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Received response for user operation : " + UserStoreConstants
-                            .UM_OPERATION_TYPE_GET_USER_LIST + " correlationId : " + correlationId + " tenant id " +
-                            ": " + tenantId);
-                }
-                if(responseMessage != null) {
-                    UserOperation response = (UserOperation) ((ObjectMessage) responseMessage).getObject();
-                    JSONObject responseObj = new JSONObject(response.getResponseData());
-                    JSONObject resultObj = new JSONObject(
-                            responseObj.get(UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT).toString());
-                    JSONArray users = resultObj.getJSONArray("usernames");
-                    for (int i = 0; i < users.length(); i++) {
-                        String user = (String) users.get(i);
-                        if (!CarbonConstants.REGISTRY_ANONNYMOUS_USERNAME.equals(user)) {
-                            String domain = this.realmConfig.getUserStoreProperty(UserStoreConfigConstants.DOMAIN_NAME);
-                            user = UserCoreUtil.addDomainToName(user, domain);
-                        }
-                        userList.add(user);
-                    }
-                } else {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Response is for get user list count: " + retryCount);
+        UserOperation response = sendUserOperation(UserStoreConstants.UM_OPERATION_TYPE_GET_USER_LIST,
+                MessageRequestUtil.getUserListRequest(filter, maxItemLimit));
+        if (response != null) {
+            try {
+                MessageResponseReader.readStrings(response.getResponseData(), "usernames", userList);
+                String domain = this.realmConfig.getUserStoreProperty(UserStoreConfigConstants.DOMAIN_NAME);
+                for (int i = 0; i < userList.size(); i++) {
+                    String user = userList.get(i);
+                    if (!CarbonConstants.REGISTRY_ANONNYMOUS_USERNAME.equals(user)) {
+                        userList.set(i, UserCoreUtil.addDomainToName(user, domain));
                     }
                 }
-                retryCount++;
-            }
-
-        } catch (JMSConnectionException e) {
-            LOGGER.error("Error occurred while creating JMS connection", e);
-        } catch (JMSException e) {
-            LOGGER.error("Error occurred while adding message to queue", e);
-        } catch (JSONException e) {
-            LOGGER.error("Error occurred while reading JSON object", e);
-        } finally {
-            try {
-                connectionFactory.closeConnection(connection);
-            } catch (JMSConnectionException e) {
-                LOGGER.error("Error occurred while closing the connection", e);
+            } catch (JSONException e) {
+                LOGGER.error("Error occurred while reading JSON object", e);
+                userList.clear();
             }
         }
         return userList.toArray(new String[userList.size()]);
@@ -820,85 +1618,30 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
             LOGGER.debug("Processing getRoleListOfUser request for tenantId  - [" + this.tenantId + "]");
         }
 
-        JMSConnectionFactory connectionFactory = new JMSConnectionFactory();
-        Connection connection = null;
-        Session requestSession;
-        Session responseSession;
-        Destination requestTopic;
-        Destination responseQueue;
-        MessageProducer producer;
-        List<String> groupList = new ArrayList<>();
-        try {
-            connectionFactory.createActiveMQConnectionFactory(getMessageBrokerURL());
-            connection = connectionFactory.createConnection();
-            connectionFactory.start(connection);
-            requestSession = connectionFactory.createSession(connection);
-            requestTopic = connectionFactory
-                    .createTopicDestination(requestSession, UserStoreConstants.TOPIC_NAME_REQUEST);
-            producer = connectionFactory
-                    .createMessageProducer(requestSession, requestTopic, DeliveryMode.NON_PERSISTENT);
-
-            int retryCount = 0;
-            Message responseMessage = null;
-
-            while (responseMessage == null && getMessageRetryLimit() > retryCount) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Trying to get role list of user: " + userName + " count: " + retryCount);
-                }
-                String correlationId = UUID.randomUUID().toString();
-                responseQueue = connectionFactory
-                        .createQueueDestination(requestSession, UserStoreConstants.QUEUE_NAME_RESPONSE);
-
-                addNextUserOperationToTopic(correlationId, UserStoreConstants.UM_OPERATION_TYPE_GET_USER_ROLES,
-                        MessageRequestUtil.doGetExternalRoleListOfUserRequestData(
-                                userName), requestSession, producer, responseQueue);
-
-                responseSession = connectionFactory.createSession(connection);
-
-                String selector = String.format(JMS_CORRELATIONID_FILTER, correlationId);
-                MessageConsumer consumer = responseSession.createConsumer(responseQueue, selector);
-                responseMessage = consumer.receive(getMessageConsumeTimeout());
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Received response for user operation : " + UserStoreConstants
-                            .UM_OPERATION_TYPE_GET_USER_ROLES + " correlationId : " + correlationId + " tenant id " +
-                            ": " + tenantId);
-                }
-
-                if(responseMessage != null) {
-                    UserOperation response = (UserOperation) ((ObjectMessage) responseMessage).getObject();
-                    JSONObject responseObj = new JSONObject(response.getResponseData());
-                    JSONObject resultObj = new JSONObject(
-                            responseObj.get(UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT).toString());
-                    JSONArray groups = resultObj.getJSONArray("groups");
-                    for (int i = 0; i < groups.length(); i++) {
-                        groupList.add((String) groups.get(i));
-                    }
-                } else {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug(
-                                "Response is null for get role list of user: " + userName + " count: " + retryCount);
-                    }
-                }
-
-                retryCount++;
-            }
+        UserRoleCacheEntry cacheEntry = getUserRolesFromCache(userName);
+        if (cacheEntry != null) {
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Role list of user: " + userName + " is : " + groupList.toString());
+                LOGGER.debug("Cache hit for role list of user: " + userName);
             }
+            return cacheEntry.getRoleNames().clone();
+        }
 
-        } catch (JMSConnectionException e) {
-            LOGGER.error("Error occurred while creating JMS Connection", e);
-        } catch (JMSException e) {
-            LOGGER.error("Error occurred while adding message to queue", e);
-        } catch (JSONException e) {
-            LOGGER.error("Error occurred while reading JSON object", e);
-        } finally {
+        List<String> groupList = new ArrayList<>();
+        UserOperation response = sendUserOperation(UserStoreConstants.UM_OPERATION_TYPE_GET_USER_ROLES,
+                MessageRequestUtil.doGetExternalRoleListOfUserRequestData(userName));
+        if (response != null) {
             try {
-                connectionFactory.closeConnection(connection);
-            } catch (JMSConnectionException e) {
-                LOGGER.error("Error occurred while closing the connection", e);
+                MessageResponseReader.readStrings(response.getResponseData(),
+                        UserStoreConstants.UM_JSON_ELEMENT_GROUPS, groupList);
+                addRolesToCache(userName, groupList.toArray(new String[groupList.size()]));
+            } catch (JSONException e) {
+                LOGGER.error("Error occurred while reading JSON object", e);
+                groupList.clear();
             }
         }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Role list of user: " + userName + " is : " + groupList.toString());
+        }
         return groupList.toArray(new String[groupList.size()]);
     }
 
@@ -932,88 +1675,64 @@ public class WSOutboundUserStoreManager extends AbstractUserStoreManager {
             LOGGER.debug("Processing doGetRoleNames request for tenantId  - [" + this.tenantId + "]");
         }
 
-        JMSConnectionFactory connectionFactory = new JMSConnectionFactory();
-        Connection connection = null;
-        Session requestSession;
-        Session responseSession;
-        Destination requestTopic;
-        Destination responseQueue;
-        MessageProducer producer;
         List<String> groupList = new ArrayList<>();
+        UserOperation response = sendUserOperation(UserStoreConstants.UM_OPERATION_TYPE_GET_ROLES,
+                MessageRequestUtil.getRoleListRequest(filter, maxItemLimit));
+        if (response != null) {
+            try {
+                MessageResponseReader.readStrings(response.getResponseData(),
+                        UserStoreConstants.UM_JSON_ELEMENT_GROUPS, groupList);
 
-        try {
-            connectionFactory.createActiveMQConnectionFactory(getMessageBrokerURL());
-            connection = connectionFactory.createConnection();
-            connectionFactory.start(connection);
-            requestSession = connectionFactory.createSession(connection);
-            requestTopic = connectionFactory
-                    .createTopicDestination(requestSession, UserStoreConstants.TOPIC_NAME_REQUEST);
-            producer = connectionFactory
-                    .createMessageProducer(requestSession, requestTopic, DeliveryMode.NON_PERSISTENT);
-
-            int retryCount = 0;
-            Message responseMessage = null;
-
-            while (responseMessage == null && getMessageRetryLimit() > retryCount) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("Trying to get role list count: " + retryCount);
+                String userStoreDomain = this.realmConfig.getUserStoreProperty(UserStoreConfigConstants.DOMAIN_NAME);
+                for (int i = 0; i < groupList.size(); i++) {
+                    groupList.set(i, UserCoreUtil.addDomainToName(groupList.get(i), userStoreDomain));
                 }
-                String correlationId = UUID.randomUUID().toString();
-                responseQueue = connectionFactory
-                        .createQueueDestination(requestSession, UserStoreConstants.QUEUE_NAME_RESPONSE);
-                addNextUserOperationToTopic(correlationId, UserStoreConstants.UM_OPERATION_TYPE_GET_ROLES,
-                        MessageRequestUtil.getRoleListRequest(
-                                filter, maxItemLimit), requestSession,
-                        producer, responseQueue);
-                responseSession = connectionFactory.createSession(connection);
-
-                String selector = String.format(JMS_CORRELATIONID_FILTER, correlationId);
-                MessageConsumer consumer = responseSession.createConsumer(responseQueue, selector);
-                responseMessage = consumer.receive(getMessageConsumeTimeout());
-                if(responseMessage != null) {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Received response for user operation : " + UserStoreConstants
-                                .UM_OPERATION_TYPE_GET_ROLES + " correlationId : " + correlationId + " tenant id " +
-                                ": " + tenantId);
-                    }
-                    UserOperation response = (UserOperation) ((ObjectMessage) responseMessage).getObject();
-                    JSONObject responseObj = new JSONObject(response.getResponseData());
-                    JSONObject resultObj = new JSONObject(
-                            responseObj.get(UserStoreConstants.UM_JSON_ELEMENT_RESPONSE_DATA_RESULT).toString());
-                    JSONArray groups = resultObj.getJSONArray("groups");
-
-                    String userStoreDomain = this.realmConfig
-                            .getUserStoreProperty(UserStoreConfigConstants.DOMAIN_NAME);
-                    for (int i = 0; i < groups.length(); i++) {
-                        String roleName = (String) groups.get(i);
-                        roleName = UserCoreUtil.addDomainToName(roleName, userStoreDomain);
-                        groupList.add(roleName);
-                    }
-                } else {
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Response is null for get role list count: " + retryCount);
-                    }
-                }
-                retryCount++;
-            }
-            if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("Role name list is: " + groupList.toString());
-            }
-
-        } catch (JMSConnectionException e) {
-            LOGGER.error("Error occurred while creating JMS Connection", e);
-        } catch (JMSException e) {
-            LOGGER.error("Error occurred while adding message to queue", e);
-        } catch (JSONException e) {
-            LOGGER.error("Error occurred while reading JSON object", e);
-        } finally {
-            try {
-                connectionFactory.closeConnection(connection);
-            } catch (JMSConnectionException e) {
-                LOGGER.error("Error occurred while closing the connection", e);
+            } catch (JSONException e) {
+                LOGGER.error("Error occurred while reading JSON object", e);
+                groupList.clear();
             }
         }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Role name list is: " + groupList.toString());
+        }
         return groupList.toArray(new String[groupList.size()]);
     }
 
+    /**
+     * Attribute fetch of a user, shared by the callers needing a subset of its attributes. The fetch unregisters
+     * itself from the fetches in progress when it completes, in whichever thread runs it.
+     */
+    private class AttributeFetch {
+
+        private final Set<String> attributeNames;
+        private final FutureTask<Map<String, String>> task;
+
+        private AttributeFetch(final UserAttributeCacheKey cacheKey, Set<String> attributeNames,
+                Callable<Map<String, String>> fetcher) {
+            this.attributeNames = attributeNames;
+            this.task = new FutureTask<Map<String, String>>(fetcher) {
+                @Override
+                protected void done() {
+                    attributeFetches.remove(cacheKey, AttributeFetch.this);
+                }
+            };
+        }
+    }
+
+    /**
+     * Credential of a user waiting for a bulk authentication reply. The password is a copy that is cleared once the
+     * user is processed.
+     */
+    private static class PendingAuthentication {
+
+        private final String userName;
+        private final char[] password;
+        private final String identifier;
+
+        private PendingAuthentication(String userName, char[] password, String identifier) {
+            this.userName = userName;
+            this.password = password;
+            this.identifier = identifier;
+        }
+    }
 }
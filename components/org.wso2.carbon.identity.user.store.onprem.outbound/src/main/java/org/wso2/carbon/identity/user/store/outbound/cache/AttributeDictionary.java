@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Node local attribute schemas of the user store domains and a bounded dictionary of attribute values. Values such as
+ * country, department or locale repeat across users, and a cached entry refers to the dictionary copy instead of
+ * holding its own. The dictionary is cleared when full, so that it follows the values currently cached, while entries
+ * keep the copies they refer to.
+ */
+public class AttributeDictionary {
+
+    private static final int MAX_VALUES = 64 * 1024;
+    private static final int MAX_VALUE_LENGTH = 128;
+
+    private static AttributeDictionary instance = new AttributeDictionary();
+
+    private final ConcurrentMap<String, AttributeSchema> schemas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> values = new ConcurrentHashMap<>();
+
+    private AttributeDictionary() {
+    }
+
+    public static AttributeDictionary getInstance() {
+        return instance;
+    }
+
+    /**
+     * @param tenantId Tenant ID
+     * @param domain User store domain
+     * @return Attribute schema of the domain
+     */
+    public AttributeSchema getSchema(int tenantId, String domain) {
+        return getSchema(tenantId + "/" + (domain == null ? null : domain.toUpperCase()));
+    }
+
+    /**
+     * @param scope Scope of a schema returned by AttributeSchema.getScope
+     * @return Attribute schema of the scope
+     */
+    public AttributeSchema getSchema(String scope) {
+
+        AttributeSchema schema = schemas.get(scope);
+        if (schema == null) {
+            AttributeSchema newSchema = new AttributeSchema(scope);
+            schema = schemas.putIfAbsent(scope, newSchema);
+            if (schema == null) {
+                schema = newSchema;
+            }
+        }
+        return schema;
+    }
+
+    /**
+     * Get the dictionary copy of an attribute value
+     * @param value Attribute value
+     * @return Dictionary copy of the value, or the value if it is too long to share
+     */
+    public String intern(String value) {
+
+        if (value == null || value.length() > MAX_VALUE_LENGTH) {
+            return value;
+        }
+        String internedValue = values.get(value);
+        if (internedValue != null) {
+            return internedValue;
+        }
+        if (values.size() >= MAX_VALUES) {
+            values.clear();
+        }
+        internedValue = values.putIfAbsent(value, value);
+        return internedValue == null ? value : internedValue;
+    }
+
+    public void clear() {
+        schemas.clear();
+        values.clear();
+    }
+}
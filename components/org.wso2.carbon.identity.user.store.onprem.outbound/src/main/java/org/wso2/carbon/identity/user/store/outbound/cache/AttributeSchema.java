@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Append only table of the attribute names of a user store domain. Cached attributes refer to names by their
+ * ordinal, so that each name is held once per domain instead of once per user. Ordinals never change, so entries
+ * encoded with an earlier version of the schema stay valid.
+ */
+public class AttributeSchema {
+
+    static final int MAX_ATTRIBUTES = 1024;
+
+    private final String scope;
+    private final ConcurrentMap<String, Integer> ordinals = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[0];
+
+    AttributeSchema(String scope) {
+        this.scope = scope;
+    }
+
+    /**
+     * @return Tenant and user store domain of the schema
+     */
+    public String getScope() {
+        return scope;
+    }
+
+    /**
+     * @param name Attribute name
+     * @return Ordinal of the attribute or -1 if the attribute is not in the schema
+     */
+    public int getOrdinal(String name) {
+        Integer ordinal = ordinals.get(name);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    /**
+     * Get the ordinal of an attribute, adding the attribute to the schema if it is not in it
+     * @param name Attribute name
+     * @return Ordinal of the attribute or -1 if the schema is full
+     */
+    public int addOrdinal(String name) {
+
+        Integer ordinal = ordinals.get(name);
+        if (ordinal != null) {
+            return ordinal;
+        }
+        synchronized (this) {
+            ordinal = ordinals.get(name);
+            if (ordinal != null) {
+                return ordinal;
+            }
+            String[] currentNames = names;
+            if (currentNames.length >= MAX_ATTRIBUTES) {
+                return -1;
+            }
+            String[] newNames = Arrays.copyOf(currentNames, currentNames.length + 1);
+            newNames[currentNames.length] = name;
+            // Publish the name before its ordinal, so that any ordinal read has a name.
+            names = newNames;
+            ordinals.put(name, currentNames.length);
+            return currentNames.length;
+        }
+    }
+
+    /**
+     * @param ordinal Ordinal of an attribute
+     * @return Name of the attribute
+     */
+    public String getName(int ordinal) {
+        return names[ordinal];
+    }
+
+    /**
+     * @return Number of attributes in the schema
+     */
+    public int size() {
+        return names.length;
+    }
+}
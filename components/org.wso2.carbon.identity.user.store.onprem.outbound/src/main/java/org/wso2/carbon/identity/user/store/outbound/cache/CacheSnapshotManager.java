@@ -0,0 +1,401 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.outbound.internal.WSUserStoreComponentHolder;
+import org.wso2.carbon.utils.CarbonUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically saves the hottest user attribute and role cache entries of the user stores with
+ * UserCacheSnapshotEnabled set to a local file, and loads them in the background when the component is activated, so
+ * that a restarted node doesn't send the first logins of every user to the agents. Credentials are never saved.
+ * Entries keep their expiry times, so attribute entries past their hard expiry, expired role entries and snapshots
+ * older than SNAPSHOT_MAX_AGE are not loaded.
+ */
+public class CacheSnapshotManager {
+
+    private static Log LOGGER = LogFactory.getLog(CacheSnapshotManager.class);
+
+    private static final String SNAPSHOT_DIRECTORY = "repository" + File.separator + "data" + File.separator +
+            "outbound-cache-snapshot";
+    private static final String SNAPSHOT_FILE = "user-cache.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x55435350;
+    private static final byte SNAPSHOT_VERSION = 2;
+    private static final byte RECORD_END = 0;
+    private static final byte RECORD_ATTRIBUTES = 1;
+    private static final byte RECORD_ROLES = 2;
+    private static final long SNAPSHOT_INTERVAL = 5 * 60 * 1000;
+    private static final long SNAPSHOT_MAX_AGE = 30 * 60 * 1000;
+    private static final int SNAPSHOT_MAX_ENTRIES = 10000;
+
+    private static CacheSnapshotManager instance = new CacheSnapshotManager();
+
+    private final ConcurrentMap<String, Integer> scopeQuotas = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> snapshotTask;
+
+    private CacheSnapshotManager() {
+    }
+
+    public static CacheSnapshotManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Include or exclude the entries of a user store in the snapshots
+     * @param tenantId Tenant ID
+     * @param domain User store domain
+     * @param enabled Whether the entries are saved
+     * @param cacheTenantQuota Maximum number of entries the tenant holds in each user cache
+     */
+    public void setSnapshotEnabled(int tenantId, String domain, boolean enabled, int cacheTenantQuota) {
+
+        String scope = getScope(tenantId, domain == null ? null : domain.toUpperCase());
+        if (enabled) {
+            scopeQuotas.put(scope, cacheTenantQuota);
+        } else {
+            scopeQuotas.remove(scope);
+        }
+    }
+
+    /**
+     * Load the last snapshot in the background and save snapshots periodically
+     */
+    public synchronized void start() {
+
+        if (snapshotTask != null) {
+            return;
+        }
+        try {
+            WSUserStoreComponentHolder.getInstance().getTaskExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    load(getFile());
+                }
+            });
+            snapshotTask = WSUserStoreComponentHolder.getInstance().getTaskExecutor().scheduleWithFixedDelay(
+                    new Runnable() {
+                        @Override
+                        public void run() {
+                            save(getFile());
+                        }
+                    }, SNAPSHOT_INTERVAL, SNAPSHOT_INTERVAL, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("User cache snapshots are not scheduled", e);
+        }
+    }
+
+    /**
+     * Stop the periodic snapshots and save a last snapshot
+     */
+    public synchronized void stop() {
+
+        if (snapshotTask == null) {
+            return;
+        }
+        snapshotTask.cancel(false);
+        snapshotTask = null;
+        save(getFile());
+    }
+
+    private void save(File file) {
+
+        if (scopeQuotas.isEmpty()) {
+            if (file.isFile() && !file.delete()) {
+                LOGGER.warn("Unable to delete the user cache snapshot: " + file.getAbsolutePath());
+            }
+            return;
+        }
+        File directory = file.getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.warn("Unable to create the user cache snapshot directory: " + directory.getAbsolutePath());
+            return;
+        }
+        File tempFile = new File(directory, SNAPSHOT_FILE + ".tmp");
+        int count = 0;
+        try {
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+                restrictPermissions(tempFile);
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeByte(SNAPSHOT_VERSION);
+                out.writeLong(System.currentTimeMillis());
+                ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+                List<Map.Entry<UserAttributeCacheKey, UserAttributeCacheEntry>> attributeEntries =
+                        UserAttributeCache.getInstance().getHottestEntries(SNAPSHOT_MAX_ENTRIES);
+                for (Map.Entry<UserAttributeCacheKey, UserAttributeCacheEntry> entry : attributeEntries) {
+                    if (isEnabled(entry.getKey()) && writeRecord(out, record, entry.getKey(), entry.getValue())) {
+                        count++;
+                    }
+                }
+                List<Map.Entry<UserRoleCacheKey, UserRoleCacheEntry>> roleEntries =
+                        UserRoleCache.getInstance().getHottestEntries(SNAPSHOT_MAX_ENTRIES);
+                for (Map.Entry<UserRoleCacheKey, UserRoleCacheEntry> entry : roleEntries) {
+                    if (isEnabled(entry.getKey()) && writeRecord(out, record, entry.getKey(), entry.getValue())) {
+                        count++;
+                    }
+                }
+                out.writeByte(RECORD_END);
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Saved " + count + " user cache entries to " + file.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to save the user cache snapshot: " + file.getAbsolutePath(), e);
+            if (tempFile.isFile() && !tempFile.delete()) {
+                LOGGER.warn("Unable to delete the user cache snapshot: " + tempFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private void load(File file) {
+
+        if (!file.isFile()) {
+            return;
+        }
+        int count = 0;
+        try (FileInputStream inputStream = new FileInputStream(file);
+             FileChannel channel = inputStream.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            DataInputStream in = new DataInputStream(new BufferInputStream(buffer));
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readByte() != SNAPSHOT_VERSION) {
+                LOGGER.warn("Ignoring the user cache snapshot of an unknown format: " + file.getAbsolutePath());
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (now - in.readLong() > SNAPSHOT_MAX_AGE) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Ignoring the expired user cache snapshot: " + file.getAbsolutePath());
+                }
+                return;
+            }
+            for (byte type = in.readByte(); type != RECORD_END; type = in.readByte()) {
+                if (readRecord(in, type, now)) {
+                    count++;
+                }
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Loaded " + count + " user cache entries from " + file.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to load the user cache snapshot: " + file.getAbsolutePath() + ". Loaded " + count +
+                    " entries", e);
+        }
+    }
+
+    private boolean writeRecord(DataOutputStream out, ByteArrayOutputStream record, UserAttributeCacheKey key,
+            UserAttributeCacheEntry entry) throws IOException {
+
+        Map<String, String> attributes = entry.getUserAttributes();
+        if (attributes == null) {
+            return false;
+        }
+        record.reset();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        try {
+            writeKey(recordOut, RECORD_ATTRIBUTES, key);
+            recordOut.writeLong(entry.getSoftExpiryTime());
+            recordOut.writeLong(entry.getHardExpiryTime());
+            recordOut.writeInt(attributes.size());
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                recordOut.writeUTF(attribute.getKey());
+                recordOut.writeUTF(attribute.getValue());
+            }
+            Set<String> fetchedAttributes = entry.getFetchedAttributes();
+            recordOut.writeInt(fetchedAttributes == null ? -1 : fetchedAttributes.size());
+            if (fetchedAttributes != null) {
+                for (String attributeName : fetchedAttributes) {
+                    recordOut.writeUTF(attributeName);
+                }
+            }
+        } catch (IOException e) {
+            // A value too long for the record format. The entry is left out.
+            return false;
+        }
+        record.writeTo(out);
+        return true;
+    }
+
+    private boolean writeRecord(DataOutputStream out, ByteArrayOutputStream record, UserRoleCacheKey key,
+            UserRoleCacheEntry entry) throws IOException {
+
+        String[] roleNames = entry.getRoleNames();
+        if (roleNames == null || entry.getExpiryTime() <= System.currentTimeMillis()) {
+            return false;
+        }
+        record.reset();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        try {
+            writeKey(recordOut, RECORD_ROLES, key);
+            recordOut.writeLong(entry.getExpiryTime());
+            recordOut.writeInt(roleNames.length);
+            for (String roleName : roleNames) {
+                recordOut.writeUTF(roleName);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        record.writeTo(out);
+        return true;
+    }
+
+    private void writeKey(DataOutputStream out, byte type, UserCacheKey key) throws IOException {
+        out.writeByte(type);
+        out.writeInt(key.getTenantId());
+        out.writeUTF(key.getDomain());
+        out.writeUTF(key.getUserName());
+    }
+
+    private boolean readRecord(DataInputStream in, byte type, long now) throws IOException {
+
+        int tenantId = in.readInt();
+        String domain = in.readUTF();
+        String userName = in.readUTF();
+        if (type == RECORD_ATTRIBUTES) {
+            long softExpiryTime = in.readLong();
+            long hardExpiryTime = in.readLong();
+            int count = in.readInt();
+            Map<String, String> attributes = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                attributes.put(in.readUTF(), in.readUTF());
+            }
+            count = in.readInt();
+            Set<String> fetchedAttributes = count < 0 ? null : new HashSet<String>();
+            for (int i = 0; i < count; i++) {
+                fetchedAttributes.add(in.readUTF());
+            }
+            if (hardExpiryTime > 0 && hardExpiryTime <= now) {
+                return false;
+            }
+            UserAttributeCacheKey key = new UserAttributeCacheKey(tenantId, domain, userName);
+            if (UserAttributeCache.getInstance().getValueFromCache(key) != null) {
+                return false;
+            }
+            UserAttributeCacheEntry entry = new UserAttributeCacheEntry(
+                    AttributeDictionary.getInstance().getSchema(tenantId, domain));
+            entry.setUserAttributes(attributes);
+            entry.setFetchedAttributes(fetchedAttributes);
+            entry.setSoftExpiryTime(softExpiryTime);
+            entry.setHardExpiryTime(hardExpiryTime);
+            TenantCacheQuota.getInstance().addToCache(UserAttributeCache.getInstance(), key, entry,
+                    getCacheTenantQuota(tenantId, domain));
+            return true;
+        } else if (type == RECORD_ROLES) {
+            long expiryTime = in.readLong();
+            String[] roleNames = new String[in.readInt()];
+            for (int i = 0; i < roleNames.length; i++) {
+                roleNames[i] = in.readUTF();
+            }
+            if (expiryTime <= now) {
+                return false;
+            }
+            UserRoleCacheKey key = new UserRoleCacheKey(tenantId, domain, userName);
+            if (UserRoleCache.getInstance().getValueFromCache(key) != null) {
+                return false;
+            }
+            TenantCacheQuota.getInstance().addToCache(UserRoleCache.getInstance(), key,
+                    new UserRoleCacheEntry(roleNames, expiryTime), getCacheTenantQuota(tenantId, domain));
+            return true;
+        }
+        throw new IOException("Unknown record type: " + type);
+    }
+
+    private boolean isEnabled(UserCacheKey key) {
+        return scopeQuotas.containsKey(getScope(key.getTenantId(), key.getDomain()));
+    }
+
+    /**
+     * @param tenantId Tenant ID
+     * @param domain User store domain
+     * @return Cache tenant quota of the user store, or the default quota if the user store is not initialized yet
+     */
+    private int getCacheTenantQuota(int tenantId, String domain) {
+        Integer quota = scopeQuotas.get(getScope(tenantId, domain));
+        return quota == null ? UserStoreConstants.CACHE_TENANT_QUOTA : quota;
+    }
+
+    private String getScope(int tenantId, String domain) {
+        return tenantId + "/" + domain;
+    }
+
+    private File getFile() {
+        return new File(CarbonUtils.getCarbonHome() + File.separator + SNAPSHOT_DIRECTORY, SNAPSHOT_FILE);
+    }
+
+    private void restrictPermissions(File file) {
+        if (!(file.setReadable(false, false) && file.setReadable(true, true) && file.setWritable(false, false)
+                && file.setWritable(true, true))) {
+            LOGGER.warn("Unable to restrict the permissions of the user cache snapshot: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Input stream over the mapped snapshot file
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Node local statistics of the attributes requested from each user store domain of a tenant. The most requested
+ * attributes form the hot set of the domain, which is fetched when the attributes of a user are not cached, while the
+ * other attributes are fetched when requested. Counts are halved each time the hot set is recomputed, so that the hot
+ * set follows changes of the access pattern. The access distribution and the hot set are logged at info level each
+ * time the hot set is recomputed.
+ */
+public class ClaimAccessTracker {
+
+    private static Log LOGGER = LogFactory.getLog(ClaimAccessTracker.class);
+
+    private static final long HOT_SET_REFRESH_INTERVAL = 60 * 1000;
+    private static final int MIN_REQUESTS = 100;
+
+    private static ClaimAccessTracker instance = new ClaimAccessTracker();
+
+    private final ConcurrentMap<String, AccessStatistics> statistics = new ConcurrentHashMap<>();
+
+    private ClaimAccessTracker() {
+    }
+
+    public static ClaimAccessTracker getInstance() {
+        return instance;
+    }
+
+    /**
+     * Record a request of attributes of a user
+     * @param tenantId Tenant ID
+     * @param domain User store domain
+     * @param attributeNames Requested attributes
+     */
+    public void recordAccess(int tenantId, String domain, String[] attributeNames) {
+
+        AccessStatistics accessStatistics = getStatistics(tenantId, domain);
+        accessStatistics.requests.incrementAndGet();
+        for (String attributeName : attributeNames) {
+            AtomicLong count = accessStatistics.counts.get(attributeName);
+            if (count == null) {
+                AtomicLong newCount = new AtomicLong();
+                count = accessStatistics.counts.putIfAbsent(attributeName, newCount);
+                if (count == null) {
+                    count = newCount;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the most requested attributes of the domain
+     * @param tenantId Tenant ID
+     * @param domain User store domain
+     * @param size Maximum number of attributes in the hot set
+     * @return Hot set of the domain, empty until enough requests are recorded
+     */
+    public Set<String> getHotAttributes(int tenantId, String domain, int size) {
+
+        AccessStatistics accessStatistics = getStatistics(tenantId, domain);
+        long now = System.currentTimeMillis();
+        if (accessStatistics.refreshTime + HOT_SET_REFRESH_INTERVAL <= now || accessStatistics.size != size) {
+            synchronized (accessStatistics) {
+                if (accessStatistics.refreshTime + HOT_SET_REFRESH_INTERVAL <= now || accessStatistics.size != size) {
+                    refreshHotAttributes(tenantId, domain, accessStatistics, size);
+                    accessStatistics.refreshTime = now;
+                }
+            }
+        }
+        return accessStatistics.hotAttributes;
+    }
+
+    /**
+     * Get the access counts of the attributes of the domain. Counts are halved each time the hot set is recomputed.
+     * @param tenantId Tenant ID
+     * @param domain User store domain
+     * @return Access count of each requested attribute
+     */
+    public Map<String, Long> getAccessDistribution(int tenantId, String domain) {
+
+        AccessStatistics accessStatistics = statistics.get(getScope(tenantId, domain));
+        if (accessStatistics == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> distribution = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : accessStatistics.counts.entrySet()) {
+            distribution.put(entry.getKey(), entry.getValue().get());
+        }
+        return distribution;
+    }
+
+    public void clear() {
+        statistics.clear();
+    }
+
+    private void refreshHotAttributes(int tenantId, String domain, AccessStatistics accessStatistics, int size) {
+
+        final Map<String, Long> distribution = getAccessDistribution(tenantId, domain);
+        accessStatistics.size = size;
+        if (size <= 0) {
+            accessStatistics.hotAttributes = Collections.emptySet();
+        } else if (accessStatistics.requests.get() >= MIN_REQUESTS) {
+            List<String> attributeNames = new ArrayList<>(distribution.keySet());
+            Collections.sort(attributeNames, new Comparator<String>() {
+                @Override
+                public int compare(String name1, String name2) {
+                    return distribution.get(name2).compareTo(distribution.get(name1));
+                }
+            });
+            Set<String> hotAttributes = new HashSet<>(attributeNames.subList(0,
+                    Math.min(size, attributeNames.size())));
+            accessStatistics.hotAttributes = Collections.unmodifiableSet(hotAttributes);
+            if (LOGGER.isInfoEnabled()) {
+                StringBuilder builder = new StringBuilder();
+                for (String attributeName : attributeNames) {
+                    if (builder.length() > 0) {
+                        builder.append(", ");
+                    }
+                    builder.append(attributeName).append('=').append(distribution.get(attributeName));
+                }
+                LOGGER.info("Attribute access distribution of domain: " + domain + " of tenant: " + tenantId +
+                        " over " + accessStatistics.requests.get() + " requests: [" + builder + "]. Hot attributes: "
+                        + hotAttributes);
+            }
+            for (AtomicLong count : accessStatistics.counts.values()) {
+                count.set(count.get() >>> 1);
+            }
+            accessStatistics.requests.set(accessStatistics.requests.get() >>> 1);
+        }
+    }
+
+    private AccessStatistics getStatistics(int tenantId, String domain) {
+
+        String scope = getScope(tenantId, domain);
+        AccessStatistics accessStatistics = statistics.get(scope);
+        if (accessStatistics == null) {
+            AccessStatistics newStatistics = new AccessStatistics();
+            accessStatistics = statistics.putIfAbsent(scope, newStatistics);
+            if (accessStatistics == null) {
+                accessStatistics = newStatistics;
+            }
+        }
+        return accessStatistics;
+    }
+
+    private String getScope(int tenantId, String domain) {
+        return tenantId + "/" + (domain == null ? null : domain.toUpperCase());
+    }
+
+    private static class AccessStatistics {
+
+        private final ConcurrentMap<String, AtomicLong> counts = new ConcurrentHashMap<>();
+        private final AtomicLong requests = new AtomicLong();
+        private volatile Set<String> hotAttributes = Collections.emptySet();
+        private volatile long refreshTime;
+        private volatile int size;
+    }
+}
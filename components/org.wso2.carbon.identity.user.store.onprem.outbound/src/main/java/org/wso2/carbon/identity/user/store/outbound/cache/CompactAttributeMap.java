@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of attribute values indexed by the ordinals of an attribute schema. Attributes not fitting in a full
+ * schema are kept in a regular map.
+ */
+public class CompactAttributeMap extends AbstractMap<String, String> {
+
+    private static final String[] NO_VALUES = new String[0];
+
+    private final AttributeSchema schema;
+    private final String[] values;
+    private final Map<String, String> overflow;
+    private final int size;
+
+    private CompactAttributeMap(AttributeSchema schema, String[] values, Map<String, String> overflow, int size) {
+        this.schema = schema;
+        this.values = values;
+        this.overflow = overflow;
+        this.size = size;
+    }
+
+    /**
+     * Encode attributes with a schema, adding new attribute names to the schema
+     * @param schema Attribute schema of the user store domain
+     * @param attributes Attributes
+     * @return Compact copy of the attributes
+     */
+    public static CompactAttributeMap encode(AttributeSchema schema, Map<String, String> attributes) {
+
+        if (attributes instanceof CompactAttributeMap && ((CompactAttributeMap) attributes).schema == schema) {
+            return (CompactAttributeMap) attributes;
+        }
+        AttributeDictionary dictionary = AttributeDictionary.getInstance();
+        int[] ordinals = new int[attributes.size()];
+        int length = 0;
+        int index = 0;
+        for (String name : attributes.keySet()) {
+            ordinals[index] = schema.addOrdinal(name);
+            length = Math.max(length, ordinals[index] + 1);
+            index++;
+        }
+        String[] values = length == 0 ? NO_VALUES : new String[length];
+        Map<String, String> overflow = null;
+        int size = 0;
+        index = 0;
+        for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+            int ordinal = ordinals[index++];
+            if (attribute.getValue() == null) {
+                continue;
+            }
+            if (ordinal < 0) {
+                if (overflow == null) {
+                    overflow = new HashMap<>();
+                }
+                overflow.put(attribute.getKey(), dictionary.intern(attribute.getValue()));
+            } else {
+                values[ordinal] = dictionary.intern(attribute.getValue());
+            }
+            size++;
+        }
+        return new CompactAttributeMap(schema, values, overflow == null ? Collections.<String, String>emptyMap() :
+                overflow, size);
+    }
+
+    /**
+     * Create a map of already encoded attributes
+     * @param schema Attribute schema the ordinals belong to
+     * @param values Values indexed by ordinal
+     * @param overflow Attributes not in the schema
+     * @return Attribute map
+     */
+    static CompactAttributeMap fromOrdinals(AttributeSchema schema, String[] values, Map<String, String> overflow) {
+
+        int size = overflow.size();
+        for (String value : values) {
+            if (value != null) {
+                size++;
+            }
+        }
+        return new CompactAttributeMap(schema, values, overflow, size);
+    }
+
+    String[] getValues() {
+        return values;
+    }
+
+    Map<String, String> getOverflow() {
+        return overflow;
+    }
+
+    @Override
+    public String get(Object key) {
+
+        if (!(key instanceof String)) {
+            return null;
+        }
+        int ordinal = schema.getOrdinal((String) key);
+        if (ordinal >= 0) {
+            return ordinal < values.length ? values[ordinal] : null;
+        }
+        return overflow.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new AttributeIterator();
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    private class AttributeIterator implements Iterator<Entry<String, String>> {
+
+        private final Iterator<Entry<String, String>> overflowIterator = overflow.entrySet().iterator();
+        private int ordinal = nextOrdinal(0);
+
+        @Override
+        public boolean hasNext() {
+            return ordinal < values.length || overflowIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, String> next() {
+
+            if (ordinal < values.length) {
+                Entry<String, String> entry = new SimpleImmutableEntry<>(schema.getName(ordinal), values[ordinal]);
+                ordinal = nextOrdinal(ordinal + 1);
+                return entry;
+            }
+            if (overflowIterator.hasNext()) {
+                return new SimpleImmutableEntry<>(overflowIterator.next());
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private int nextOrdinal(int from) {
+            int next = from;
+            while (next < values.length && values[next] == null) {
+                next++;
+            }
+            return next;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Node local, bounded cache of the credentials the agents rejected recently, so that repeated identical failures
+ * ex. credential stuffing traffic are answered without a round trip to the agents. The failure rate of each user is
+ * tracked as well. Rejected credentials of a user failing more often than the configured rate are kept for longer.
+ * Entries are keyed by tenant, user store domain, username and credential identifier and expire after a short time,
+ * so that a password changed in the customer's user store is accepted soon.
+ */
+public class FailedAuthenticationCache {
+
+    private static Log LOGGER = LogFactory.getLog(FailedAuthenticationCache.class);
+
+    private static final int MAX_ENTRIES = 10000;
+    private static final int SUSPICIOUS_USER_EXPIRY_FACTOR = 10;
+
+    private static FailedAuthenticationCache instance = new FailedAuthenticationCache();
+
+    private final Map<String, Long> rejectedCredentials = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private final Map<String, FailureWindow> failureWindows = new LinkedHashMap<String, FailureWindow>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FailureWindow> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private FailedAuthenticationCache() {
+    }
+
+    public static FailedAuthenticationCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Check whether the credential was rejected by the agents recently
+     * @param userKey Tenant, user store domain and username of the user
+     * @param identifier Credential identifier
+     * @return true if an unexpired rejection of the same credential is cached
+     */
+    public boolean isRejected(String userKey, String identifier) {
+        String key = userKey + "/" + identifier;
+        synchronized (rejectedCredentials) {
+            Long expiry = rejectedCredentials.get(key);
+            if (expiry == null) {
+                return false;
+            }
+            if (expiry < System.currentTimeMillis()) {
+                rejectedCredentials.remove(key);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Record a credential the agents rejected
+     * @param userKey Tenant, user store domain and username of the user
+     * @param identifier Credential identifier
+     * @param expiryMillis Time in milliseconds the rejection is cached
+     * @param rateThreshold Number of failures of a user within the expiry time above which the rejections of the
+     *                      user are cached for longer
+     */
+    public void addRejection(String userKey, String identifier, long expiryMillis, int rateThreshold) {
+        if (expiryMillis <= 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        boolean suspicious;
+        synchronized (failureWindows) {
+            FailureWindow failureWindow = failureWindows.get(userKey);
+            if (failureWindow == null || now - failureWindow.startTime > expiryMillis) {
+                failureWindow = new FailureWindow(now);
+                failureWindows.put(userKey, failureWindow);
+            }
+            failureWindow.failures++;
+            suspicious = failureWindow.failures > rateThreshold;
+            if (failureWindow.failures == rateThreshold + 1) {
+                LOGGER.warn("User: " + userKey + " failed authentication more than " + rateThreshold +
+                        " times within " + expiryMillis + "ms.");
+            }
+        }
+        long expiry = now + (suspicious ? expiryMillis * SUSPICIOUS_USER_EXPIRY_FACTOR : expiryMillis);
+        synchronized (rejectedCredentials) {
+            rejectedCredentials.put(userKey + "/" + identifier, expiry);
+        }
+    }
+
+    /**
+     * Reset the failure rate of a user after a successful authentication
+     * @param userKey Tenant, user store domain and username of the user
+     */
+    public void resetFailures(String userKey) {
+        synchronized (failureWindows) {
+            failureWindows.remove(userKey);
+        }
+    }
+
+    /**
+     * @param userKey Tenant, user store domain and username of the user
+     * @return Number of failures of the user in the current window
+     */
+    public int getFailureCount(String userKey) {
+        synchronized (failureWindows) {
+            FailureWindow failureWindow = failureWindows.get(userKey);
+            return failureWindow == null ? 0 : failureWindow.failures;
+        }
+    }
+
+    /**
+     * Forget the rejected credentials and the failure rate of a user, ex. after the password of the user changed
+     * @param userKey Tenant, user store domain and username of the user
+     */
+    public void removeUser(String userKey) {
+        String prefix = userKey + "/";
+        synchronized (rejectedCredentials) {
+            Iterator<String> keys = rejectedCredentials.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        }
+        resetFailures(userKey);
+    }
+
+    public void clear() {
+        synchronized (rejectedCredentials) {
+            rejectedCredentials.clear();
+        }
+        synchronized (failureWindows) {
+            failureWindows.clear();
+        }
+    }
+
+    /**
+     * Failures of a user counted from the first failure of the window.
+     */
+    private static class FailureWindow {
+
+        private final long startTime;
+        private int failures;
+
+        private FailureWindow(long startTime) {
+            this.startTime = startTime;
+        }
+    }
+}
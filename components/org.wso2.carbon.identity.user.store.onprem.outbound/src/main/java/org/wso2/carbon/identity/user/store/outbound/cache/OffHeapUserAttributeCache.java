@@ -0,0 +1,369 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Node local cache of user attributes held outside the heap, for user stores with directories too large for
+ * UserAttributeCache. Entries are written one after another to a direct buffer used as a ring, and the oldest entries
+ * are evicted when the ring wraps around. Only the key index stays on the heap. Attribute names are written as the
+ * ordinals of the attribute schema the entry was encoded with, so an entry is read back with the same schema.
+ * The buffer is allocated by the first user store enabling the cache, with the size that user store configures.
+ */
+public class OffHeapUserAttributeCache {
+
+    private static Log LOGGER = LogFactory.getLog(OffHeapUserAttributeCache.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int WRAP_MARKER = -1;
+    private static final int OVERFLOW_ORDINAL = -1;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+    private static final byte HAS_ATTRIBUTES = 1;
+    private static final byte HAS_FETCHED_ATTRIBUTES = 2;
+
+    private static OffHeapUserAttributeCache instance = new OffHeapUserAttributeCache();
+
+    private final ConcurrentMap<UserAttributeCacheKey, Slot> index = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile ByteBuffer buffer;
+    private int capacity;
+    private long writePosition;
+    private long evictPosition;
+
+    private OffHeapUserAttributeCache() {
+    }
+
+    public static OffHeapUserAttributeCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Allocate the buffer of the cache if it is not allocated yet
+     * @param capacity Size of the buffer in bytes
+     */
+    public void initialize(long capacity) {
+
+        if (buffer != null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (buffer == null) {
+                this.capacity = (int) Math.min(Integer.MAX_VALUE, capacity);
+                this.writePosition = 0;
+                this.evictPosition = 0;
+                buffer = ByteBuffer.allocateDirect(this.capacity);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Allocated " + this.capacity + " bytes for the off heap user attribute cache");
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param key Cache key
+     * @return Cache entry or null if not cached
+     */
+    public UserAttributeCacheEntry getValueFromCache(UserAttributeCacheKey key) {
+
+        byte[] record;
+        AttributeSchema schema;
+        lock.readLock().lock();
+        try {
+            Slot slot = index.get(key);
+            if (buffer == null || slot == null || slot.position < evictPosition) {
+                return null;
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) (slot.position % capacity));
+            record = new byte[view.getInt()];
+            view.get(record);
+            schema = slot.schema;
+        } finally {
+            lock.readLock().unlock();
+        }
+        try {
+            return readEntry(record, key, schema);
+        } catch (IOException e) {
+            LOGGER.error("Error occurred while reading the off heap cache entry of user: " + key.getUserName(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Add an entry, evicting the oldest entries if the buffer is full
+     * @param key Cache key
+     * @param entry Cache entry
+     */
+    public void addToCache(UserAttributeCacheKey key, UserAttributeCacheEntry entry) {
+
+        if (buffer == null) {
+            return;
+        }
+        byte[] record;
+        try {
+            record = writeEntry(key, entry);
+        } catch (IOException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Attributes of user: " + key.getUserName() + " are not cached off heap", e);
+            }
+            clearCacheEntry(key);
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            int length = 4 + record.length;
+            if (length > capacity / 4) {
+                index.remove(key);
+                return;
+            }
+            int offset = (int) (writePosition % capacity);
+            long position = writePosition;
+            if (offset + length > capacity) {
+                position = writePosition + capacity - offset;
+            }
+            evict(position + length);
+            if (position != writePosition && capacity - offset >= 4) {
+                buffer.putInt(offset, WRAP_MARKER);
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position((int) (position % capacity));
+            view.putInt(record.length);
+            view.put(record);
+            writePosition = position + length;
+            index.put(key, new Slot(position, entry.getSchema()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @param key Cache key
+     */
+    public void clearCacheEntry(UserAttributeCacheKey key) {
+        index.remove(key);
+    }
+
+    public void clear() {
+
+        lock.writeLock().lock();
+        try {
+            index.clear();
+            evictPosition = writePosition;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Number of cached entries
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Evict the oldest entries until the buffer has room up to an end position. Called holding the write lock.
+     * @param endPosition End position of the entry to be written
+     */
+    private void evict(long endPosition) {
+
+        while (endPosition - evictPosition > capacity) {
+            int offset = (int) (evictPosition % capacity);
+            if (capacity - offset < 4 || buffer.getInt(offset) == WRAP_MARKER) {
+                evictPosition += capacity - offset;
+                continue;
+            }
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset);
+            int length = view.getInt();
+            int tenantId = view.getInt();
+            String domain = readString(view);
+            String userName = readString(view);
+            index.remove(new UserAttributeCacheKey(tenantId, domain, userName), new Slot(evictPosition, null));
+            evictPosition += 4 + length;
+        }
+    }
+
+    private byte[] writeEntry(UserAttributeCacheKey key, UserAttributeCacheEntry entry) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(key.getTenantId());
+        writeString(out, key.getDomain());
+        writeString(out, key.getUserName());
+        out.writeLong(entry.getSoftExpiryTime());
+        out.writeLong(entry.getHardExpiryTime());
+        CompactAttributeMap attributes = (CompactAttributeMap) entry.getUserAttributes();
+        BitSet fetchedOrdinals = entry.getFetchedOrdinals();
+        out.writeByte((attributes != null ? HAS_ATTRIBUTES : 0)
+                | (fetchedOrdinals != null ? HAS_FETCHED_ATTRIBUTES : 0));
+        if (attributes != null) {
+            out.writeShort(attributes.size());
+            String[] values = attributes.getValues();
+            for (int ordinal = 0; ordinal < values.length; ordinal++) {
+                if (values[ordinal] != null) {
+                    out.writeShort(ordinal);
+                    writeString(out, values[ordinal]);
+                }
+            }
+            for (Map.Entry<String, String> attribute : attributes.getOverflow().entrySet()) {
+                out.writeShort(OVERFLOW_ORDINAL);
+                writeString(out, attribute.getKey());
+                writeString(out, attribute.getValue());
+            }
+        }
+        if (fetchedOrdinals != null) {
+            Set<String> fetchedOverflow = entry.getFetchedOverflow();
+            out.writeShort(fetchedOrdinals.cardinality() + fetchedOverflow.size());
+            for (int ordinal = fetchedOrdinals.nextSetBit(0); ordinal >= 0;
+                 ordinal = fetchedOrdinals.nextSetBit(ordinal + 1)) {
+                out.writeShort(ordinal);
+            }
+            for (String attributeName : fetchedOverflow) {
+                out.writeShort(OVERFLOW_ORDINAL);
+                writeString(out, attributeName);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private UserAttributeCacheEntry readEntry(byte[] record, UserAttributeCacheKey key, AttributeSchema schema)
+            throws IOException {
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        UserAttributeCacheKey recordKey = new UserAttributeCacheKey(in.readInt(), readString(in), readString(in));
+        if (!recordKey.equals(key)) {
+            return null;
+        }
+        UserAttributeCacheEntry entry = new UserAttributeCacheEntry(schema);
+        entry.setSoftExpiryTime(in.readLong());
+        entry.setHardExpiryTime(in.readLong());
+        byte flags = in.readByte();
+        CompactAttributeMap attributes = null;
+        if ((flags & HAS_ATTRIBUTES) != 0) {
+            String[] values = new String[schema.size()];
+            Map<String, String> overflow = Collections.emptyMap();
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                int ordinal = in.readShort();
+                if (ordinal == OVERFLOW_ORDINAL) {
+                    if (overflow.isEmpty()) {
+                        overflow = new HashMap<>();
+                    }
+                    overflow.put(readString(in), readString(in));
+                } else {
+                    values[ordinal] = readString(in);
+                }
+            }
+            attributes = CompactAttributeMap.fromOrdinals(schema, values, overflow);
+        }
+        BitSet fetchedOrdinals = null;
+        Set<String> fetchedOverflow = null;
+        if ((flags & HAS_FETCHED_ATTRIBUTES) != 0) {
+            fetchedOrdinals = new BitSet();
+            fetchedOverflow = Collections.emptySet();
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                int ordinal = in.readShort();
+                if (ordinal == OVERFLOW_ORDINAL) {
+                    if (fetchedOverflow.isEmpty()) {
+                        fetchedOverflow = new HashSet<>();
+                    }
+                    fetchedOverflow.add(readString(in));
+                } else {
+                    fetchedOrdinals.set(ordinal);
+                }
+            }
+        }
+        entry.setEncodedAttributes(attributes, fetchedOrdinals, fetchedOverflow);
+        return entry;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+
+        byte[] bytes = value.getBytes(UTF_8);
+        if (bytes.length > MAX_STRING_LENGTH) {
+            throw new IOException("Value of " + bytes.length + " bytes is too long to cache off heap");
+        }
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private static String readString(ByteBuffer view) {
+
+        byte[] bytes = new byte[view.getShort() & MAX_STRING_LENGTH];
+        view.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /**
+     * Position of an entry in the buffer and the schema the entry was encoded with
+     */
+    private static class Slot {
+
+        private final long position;
+        private final AttributeSchema schema;
+
+        private Slot(long position, AttributeSchema schema) {
+            this.position = position;
+            this.schema = schema;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Slot && ((Slot) o).position == position;
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (position ^ (position >>> 32));
+        }
+    }
+}
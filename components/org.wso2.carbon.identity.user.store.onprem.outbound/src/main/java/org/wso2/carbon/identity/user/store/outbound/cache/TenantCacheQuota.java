@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.application.common.cache.BaseCache;
+import org.wso2.carbon.identity.application.common.cache.CacheEntry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Bounds the number of entries each tenant holds in the user caches, so that one large tenant can't evict the
+ * entries of every other tenant. The entries added on this node are tracked per cache and tenant in least recently
+ * used order, and the least recently used entries of a tenant are removed from the cache when the tenant exceeds
+ * its quota.
+ */
+public class TenantCacheQuota {
+
+    private static Log LOGGER = LogFactory.getLog(TenantCacheQuota.class);
+
+    private static TenantCacheQuota instance = new TenantCacheQuota();
+    private final ConcurrentMap<String, Map<UserCacheKey, Boolean>> tenantEntries = new ConcurrentHashMap<>();
+
+    private TenantCacheQuota() {
+    }
+
+    public static TenantCacheQuota getInstance() {
+        return instance;
+    }
+
+    /**
+     * Add an entry to the cache and evict the least recently used entries of the tenant above the quota
+     * @param cache Cache
+     * @param key Cache key
+     * @param entry Cache entry
+     * @param quota Maximum number of entries of the tenant in the cache
+     */
+    @SuppressWarnings("unchecked")
+    public <K extends UserCacheKey, V extends CacheEntry> void addToCache(BaseCache<K, V> cache, K key, V entry,
+            int quota) {
+
+        cache.addToCache(key, entry);
+        List<UserCacheKey> evictedKeys = null;
+        Map<UserCacheKey, Boolean> entries = getTenantEntries(cache, key.getTenantId());
+        synchronized (entries) {
+            entries.put(key, Boolean.TRUE);
+            Iterator<UserCacheKey> iterator = entries.keySet().iterator();
+            while (entries.size() > quota && iterator.hasNext()) {
+                UserCacheKey evictedKey = iterator.next();
+                iterator.remove();
+                if (evictedKeys == null) {
+                    evictedKeys = new ArrayList<>();
+                }
+                evictedKeys.add(evictedKey);
+            }
+        }
+        if (evictedKeys != null) {
+            for (UserCacheKey evictedKey : evictedKeys) {
+                cache.clearCacheEntry((K) evictedKey);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Evicted " + evictedKeys.size() + " entries of tenant: " + key.getTenantId() +
+                        " above the quota of " + quota);
+            }
+        }
+    }
+
+    /**
+     * Get an entry from the cache and mark it as recently used
+     * @param cache Cache
+     * @param key Cache key
+     * @return Cache entry or null if not cached
+     */
+    public <K extends UserCacheKey, V extends CacheEntry> V getValueFromCache(BaseCache<K, V> cache, K key) {
+
+        V entry = cache.getValueFromCache(key);
+        Map<UserCacheKey, Boolean> entries = tenantEntries.get(getTrackingKey(cache, key.getTenantId()));
+        if (entry != null && entries != null) {
+            synchronized (entries) {
+                entries.get(key);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * Remove an entry from the cache
+     * @param cache Cache
+     * @param key Cache key
+     */
+    public <K extends UserCacheKey> void clearCacheEntry(BaseCache<K, ?> cache, K key) {
+
+        cache.clearCacheEntry(key);
+        Map<UserCacheKey, Boolean> entries = tenantEntries.get(getTrackingKey(cache, key.getTenantId()));
+        if (entries != null) {
+            synchronized (entries) {
+                entries.remove(key);
+            }
+        }
+    }
+
+    public void clear() {
+        tenantEntries.clear();
+    }
+
+    private Map<UserCacheKey, Boolean> getTenantEntries(BaseCache<?, ?> cache, int tenantId) {
+
+        String trackingKey = getTrackingKey(cache, tenantId);
+        Map<UserCacheKey, Boolean> entries = tenantEntries.get(trackingKey);
+        if (entries == null) {
+            Map<UserCacheKey, Boolean> newEntries = new LinkedHashMap<>(16, 0.75f, true);
+            entries = tenantEntries.putIfAbsent(trackingKey, newEntries);
+            if (entries == null) {
+                entries = newEntries;
+            }
+        }
+        return entries;
+    }
+
+    private String getTrackingKey(BaseCache<?, ?> cache, int tenantId) {
+        return cache.getClass().getName() + "/" + tenantId;
+    }
+}
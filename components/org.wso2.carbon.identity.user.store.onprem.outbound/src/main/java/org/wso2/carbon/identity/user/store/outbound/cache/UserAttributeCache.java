@@ -18,17 +18,48 @@
 
 package org.wso2.carbon.identity.user.store.outbound.cache;
 
-import org.wso2.carbon.identity.application.common.cache.BaseCache;
+import org.wso2.carbon.identity.user.store.common.cache.EntryWeigher;
+import org.wso2.carbon.identity.user.store.common.cache.NearCache;
+import org.wso2.carbon.identity.user.store.common.cache.TwoTierCache;
 
+import java.util.Map;
 
-public class UserAttributeCache extends BaseCache<UserAttributeCacheKey, UserAttributeCacheEntry> {
+/**
+ * Cache of the attributes of the users. The near cache is bounded by the estimated size of the attribute values.
+ * Attribute names and values shared through the attribute dictionary are not counted per entry.
+ */
+public class UserAttributeCache extends TwoTierCache<UserAttributeCacheKey, UserAttributeCacheEntry> {
 
     private static final String SESSION_DATA_CACHE_NAME = "UserAttributeCache";
+    private static final long NEAR_CACHE_MEMORY_BUDGET = 16 * 1024 * 1024;
+    private static final int NEAR_CACHE_EXPECTED_ENTRIES = 16 * 1024;
+    private static final int ENTRY_OVERHEAD = 96;
+    private static final int ATTRIBUTE_OVERHEAD = 8;
+    private static final int VALUE_OVERHEAD = 40;
 
     private static volatile UserAttributeCache instance;
 
     private UserAttributeCache() {
-        super(SESSION_DATA_CACHE_NAME);
+        super(SESSION_DATA_CACHE_NAME, new NearCache<UserAttributeCacheKey, UserAttributeCacheEntry>(
+                NEAR_CACHE_MEMORY_BUDGET, NEAR_CACHE_EXPECTED_ENTRIES, NEAR_CACHE_TIME_TO_LIVE,
+                new EntryWeigher<UserAttributeCacheKey, UserAttributeCacheEntry>() {
+                    @Override
+                    public int weigh(UserAttributeCacheKey key, UserAttributeCacheEntry value) {
+                        return getEstimatedSize(key, value);
+                    }
+                }));
+    }
+
+    private static int getEstimatedSize(UserAttributeCacheKey key, UserAttributeCacheEntry value) {
+        int size = ENTRY_OVERHEAD + 2 * key.getUserName().length();
+        Map<String, String> attributes = value.getUserAttributes();
+        if (attributes != null) {
+            size += ATTRIBUTE_OVERHEAD * value.getSchema().size();
+            for (String attributeValue : attributes.values()) {
+                size += VALUE_OVERHEAD + 2 * attributeValue.length();
+            }
+        }
+        return size;
     }
 
     public static UserAttributeCache getInstance() {
@@ -19,20 +19,207 @@
 package org.wso2.carbon.identity.user.store.outbound.cache;
 
 import org.wso2.carbon.identity.application.common.cache.CacheEntry;
+import org.wso2.carbon.identity.user.store.common.cache.SerializationUtil;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
-public class UserAttributeCacheEntry extends CacheEntry {
+/**
+ * Cached attributes of a user. Attribute names are held as ordinals of the attribute schema of the user store domain
+ * and values are shared through the attribute dictionary, while getUserAttributes exposes a read only map.
+ * Ordinals are node local, so the serialized form holds the attribute names and is encoded again when read.
+ */
+public class UserAttributeCacheEntry extends CacheEntry implements Externalizable {
 
     private static final long serialVersionUID = 3861870161445052819L;
+    private static final byte SERIALIZATION_VERSION = 1;
 
+    private AttributeSchema schema;
     private Map<String, String> userAttributes;
+    private BitSet fetchedOrdinals;
+    private Set<String> fetchedOverflow;
+    private long softExpiryTime;
+    private long hardExpiryTime;
+
+    /**
+     * Constructor for deserialization
+     */
+    public UserAttributeCacheEntry() {
+    }
+
+    /**
+     * @param schema Attribute schema of the user store domain of the user
+     */
+    public UserAttributeCacheEntry(AttributeSchema schema) {
+        this.schema = schema;
+    }
 
+    /**
+     * @return Read only attributes of the user
+     */
     public Map<String, String> getUserAttributes() {
         return userAttributes;
     }
 
     public void setUserAttributes(Map<String, String> userAttributes) {
+        this.userAttributes = userAttributes == null ? null : CompactAttributeMap.encode(schema, userAttributes);
+    }
+
+    /**
+     * @return Names of the attributes fetched from the agents, including the ones the user has no value for
+     */
+    public Set<String> getFetchedAttributes() {
+
+        if (fetchedOrdinals == null) {
+            return null;
+        }
+        Set<String> fetchedAttributes = new HashSet<>(fetchedOverflow);
+        for (int ordinal = fetchedOrdinals.nextSetBit(0); ordinal >= 0;
+             ordinal = fetchedOrdinals.nextSetBit(ordinal + 1)) {
+            fetchedAttributes.add(schema.getName(ordinal));
+        }
+        return fetchedAttributes;
+    }
+
+    public void setFetchedAttributes(Set<String> fetchedAttributes) {
+
+        if (fetchedAttributes == null) {
+            fetchedOrdinals = null;
+            fetchedOverflow = null;
+            return;
+        }
+        BitSet ordinals = new BitSet();
+        Set<String> overflow = null;
+        for (String attributeName : fetchedAttributes) {
+            int ordinal = schema.addOrdinal(attributeName);
+            if (ordinal >= 0) {
+                ordinals.set(ordinal);
+            } else {
+                if (overflow == null) {
+                    overflow = new HashSet<>();
+                }
+                overflow.add(attributeName);
+            }
+        }
+        fetchedOrdinals = ordinals;
+        fetchedOverflow = overflow == null ? Collections.<String>emptySet() : overflow;
+    }
+
+    /**
+     * @param attributeName Attribute name
+     * @return true if the attribute was fetched from the agents
+     */
+    public boolean isFetched(String attributeName) {
+
+        if (fetchedOrdinals == null) {
+            return false;
+        }
+        int ordinal = schema.getOrdinal(attributeName);
+        return ordinal >= 0 ? fetchedOrdinals.get(ordinal) : fetchedOverflow.contains(attributeName);
+    }
+
+    /**
+     * Set attributes already encoded with the schema of the entry
+     * @param userAttributes Attributes
+     * @param fetchedOrdinals Ordinals of the fetched attributes, null if not tracked
+     * @param fetchedOverflow Fetched attributes not in the schema
+     */
+    void setEncodedAttributes(CompactAttributeMap userAttributes, BitSet fetchedOrdinals, Set<String> fetchedOverflow) {
         this.userAttributes = userAttributes;
+        this.fetchedOrdinals = fetchedOrdinals;
+        this.fetchedOverflow = fetchedOverflow;
+    }
+
+    BitSet getFetchedOrdinals() {
+        return fetchedOrdinals;
+    }
+
+    Set<String> getFetchedOverflow() {
+        return fetchedOverflow;
+    }
+
+    /**
+     * @return Attribute schema the entry is encoded with
+     */
+    public AttributeSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return Time after which the attributes are refreshed in the background, 0 if not set
+     */
+    public long getSoftExpiryTime() {
+        return softExpiryTime;
+    }
+
+    public void setSoftExpiryTime(long softExpiryTime) {
+        this.softExpiryTime = softExpiryTime;
+    }
+
+    /**
+     * @return Time after which the attributes are no longer served, 0 if not set
+     */
+    public long getHardExpiryTime() {
+        return hardExpiryTime;
+    }
+
+    public void setHardExpiryTime(long hardExpiryTime) {
+        this.hardExpiryTime = hardExpiryTime;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+
+        out.writeByte(SERIALIZATION_VERSION);
+        out.writeLong(softExpiryTime);
+        out.writeLong(hardExpiryTime);
+        SerializationUtil.writeString(out, schema.getScope());
+        out.writeInt(userAttributes == null ? -1 : userAttributes.size());
+        if (userAttributes != null) {
+            for (Map.Entry<String, String> attribute : userAttributes.entrySet()) {
+                SerializationUtil.writeString(out, attribute.getKey());
+                SerializationUtil.writeString(out, attribute.getValue());
+            }
+        }
+        Set<String> fetchedAttributes = getFetchedAttributes();
+        out.writeInt(fetchedAttributes == null ? -1 : fetchedAttributes.size());
+        if (fetchedAttributes != null) {
+            for (String attributeName : fetchedAttributes) {
+                SerializationUtil.writeString(out, attributeName);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+
+        SerializationUtil.readVersion(in, SERIALIZATION_VERSION, UserAttributeCacheEntry.class);
+        softExpiryTime = in.readLong();
+        hardExpiryTime = in.readLong();
+        schema = AttributeDictionary.getInstance().getSchema(SerializationUtil.readString(in));
+        int count = in.readInt();
+        if (count >= 0) {
+            Map<String, String> attributes = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                attributes.put(SerializationUtil.readString(in), SerializationUtil.readString(in));
+            }
+            setUserAttributes(attributes);
+        }
+        count = in.readInt();
+        if (count >= 0) {
+            Set<String> fetchedAttributes = new HashSet<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                fetchedAttributes.add(SerializationUtil.readString(in));
+            }
+            setFetchedAttributes(fetchedAttributes);
+        }
     }
 }
@@ -18,31 +18,17 @@
 
 package org.wso2.carbon.identity.user.store.outbound.cache;
 
-import org.wso2.carbon.identity.application.common.cache.CacheKey;
+public class UserAttributeCacheKey extends UserCacheKey {
 
-public class UserAttributeCacheKey extends CacheKey {
+    private static final long serialVersionUID = 4431236823155066530L;
 
-    private static final long serialVersionUID = -5671481946716751542L;
-    private String userName;
-
-    public UserAttributeCacheKey(String userName) {
-        this.userName = userName;
-    }
-
-    public String getUserName() {
-        return userName;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (!(o instanceof UserAttributeCacheKey)) {
-            return false;
-        }
-        return this.userName.equals(((UserAttributeCacheKey) o).getUserName());
+    /**
+     * Constructor for deserialization
+     */
+    public UserAttributeCacheKey() {
     }
 
-    @Override
-    public int hashCode() {
-        return userName.hashCode();
+    public UserAttributeCacheKey(int tenantId, String domain, String userName) {
+        super(tenantId, domain, userName);
     }
 }
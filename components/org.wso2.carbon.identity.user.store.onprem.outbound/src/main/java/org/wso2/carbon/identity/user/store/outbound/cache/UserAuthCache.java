@@ -18,17 +18,35 @@
 
 package org.wso2.carbon.identity.user.store.outbound.cache;
 
-import org.wso2.carbon.identity.application.common.cache.BaseCache;
-
-
-public class UserAuthCache extends BaseCache<UserAuthCacheKey, UserAuthCacheEntry> {
+import org.wso2.carbon.identity.user.store.common.cache.EntryWeigher;
+import org.wso2.carbon.identity.user.store.common.cache.NearCache;
+import org.wso2.carbon.identity.user.store.common.cache.TwoTierCache;
+
+/**
+ * Node local cache of the credential fingerprints of the authenticated users. Fingerprints are keyed with a secret of
+ * the node, so they are kept in the near cache only and never written to the distributed cache. The cache is bounded
+ * by the estimated size of the entries. A changed credential is dropped on every node through the cache invalidation
+ * channel.
+ */
+public class UserAuthCache extends TwoTierCache<UserAuthCacheKey, UserAuthCacheEntry> {
 
     private static final String SESSION_DATA_CACHE_NAME = "UserAuthCache";
+    private static final long NEAR_CACHE_MEMORY_BUDGET = 4 * 1024 * 1024;
+    private static final int NEAR_CACHE_EXPECTED_ENTRIES = 16 * 1024;
+    private static final int ENTRY_OVERHEAD = 224;
+    private static final long TIME_TO_LIVE = 15 * 60 * 1000;
 
     private static volatile UserAuthCache instance;
 
     private UserAuthCache() {
-        super(SESSION_DATA_CACHE_NAME);
+        super(SESSION_DATA_CACHE_NAME, new NearCache<UserAuthCacheKey, UserAuthCacheEntry>(
+                NEAR_CACHE_MEMORY_BUDGET, NEAR_CACHE_EXPECTED_ENTRIES, TIME_TO_LIVE,
+                new EntryWeigher<UserAuthCacheKey, UserAuthCacheEntry>() {
+                    @Override
+                    public int weigh(UserAuthCacheKey key, UserAuthCacheEntry value) {
+                        return ENTRY_OVERHEAD + 2 * key.getUserName().length();
+                    }
+                }), false);
     }
 
     public static UserAuthCache getInstance() {
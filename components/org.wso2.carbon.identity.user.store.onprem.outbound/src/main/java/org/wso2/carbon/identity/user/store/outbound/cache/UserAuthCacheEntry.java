@@ -19,18 +19,63 @@
 package org.wso2.carbon.identity.user.store.outbound.cache;
 
 import org.wso2.carbon.identity.application.common.cache.CacheEntry;
+import org.wso2.carbon.identity.user.store.common.cache.SerializationUtil;
 
-public class UserAuthCacheEntry extends CacheEntry {
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
-    private static final long serialVersionUID = 371924599005262862L;
+/**
+ * Keyed fingerprint of the last credential the agents accepted for a user, see
+ * {@link org.wso2.carbon.identity.user.store.outbound.util.CredentialFingerprinter}.
+ */
+public class UserAuthCacheEntry extends CacheEntry implements Externalizable {
+
+    private static final long serialVersionUID = -2417468412245364734L;
+    private static final byte SERIALIZATION_VERSION = 1;
+
+    private int keyId;
+    private byte[] salt;
+    private byte[] fingerprint;
+
+    /**
+     * Constructor for deserialization
+     */
+    public UserAuthCacheEntry() {
+    }
+
+    public UserAuthCacheEntry(int keyId, byte[] salt, byte[] fingerprint) {
+        this.keyId = keyId;
+        this.salt = salt;
+        this.fingerprint = fingerprint;
+    }
+
+    public int getKeyId() {
+        return keyId;
+    }
 
-    private String userIdentifier;
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getFingerprint() {
+        return fingerprint;
+    }
 
-    public UserAuthCacheEntry(String userIdentifier) {
-        this.userIdentifier = userIdentifier;
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(SERIALIZATION_VERSION);
+        out.writeInt(keyId);
+        SerializationUtil.writeBytes(out, salt);
+        SerializationUtil.writeBytes(out, fingerprint);
     }
 
-    public String getUserIdentifier() {
-        return userIdentifier;
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        SerializationUtil.readVersion(in, SERIALIZATION_VERSION, UserAuthCacheEntry.class);
+        keyId = in.readInt();
+        salt = SerializationUtil.readBytes(in);
+        fingerprint = SerializationUtil.readBytes(in);
     }
 }
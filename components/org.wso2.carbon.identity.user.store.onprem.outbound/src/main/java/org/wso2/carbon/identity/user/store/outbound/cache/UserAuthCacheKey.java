@@ -18,31 +18,17 @@
 
 package org.wso2.carbon.identity.user.store.outbound.cache;
 
-import org.wso2.carbon.identity.application.common.cache.CacheKey;
+public class UserAuthCacheKey extends UserCacheKey {
 
-public class UserAuthCacheKey extends CacheKey {
+    private static final long serialVersionUID = -6829313706462387541L;
 
-    private static final long serialVersionUID = 7396879394703492943L;
-    private String userName;
-
-    public UserAuthCacheKey(String userName) {
-        this.userName = userName;
-    }
-
-    public String getUserName() {
-        return userName;
-    }
-
-    @Override
-    public boolean equals(Object o) {
-        if (!(o instanceof UserAuthCacheKey)) {
-            return false;
-        }
-        return this.userName.equals(((UserAuthCacheKey) o).getUserName());
+    /**
+     * Constructor for deserialization
+     */
+    public UserAuthCacheKey() {
     }
 
-    @Override
-    public int hashCode() {
-        return userName.hashCode();
+    public UserAuthCacheKey(int tenantId, String domain, String userName) {
+        super(tenantId, domain, userName);
     }
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimMappingChangeNotifier;
+import org.wso2.carbon.identity.user.store.common.model.CacheInvalidation;
+import org.wso2.carbon.identity.user.store.outbound.offline.OfflineVerifierManager;
+
+/**
+ * Drops the cached data of a user, or the claim attribute lists of a tenant, from the local caches of this node.
+ */
+public class UserCacheInvalidator {
+
+    private static Log LOGGER = LogFactory.getLog(UserCacheInvalidator.class);
+
+    private static UserCacheInvalidator instance = new UserCacheInvalidator();
+
+    private UserCacheInvalidator() {
+    }
+
+    public static UserCacheInvalidator getInstance() {
+        return instance;
+    }
+
+    /**
+     * Remove the entries of the user named in the invalidation from the caches of its cache type. An authentication
+     * invalidation also drops the rejected credentials and the offline verifier of the user, since both depend on
+     * the previous credential.
+     * @param invalidation Cache invalidation
+     */
+    public void invalidate(CacheInvalidation invalidation) {
+
+        String cacheType = invalidation.getCacheType();
+        int tenantId = invalidation.getTenantId();
+        String domain = invalidation.getDomain();
+        String userName = invalidation.getUserName();
+        if (UserStoreConstants.CACHE_TYPE_CLAIM_MAPPINGS.equals(cacheType)) {
+            ClaimMappingChangeNotifier.getInstance().applyChange(tenantId);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Invalidated claim attribute lists of tenant: " + tenantId);
+            }
+            return;
+        }
+        if (domain == null || userName == null || cacheType == null) {
+            LOGGER.warn("Ignoring incomplete cache invalidation for tenant: " + tenantId);
+            return;
+        }
+        boolean all = UserStoreConstants.CACHE_TYPE_ALL.equals(cacheType);
+        TenantCacheQuota cacheQuota = TenantCacheQuota.getInstance();
+        if (all || UserStoreConstants.CACHE_TYPE_AUTHENTICATION.equals(cacheType)) {
+            cacheQuota.clearCacheEntry(UserAuthCache.getInstance(), new UserAuthCacheKey(tenantId, domain, userName));
+            if (invalidation.getTenantDomain() != null) {
+                FailedAuthenticationCache.getInstance()
+                        .removeUser(invalidation.getTenantDomain() + "/" + domain + "/" + userName);
+                OfflineVerifierManager.getInstance()
+                        .removeVerifier(invalidation.getTenantDomain(), domain, userName);
+            }
+        }
+        if (all || UserStoreConstants.CACHE_TYPE_ATTRIBUTES.equals(cacheType)) {
+            UserAttributeCacheKey attributeCacheKey = new UserAttributeCacheKey(tenantId, domain, userName);
+            cacheQuota.clearCacheEntry(UserAttributeCache.getInstance(), attributeCacheKey);
+            OffHeapUserAttributeCache.getInstance().clearCacheEntry(attributeCacheKey);
+        }
+        if (all || UserStoreConstants.CACHE_TYPE_ROLES.equals(cacheType)) {
+            cacheQuota.clearCacheEntry(UserRoleCache.getInstance(), new UserRoleCacheKey(tenantId, domain, userName));
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Invalidated " + cacheType + " cache of user: " + userName + " of user store domain: "
+                    + domain + " of tenant: " + tenantId);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.wso2.carbon.identity.application.common.cache.CacheKey;
+import org.wso2.carbon.identity.user.store.common.cache.SerializationUtil;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.Locale;
+
+/**
+ * Cache key of a user of a tenant user store domain. The caches are shared by all tenants, so the tenant and the
+ * domain are part of the key. The domain name is upper-cased and interned so that the keys of a domain share one
+ * instance, and the hash code is computed once. Keys are serialized in a compact versioned form.
+ */
+public abstract class UserCacheKey extends CacheKey implements Externalizable {
+
+    private static final long serialVersionUID = 3254011585738541095L;
+    private static final byte SERIALIZATION_VERSION = 1;
+
+    private int tenantId;
+    private String domain;
+    private String userName;
+    private int hash;
+
+    /**
+     * Constructor for deserialization
+     */
+    protected UserCacheKey() {
+    }
+
+    protected UserCacheKey(int tenantId, String domain, String userName) {
+        init(tenantId, domain, userName);
+    }
+
+    private void init(int tenantId, String domain, String userName) {
+        this.tenantId = tenantId;
+        this.domain = domain == null ? null : domain.toUpperCase(Locale.ENGLISH).intern();
+        this.userName = userName;
+        int result = tenantId;
+        result = 31 * result + (this.domain == null ? 0 : this.domain.hashCode());
+        this.hash = 31 * result + userName.hashCode();
+    }
+
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    public String getDomain() {
+        return domain;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        UserCacheKey other = (UserCacheKey) o;
+        return hash == other.hash && tenantId == other.tenantId && userName.equals(other.userName)
+                && (domain == null ? other.domain == null : domain.equals(other.domain));
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(SERIALIZATION_VERSION);
+        SerializationUtil.writeShortString(out, tenantDomain);
+        out.writeInt(tenantId);
+        SerializationUtil.writeShortString(out, domain);
+        SerializationUtil.writeShortString(out, userName);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        SerializationUtil.readVersion(in, SERIALIZATION_VERSION, getClass());
+        tenantDomain = SerializationUtil.readShortString(in);
+        int keyTenantId = in.readInt();
+        String keyDomain = SerializationUtil.readShortString(in);
+        init(keyTenantId, keyDomain, SerializationUtil.readShortString(in));
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.wso2.carbon.identity.user.store.common.cache.TwoTierCache;
+
+/**
+ * Cache of the external role lists of the users read from the agents. Unlike the user core UserRolesCache of
+ * AbstractUserStoreManager, which holds the combined role list when UserRolesCacheEnabled is set, it is also filled
+ * from the groups returned with authentication responses. Entries are served for the UserRoleCacheExpiry user store
+ * property, 60 seconds by default and 0 to disable the cache, and are removed through the cache invalidation channel
+ * when the roles of a user change.
+ */
+public class UserRoleCache extends TwoTierCache<UserRoleCacheKey, UserRoleCacheEntry> {
+
+    private static final String USER_ROLE_CACHE_NAME = "UserRoleCache";
+
+    private static volatile UserRoleCache instance;
+
+    private UserRoleCache() {
+        super(USER_ROLE_CACHE_NAME);
+    }
+
+    public static UserRoleCache getInstance() {
+        if (instance == null) {
+            synchronized (UserRoleCache.class) {
+                if (instance == null) {
+                    instance = new UserRoleCache();
+                }
+            }
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.wso2.carbon.identity.application.common.cache.CacheEntry;
+import org.wso2.carbon.identity.user.store.common.cache.SerializationUtil;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Cached role list of a user together with the time after which it is no longer served.
+ */
+public class UserRoleCacheEntry extends CacheEntry implements Externalizable {
+
+    private static final long serialVersionUID = -1836259315107760481L;
+    private static final byte SERIALIZATION_VERSION = 2;
+
+    private String[] roleNames;
+    private long expiryTime;
+
+    /**
+     * Constructor for deserialization
+     */
+    public UserRoleCacheEntry() {
+    }
+
+    /**
+     * @param roleNames Role names of the user
+     * @param expiryTime Time after which the role names are no longer served
+     */
+    public UserRoleCacheEntry(String[] roleNames, long expiryTime) {
+        this.roleNames = roleNames;
+        this.expiryTime = expiryTime;
+    }
+
+    public String[] getRoleNames() {
+        return roleNames;
+    }
+
+    /**
+     * @return Time after which the role names are no longer served, 0 for entries written by an older version whose
+     * age is unknown
+     */
+    public long getExpiryTime() {
+        return expiryTime;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(SERIALIZATION_VERSION);
+        out.writeLong(expiryTime);
+        out.writeInt(roleNames == null ? -1 : roleNames.length);
+        if (roleNames != null) {
+            for (String roleName : roleNames) {
+                SerializationUtil.writeString(out, roleName);
+            }
+        }
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        byte version = SerializationUtil.readVersion(in, SERIALIZATION_VERSION, UserRoleCacheEntry.class);
+        expiryTime = version >= 2 ? in.readLong() : 0;
+        int count = in.readInt();
+        roleNames = count < 0 ? null : new String[count];
+        for (int i = 0; i < count; i++) {
+            roleNames[i] = SerializationUtil.readString(in);
+        }
+    }
+}
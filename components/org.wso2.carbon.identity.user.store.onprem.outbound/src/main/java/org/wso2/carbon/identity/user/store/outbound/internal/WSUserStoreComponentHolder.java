@@ -21,11 +21,31 @@ package org.wso2.carbon.identity.user.store.outbound.internal;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.user.core.service.RealmService;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class WSUserStoreComponentHolder {
 
+    private static final int TASK_EXECUTOR_THREADS = 2;
+    private static final int BULK_EXECUTOR_THREADS = 16;
+    private static final int VERIFIER_EXECUTOR_THREADS = 2;
+    private static final int VERIFIER_EXECUTOR_QUEUE_SIZE = 100;
+
     private static WSUserStoreComponentHolder instance = new WSUserStoreComponentHolder();
     private RegistryService registryService;
     private RealmService realmService;
+    private ScheduledExecutorService taskExecutor;
+    private ExecutorService bulkExecutor;
+    private ExecutorService verifierExecutor;
+    private boolean executorsActive = true;
 
     public static WSUserStoreComponentHolder getInstance() {
         return instance;
@@ -47,4 +67,114 @@ public class WSUserStoreComponentHolder {
         this.realmService = realmService;
     }
 
+    /**
+     * Executor for background work of the outbound user stores such as warming up agent connections. Delayed tasks
+     * are dropped when the executor is shut down.
+     * @return Task executor
+     * @throws RejectedExecutionException if the executors are shut down
+     */
+    public synchronized ScheduledExecutorService getTaskExecutor() {
+        checkExecutorsActive();
+        if (taskExecutor == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(TASK_EXECUTOR_THREADS,
+                    newThreadFactory("OutboundUserStoreTask-"));
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+            taskExecutor = executor;
+        }
+        return taskExecutor;
+    }
+
+    /**
+     * Executor for bulk operations. Its size bounds the number of bulk requests in flight across all user stores.
+     * @return Bulk executor
+     * @throws RejectedExecutionException if the executors are shut down
+     */
+    public synchronized ExecutorService getBulkExecutor() {
+        checkExecutorsActive();
+        if (bulkExecutor == null) {
+            bulkExecutor = Executors.newFixedThreadPool(BULK_EXECUTOR_THREADS,
+                    newThreadFactory("OutboundUserStoreBulk-"));
+        }
+        return bulkExecutor;
+    }
+
+    /**
+     * Executor for deriving offline verifiers. Its queue is bounded and tasks are rejected when it is full, so that
+     * a burst of logins neither holds an unbounded number of credentials in memory nor delays other background work.
+     * @return Verifier executor
+     * @throws RejectedExecutionException if the executors are shut down
+     */
+    public synchronized ExecutorService getVerifierExecutor() {
+        checkExecutorsActive();
+        if (verifierExecutor == null) {
+            verifierExecutor = new ThreadPoolExecutor(VERIFIER_EXECUTOR_THREADS, VERIFIER_EXECUTOR_THREADS, 0,
+                    TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(VERIFIER_EXECUTOR_QUEUE_SIZE),
+                    newThreadFactory("OutboundUserStoreVerifier-"));
+        }
+        return verifierExecutor;
+    }
+
+    /**
+     * Allow the executors to be created again after they were shut down.
+     */
+    public synchronized void activateExecutors() {
+        executorsActive = true;
+    }
+
+    /**
+     * Stop the background, bulk and verifier executors. Queued and running tasks are given a bounded time to
+     * complete and are interrupted after it. The executors are not created again until activateExecutors is called.
+     * @param timeoutMillis Maximum time to wait in milliseconds
+     */
+    public void shutdownExecutors(long timeoutMillis) {
+        ExecutorService[] executors;
+        synchronized (this) {
+            executorsActive = false;
+            executors = new ExecutorService[] { taskExecutor, bulkExecutor, verifierExecutor };
+            taskExecutor = null;
+            bulkExecutor = null;
+            verifierExecutor = null;
+        }
+        for (ExecutorService executor : executors) {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for (ExecutorService executor : executors) {
+            if (executor == null) {
+                continue;
+            }
+            try {
+                if (!executor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()),
+                        TimeUnit.MILLISECONDS)) {
+                    executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void checkExecutorsActive() {
+        if (!executorsActive) {
+            throw new RejectedExecutionException("Outbound user store executors are shut down");
+        }
+    }
+
+    private ThreadFactory newThreadFactory(final String namePrefix) {
+        return new ThreadFactory() {
+
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
 }
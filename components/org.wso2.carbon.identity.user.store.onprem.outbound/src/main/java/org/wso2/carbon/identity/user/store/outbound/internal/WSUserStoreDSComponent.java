@@ -20,7 +20,19 @@ package org.wso2.carbon.identity.user.store.outbound.internal;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.service.component.ComponentContext;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimMappingChangeNotifier;
 import org.wso2.carbon.identity.user.store.outbound.WSOutboundUserStoreManager;
+import org.wso2.carbon.identity.user.store.outbound.cache.AttributeDictionary;
+import org.wso2.carbon.identity.user.store.outbound.cache.CacheSnapshotManager;
+import org.wso2.carbon.identity.user.store.outbound.cache.ClaimAccessTracker;
+import org.wso2.carbon.identity.user.store.outbound.cache.FailedAuthenticationCache;
+import org.wso2.carbon.identity.user.store.outbound.cache.OffHeapUserAttributeCache;
+import org.wso2.carbon.identity.user.store.outbound.cache.TenantCacheQuota;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentCapabilityManager;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentCircuitBreakerManager;
+import org.wso2.carbon.identity.user.store.outbound.messaging.AgentMessageChannelManager;
+import org.wso2.carbon.identity.user.store.outbound.messaging.CacheInvalidationChannelManager;
+import org.wso2.carbon.identity.user.store.outbound.offline.OfflineVerifierManager;
 import org.wso2.carbon.identity.user.store.outbound.util.DatabaseUtil;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.user.api.UserStoreManager;
@@ -40,12 +52,18 @@ import org.wso2.carbon.user.core.service.RealmService;
 public class WSUserStoreDSComponent {
 
     private static Log log = LogFactory.getLog(WSUserStoreDSComponent.class);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10 * 1000;
 
     protected void activate(ComponentContext ctxt) {
         try {
 
+            WSUserStoreComponentHolder.getInstance().activateExecutors();
+            AgentMessageChannelManager.getInstance().activate();
+            CacheInvalidationChannelManager.getInstance().activate();
+            ClaimMappingChangeNotifier.getInstance().addListener(CacheInvalidationChannelManager.getInstance());
             UserStoreManager remoteStoreManager = new WSOutboundUserStoreManager();
             DatabaseUtil.getInstance();
+            CacheSnapshotManager.getInstance().start();
             ctxt.getBundleContext().registerService(UserStoreManager.class.getName(),
                     remoteStoreManager, null);
             if (log.isDebugEnabled()) {
@@ -58,6 +76,19 @@ public class WSUserStoreDSComponent {
     }
 
     protected void deactivate(ComponentContext ctxt) {
+        CacheSnapshotManager.getInstance().stop();
+        WSUserStoreComponentHolder.getInstance().shutdownExecutors(SHUTDOWN_TIMEOUT_MILLIS);
+        AgentMessageChannelManager.getInstance().shutdown(SHUTDOWN_TIMEOUT_MILLIS);
+        ClaimMappingChangeNotifier.getInstance().removeListener(CacheInvalidationChannelManager.getInstance());
+        CacheInvalidationChannelManager.getInstance().shutdown();
+        AgentCapabilityManager.getInstance().clear();
+        AgentCircuitBreakerManager.getInstance().clear();
+        FailedAuthenticationCache.getInstance().clear();
+        TenantCacheQuota.getInstance().clear();
+        ClaimAccessTracker.getInstance().clear();
+        AttributeDictionary.getInstance().clear();
+        OffHeapUserAttributeCache.getInstance().clear();
+        OfflineVerifierManager.getInstance().shutdown();
         if (log.isDebugEnabled()) {
             log.debug("Carbon Carbon Remote User Store is deactivated ");
         }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import org.wso2.carbon.identity.user.store.common.model.AgentCapabilities;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the capabilities negotiated with the agents of each tenant user store domain. Negotiated capabilities expire
+ * after CAPABILITIES_TIME_TO_LIVE so that upgraded or reconnected agents are negotiated with again.
+ */
+public class AgentCapabilityManager {
+
+    private static final long CAPABILITIES_TIME_TO_LIVE = 15 * 60 * 1000;
+
+    private static AgentCapabilityManager instance = new AgentCapabilityManager();
+    private final ConcurrentMap<String, NegotiatedCapabilities> capabilities = new ConcurrentHashMap<>();
+
+    private AgentCapabilityManager() {
+    }
+
+    public static AgentCapabilityManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the negotiated capabilities, expired or not
+     * @param tenantDomain Tenant domain
+     * @param domain User store domain name
+     * @return Negotiated capabilities or null if not negotiated yet
+     */
+    public AgentCapabilities getCapabilities(String tenantDomain, String domain) {
+        NegotiatedCapabilities negotiated = capabilities.get(getKey(tenantDomain, domain));
+        return negotiated == null ? null : negotiated.capabilities;
+    }
+
+    /**
+     * @param tenantDomain Tenant domain
+     * @param domain User store domain name
+     * @return true if the capabilities are not negotiated yet or were negotiated more than CAPABILITIES_TIME_TO_LIVE
+     * ago
+     */
+    public boolean isExpired(String tenantDomain, String domain) {
+        NegotiatedCapabilities negotiated = capabilities.get(getKey(tenantDomain, domain));
+        return negotiated == null || System.currentTimeMillis() - negotiated.negotiatedTime > CAPABILITIES_TIME_TO_LIVE;
+    }
+
+    public void setCapabilities(String tenantDomain, String domain, AgentCapabilities agentCapabilities) {
+        capabilities.put(getKey(tenantDomain, domain),
+                new NegotiatedCapabilities(agentCapabilities, System.currentTimeMillis()));
+    }
+
+    /**
+     * Forget the capabilities of a user store domain, ex. when its agents are disconnected and may come back with a
+     * different version
+     * @param tenantDomain Tenant domain
+     * @param domain User store domain name
+     */
+    public void removeCapabilities(String tenantDomain, String domain) {
+        capabilities.remove(getKey(tenantDomain, domain));
+    }
+
+    public void clear() {
+        capabilities.clear();
+    }
+
+    private String getKey(String tenantDomain, String domain) {
+        return tenantDomain + "/" + (domain == null ? null : domain.toUpperCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Capabilities together with the time they were negotiated.
+     */
+    private static class NegotiatedCapabilities {
+
+        private final AgentCapabilities capabilities;
+        private final long negotiatedTime;
+
+        private NegotiatedCapabilities(AgentCapabilities capabilities, long negotiatedTime) {
+            this.capabilities = capabilities;
+            this.negotiatedTime = negotiatedTime;
+        }
+    }
+}
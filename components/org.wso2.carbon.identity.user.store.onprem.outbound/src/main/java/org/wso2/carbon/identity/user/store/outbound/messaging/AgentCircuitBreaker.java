@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Circuit breaker for the agents of a user store domain. After a number of consecutive requests without a reply the
+ * circuit opens and requests are failed without waiting on the broker. Once the open duration has passed a single
+ * trial request is let through; its outcome closes or reopens the circuit. Requests that were in flight when the
+ * circuit opened don't affect the trial or the open duration.
+ */
+public class AgentCircuitBreaker {
+
+    private static Log LOGGER = LogFactory.getLog(AgentCircuitBreaker.class);
+
+    private final String name;
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean trialInProgress = new AtomicBoolean();
+    private volatile long openedAt = -1;
+
+    AgentCircuitBreaker(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Check whether a request may be sent to the agents
+     * @param openDurationMillis Time the circuit stays open before a trial request is let through
+     * @return DENIED if the request may not be sent, TRIAL if the caller holds the trial of an open circuit and must
+     * report its outcome as such, ALLOWED otherwise
+     */
+    public Permit allowRequest(long openDurationMillis) {
+        long opened = openedAt;
+        if (opened < 0) {
+            return Permit.ALLOWED;
+        }
+        if (System.currentTimeMillis() - opened < openDurationMillis) {
+            return Permit.DENIED;
+        }
+        return trialInProgress.compareAndSet(false, true) ? Permit.TRIAL : Permit.DENIED;
+    }
+
+    /**
+     * Record a request that got a reply. A reply shows the agents are reachable, so it closes the circuit.
+     * @param permit Permit the request was sent with
+     */
+    public void recordSuccess(Permit permit) {
+        consecutiveFailures.set(0);
+        if (openedAt >= 0) {
+            openedAt = -1;
+            LOGGER.info("Agent circuit for " + name + " closed");
+        }
+        if (permit == Permit.TRIAL) {
+            trialInProgress.set(false);
+        }
+    }
+
+    /**
+     * Record a request that got no reply. Only a failed trial reopens an open circuit.
+     * @param permit Permit the request was sent with
+     * @param failureThreshold Number of consecutive failures that opens the circuit
+     */
+    public void recordFailure(Permit permit, int failureThreshold) {
+        int failures = consecutiveFailures.incrementAndGet();
+        if (permit == Permit.TRIAL) {
+            openedAt = System.currentTimeMillis();
+            trialInProgress.set(false);
+        } else if (openedAt < 0 && failures >= failureThreshold) {
+            openedAt = System.currentTimeMillis();
+            LOGGER.warn("Agent circuit for " + name + " opened after " + failures + " failed requests");
+        }
+    }
+
+    /**
+     * Let another trial request through after a trial request that ended without an outcome, ex. due to an
+     * unexpected error before the request was sent. Requests sent with another permit are ignored.
+     * @param permit Permit the request was sent with
+     */
+    public void releaseTrial(Permit permit) {
+        if (permit == Permit.TRIAL) {
+            trialInProgress.set(false);
+        }
+    }
+
+    /**
+     * @return true while the agents are considered unreachable
+     */
+    public boolean isOpen() {
+        return openedAt >= 0;
+    }
+
+    /**
+     * Outcome of {@link #allowRequest(long)}
+     */
+    public enum Permit {
+        DENIED, ALLOWED, TRIAL
+    }
+}
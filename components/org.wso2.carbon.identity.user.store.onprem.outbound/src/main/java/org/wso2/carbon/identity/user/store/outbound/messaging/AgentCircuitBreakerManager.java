@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one {@link AgentCircuitBreaker} per tenant user store domain, so that the circuit state survives user store
+ * manager re-creation.
+ */
+public class AgentCircuitBreakerManager {
+
+    private static AgentCircuitBreakerManager instance = new AgentCircuitBreakerManager();
+    private final ConcurrentMap<String, AgentCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+
+    private AgentCircuitBreakerManager() {
+    }
+
+    public static AgentCircuitBreakerManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the circuit breaker of a user store domain, creating it on first use
+     * @param tenantDomain Tenant domain
+     * @param domain User store domain name
+     * @return Circuit breaker
+     */
+    public AgentCircuitBreaker getCircuitBreaker(String tenantDomain, String domain) {
+        String key = tenantDomain + "/" + (domain == null ? null : domain.toUpperCase(Locale.ENGLISH));
+        AgentCircuitBreaker circuitBreaker = circuitBreakers.get(key);
+        if (circuitBreaker == null) {
+            AgentCircuitBreaker newCircuitBreaker = new AgentCircuitBreaker(key);
+            circuitBreaker = circuitBreakers.putIfAbsent(key, newCircuitBreaker);
+            if (circuitBreaker == null) {
+                circuitBreaker = newCircuitBreaker;
+            }
+        }
+        return circuitBreaker;
+    }
+
+    public void clear() {
+        circuitBreakers.clear();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionException;
+import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionFactory;
+import org.wso2.carbon.identity.user.store.common.model.UserOperation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+/**
+ * Long lived request/reply channel to the agents connected to a message broker. One broker connection is shared by
+ * every user store manager pointing to the same broker and requests are multiplexed over it by correlation id.
+ * The number of requests waiting for a reply is bounded so that a slow agent cannot exhaust broker resources.
+ */
+public class AgentMessageChannel {
+
+    private static Log LOGGER = LogFactory.getLog(AgentMessageChannel.class);
+    private static String JMS_CORRELATIONID_FILTER = "JMSCorrelationID='%s'";
+
+    private final String messageBrokerURL;
+    private final JMSConnectionFactory connectionFactory = new JMSConnectionFactory();
+    private final int maxInFlightRequests;
+    private final Semaphore inFlightPermits;
+    private final BlockingQueue<ChannelSession> idleSessions;
+    private volatile Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * @param messageBrokerURL Message broker URL
+     * @param maxInFlightRequests Maximum number of requests waiting for a reply at a time
+     */
+    AgentMessageChannel(String messageBrokerURL, int maxInFlightRequests) {
+        this.messageBrokerURL = messageBrokerURL;
+        this.maxInFlightRequests = maxInFlightRequests;
+        this.inFlightPermits = new Semaphore(maxInFlightRequests);
+        this.idleSessions = new LinkedBlockingQueue<>(maxInFlightRequests);
+    }
+
+    /**
+     * Publish a user operation to the request topic and wait for the matching reply
+     * @param requestOperation User operation to send
+     * @param messageLifetime Message lifetime
+     * @param consumeTimeout Time to wait for the reply in milliseconds, including the time waiting for an in-flight
+     *                       permit
+     * @return Reply from the agent or null if no reply received within the timeout
+     * @throws JMSConnectionException
+     * @throws JMSException
+     */
+    public UserOperation sendAndReceive(UserOperation requestOperation, long messageLifetime, int consumeTimeout)
+            throws JMSConnectionException, JMSException {
+
+        List<UserOperation> replies = exchange(requestOperation, messageLifetime, consumeTimeout, false);
+        return replies.isEmpty() ? null : replies.get(0);
+    }
+
+    /**
+     * Publish a user operation to the request topic and collect the replies of every agent that replies within the
+     * timeout, ex. to learn what all connected agents support. The call always waits for the whole timeout.
+     * @param requestOperation User operation to send
+     * @param messageLifetime Message lifetime
+     * @param consumeTimeout Time to collect replies in milliseconds, including the time waiting for an in-flight
+     *                       permit
+     * @return Replies received within the timeout, empty if none
+     * @throws JMSConnectionException
+     * @throws JMSException
+     */
+    public List<UserOperation> sendAndReceiveAll(UserOperation requestOperation, long messageLifetime,
+            int consumeTimeout) throws JMSConnectionException, JMSException {
+        return exchange(requestOperation, messageLifetime, consumeTimeout, true);
+    }
+
+    private List<UserOperation> exchange(UserOperation requestOperation, long messageLifetime, int consumeTimeout,
+            boolean allReplies) throws JMSConnectionException, JMSException {
+
+        checkOpen();
+        long deadline = System.currentTimeMillis() + consumeTimeout;
+        try {
+            if (!inFlightPermits.tryAcquire(consumeTimeout, TimeUnit.MILLISECONDS)) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Too many in-flight requests on broker: " + messageBrokerURL + ". Request with " +
+                            "correlationId : " + requestOperation.getCorrelationId() + " not sent.");
+                }
+                return Collections.emptyList();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        }
+        if (closed) {
+            inFlightPermits.release();
+            checkOpen();
+        }
+        if (deadline - System.currentTimeMillis() <= 0) {
+            // The whole timeout was spent waiting for a permit. A reply to a request sent now would not be waited for.
+            inFlightPermits.release();
+            return Collections.emptyList();
+        }
+
+        ChannelSession channelSession = null;
+        MessageConsumer consumer = null;
+        boolean reusable = false;
+        try {
+            channelSession = borrowSession();
+            String filter = String.format(JMS_CORRELATIONID_FILTER, requestOperation.getCorrelationId());
+            consumer = channelSession.session.createConsumer(channelSession.responseQueue, filter);
+
+            ObjectMessage requestMessage = channelSession.session.createObjectMessage();
+            requestMessage.setObject(requestOperation);
+            requestMessage.setJMSCorrelationID(requestOperation.getCorrelationId());
+            requestMessage.setJMSExpiration(messageLifetime);
+            requestMessage.setJMSReplyTo(channelSession.responseQueue);
+            channelSession.producer.send(requestMessage);
+
+            List<UserOperation> replies = new ArrayList<>();
+            Message responseMessage;
+            do {
+                // receive(0) waits forever, so replies are only polled for once the deadline has passed.
+                long remaining = deadline - System.currentTimeMillis();
+                responseMessage = remaining > 0 ? consumer.receive(remaining) : consumer.receiveNoWait();
+                if (responseMessage != null) {
+                    replies.add((UserOperation) ((ObjectMessage) responseMessage).getObject());
+                }
+            } while (allReplies && responseMessage != null);
+            reusable = true;
+            return replies;
+        } finally {
+            try {
+                connectionFactory.closeMessageConsumer(consumer);
+            } catch (JMSConnectionException e) {
+                reusable = false;
+                LOGGER.error("Error occurred while closing the consumer", e);
+            }
+            releaseSession(channelSession, reusable);
+            inFlightPermits.release();
+        }
+    }
+
+    /**
+     * Open the broker connection ahead of the first request and validate that a producer and a reply consumer can
+     * be created on it. The validated session is kept for the next request.
+     * @throws JMSConnectionException
+     * @throws JMSException
+     */
+    public void warmUp() throws JMSConnectionException, JMSException {
+        checkOpen();
+        ChannelSession channelSession = borrowSession();
+        boolean reusable = false;
+        try {
+            String filter = String.format(JMS_CORRELATIONID_FILTER, UUID.randomUUID().toString());
+            MessageConsumer consumer = channelSession.session.createConsumer(channelSession.responseQueue, filter);
+            connectionFactory.closeMessageConsumer(consumer);
+            reusable = true;
+        } finally {
+            releaseSession(channelSession, reusable);
+        }
+    }
+
+    /**
+     * Stop accepting new requests. Requests already waiting for a reply are not affected.
+     */
+    public void stopAccepting() {
+        closed = true;
+    }
+
+    /**
+     * Stop accepting new requests, wait for the in-flight requests to complete and close the broker connection.
+     * @param drainTimeoutMillis Maximum time to wait for in-flight requests in milliseconds
+     */
+    public void shutdown(long drainTimeoutMillis) {
+        stopAccepting();
+        try {
+            if (!inFlightPermits.tryAcquire(maxInFlightRequests, drainTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                LOGGER.warn((maxInFlightRequests - inFlightPermits.availablePermits()) + " requests to message " +
+                        "broker: " + messageBrokerURL + " still in-flight after " + drainTimeoutMillis + "ms. " +
+                        "Closing the connection.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            ChannelSession channelSession;
+            while ((channelSession = idleSessions.poll()) != null) {
+                closeSession(channelSession);
+            }
+            closeConnection(connection);
+            connection = null;
+        }
+    }
+
+    private void checkOpen() throws JMSConnectionException {
+        if (closed) {
+            throw new JMSConnectionException("Message channel to broker: " + messageBrokerURL + " is shut down");
+        }
+    }
+
+    private ChannelSession borrowSession() throws JMSConnectionException {
+        Connection activeConnection = getConnection();
+        ChannelSession channelSession;
+        while ((channelSession = idleSessions.poll()) != null) {
+            if (channelSession.connection == activeConnection) {
+                return channelSession;
+            }
+            closeSession(channelSession);
+        }
+        Session session = connectionFactory.createSession(activeConnection);
+        try {
+            Destination requestTopic = connectionFactory
+                    .createTopicDestination(session, UserStoreConstants.TOPIC_NAME_REQUEST);
+            Destination responseQueue = connectionFactory
+                    .createQueueDestination(session, UserStoreConstants.QUEUE_NAME_RESPONSE);
+            MessageProducer producer = connectionFactory
+                    .createMessageProducer(session, requestTopic, DeliveryMode.NON_PERSISTENT);
+            return new ChannelSession(activeConnection, session, producer, responseQueue);
+        } catch (JMSConnectionException e) {
+            connectionFactory.closeSession(session);
+            throw e;
+        }
+    }
+
+    private void releaseSession(ChannelSession channelSession, boolean reusable) {
+        if (channelSession == null) {
+            return;
+        }
+        if (!reusable || channelSession.connection != connection || !idleSessions.offer(channelSession)) {
+            closeSession(channelSession);
+        }
+    }
+
+    private Connection getConnection() throws JMSConnectionException {
+        Connection activeConnection = connection;
+        if (activeConnection != null) {
+            return activeConnection;
+        }
+        synchronized (this) {
+            if (connection == null) {
+                connectionFactory.createActiveMQConnectionFactory(messageBrokerURL);
+                final Connection newConnection = connectionFactory.createConnection();
+                try {
+                    newConnection.setExceptionListener(new ExceptionListener() {
+                        @Override
+                        public void onException(JMSException e) {
+                            LOGGER.error("Connection to message broker: " + messageBrokerURL + " failed", e);
+                            resetConnection(newConnection);
+                        }
+                    });
+                } catch (JMSException e) {
+                    closeConnection(newConnection);
+                    throw new JMSConnectionException("Error occurred while registering connection listener", e);
+                }
+                connectionFactory.start(newConnection);
+                connection = newConnection;
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("JMS connection created to message broker: " + messageBrokerURL);
+                }
+            }
+            return connection;
+        }
+    }
+
+    private synchronized void resetConnection(Connection failedConnection) {
+        if (connection == failedConnection) {
+            connection = null;
+        }
+        closeConnection(failedConnection);
+    }
+
+    private void closeConnection(Connection brokerConnection) {
+        try {
+            connectionFactory.closeConnection(brokerConnection);
+        } catch (JMSConnectionException e) {
+            LOGGER.error("Error occurred while closing the connection", e);
+        }
+    }
+
+    private void closeSession(ChannelSession channelSession) {
+        try {
+            connectionFactory.closeSession(channelSession.session);
+        } catch (JMSConnectionException e) {
+            LOGGER.error("Error occurred while closing the session", e);
+        }
+    }
+
+    /**
+     * JMS session together with the producer and destinations created on it. A session is used by only one request
+     * at a time.
+     */
+    private static class ChannelSession {
+
+        private final Connection connection;
+        private final Session session;
+        private final MessageProducer producer;
+        private final Destination responseQueue;
+
+        private ChannelSession(Connection connection, Session session, MessageProducer producer,
+                Destination responseQueue) {
+            this.connection = connection;
+            this.session = session;
+            this.producer = producer;
+            this.responseQueue = responseQueue;
+        }
+    }
+}
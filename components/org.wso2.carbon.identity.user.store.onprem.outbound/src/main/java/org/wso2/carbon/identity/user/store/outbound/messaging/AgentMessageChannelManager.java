@@ -0,0 +1,92 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionException;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps one {@link AgentMessageChannel} per message broker URL.
+ */
+public class AgentMessageChannelManager {
+
+    private static final int MAX_IN_FLIGHT_REQUESTS = 100;
+
+    private static AgentMessageChannelManager instance = new AgentMessageChannelManager();
+    private final ConcurrentMap<String, AgentMessageChannel> channels = new ConcurrentHashMap<>();
+    private volatile boolean active = true;
+
+    private AgentMessageChannelManager() {
+    }
+
+    public static AgentMessageChannelManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the channel for the given broker, creating it on first use
+     * @param messageBrokerURL message broker URL
+     * @return Agent message channel
+     * @throws JMSConnectionException if the channels are shut down
+     */
+    public AgentMessageChannel getChannel(String messageBrokerURL) throws JMSConnectionException {
+        if (!active) {
+            throw new JMSConnectionException("Agent message channels are shut down");
+        }
+        AgentMessageChannel channel = channels.get(messageBrokerURL);
+        if (channel == null) {
+            AgentMessageChannel newChannel = new AgentMessageChannel(messageBrokerURL, MAX_IN_FLIGHT_REQUESTS);
+            channel = channels.putIfAbsent(messageBrokerURL, newChannel);
+            if (channel == null) {
+                channel = newChannel;
+            }
+        }
+        return channel;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * Start handing out channels again after a shutdown.
+     */
+    public void activate() {
+        active = true;
+    }
+
+    /**
+     * Stop accepting new agent requests, wait a bounded time for the in-flight requests of all channels and close
+     * their broker connections.
+     * @param drainTimeoutMillis Maximum time to wait for in-flight requests in milliseconds
+     */
+    public void shutdown(long drainTimeoutMillis) {
+        active = false;
+        for (AgentMessageChannel channel : channels.values()) {
+            channel.stopAccepting();
+        }
+        long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+        for (AgentMessageChannel channel : channels.values()) {
+            channel.shutdown(Math.max(0, deadline - System.currentTimeMillis()));
+        }
+        channels.clear();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionException;
+import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionFactory;
+import org.wso2.carbon.identity.user.store.common.model.CacheInvalidation;
+import org.wso2.carbon.identity.user.store.outbound.cache.UserCacheInvalidator;
+import org.wso2.carbon.identity.user.store.outbound.internal.WSUserStoreComponentHolder;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.ExceptionListener;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.MessageProducer;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+/**
+ * Publish and subscribe channel of user cache invalidations on the cache invalidation topic of a message broker.
+ * Every node subscribes to the topic and applies the invalidations published by the other nodes and by the agents to
+ * its local caches. Invalidations published by this node are not delivered back to it, since the publisher applies
+ * them locally. A lost broker connection is re-established in the background.
+ */
+public class CacheInvalidationChannel {
+
+    private static Log LOGGER = LogFactory.getLog(CacheInvalidationChannel.class);
+    private static final long RESUBSCRIBE_DELAY_MILLIS = 10 * 1000;
+
+    private final String messageBrokerURL;
+    private final JMSConnectionFactory connectionFactory = new JMSConnectionFactory();
+    private Connection connection;
+    private Session publishSession;
+    private MessageProducer producer;
+    private volatile boolean closed;
+    private final AtomicBoolean subscribeScheduled = new AtomicBoolean();
+
+    /**
+     * @param messageBrokerURL Message broker URL
+     */
+    CacheInvalidationChannel(String messageBrokerURL) {
+        this.messageBrokerURL = messageBrokerURL;
+    }
+
+    /**
+     * Connect to the broker and start applying the invalidations published on the topic, if not connected already
+     * @throws JMSConnectionException
+     * @throws JMSException
+     */
+    public synchronized void subscribe() throws JMSConnectionException, JMSException {
+        if (closed) {
+            throw new JMSConnectionException("Cache invalidation channel to broker: " + messageBrokerURL +
+                    " is shut down");
+        }
+        if (connection != null) {
+            return;
+        }
+        connectionFactory.createActiveMQConnectionFactory(messageBrokerURL);
+        final Connection newConnection = connectionFactory.createConnection();
+        try {
+            newConnection.setExceptionListener(new ExceptionListener() {
+                @Override
+                public void onException(JMSException e) {
+                    LOGGER.error("Cache invalidation connection to message broker: " + messageBrokerURL + " failed",
+                            e);
+                    resetConnection(newConnection);
+                    scheduleSubscribe(RESUBSCRIBE_DELAY_MILLIS);
+                }
+            });
+            Session newSubscribeSession = connectionFactory.createSession(newConnection);
+            Destination topic = connectionFactory
+                    .createTopicDestination(newSubscribeSession, UserStoreConstants.TOPIC_NAME_CACHE_INVALIDATION);
+            MessageConsumer consumer = newSubscribeSession.createConsumer(topic, null, true);
+            consumer.setMessageListener(new MessageListener() {
+                @Override
+                public void onMessage(Message message) {
+                    applyInvalidation(message);
+                }
+            });
+            Session newPublishSession = connectionFactory.createSession(newConnection);
+            MessageProducer newProducer = connectionFactory.createMessageProducer(newPublishSession,
+                    connectionFactory.createTopicDestination(newPublishSession,
+                            UserStoreConstants.TOPIC_NAME_CACHE_INVALIDATION), DeliveryMode.NON_PERSISTENT);
+            connectionFactory.start(newConnection);
+            connection = newConnection;
+            publishSession = newPublishSession;
+            producer = newProducer;
+        } catch (JMSConnectionException | JMSException e) {
+            closeConnection(newConnection);
+            throw e;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Subscribed to cache invalidations of message broker: " + messageBrokerURL);
+        }
+    }
+
+    /**
+     * Publish a cache invalidation to the other nodes
+     * @param invalidation Cache invalidation
+     * @throws JMSConnectionException
+     * @throws JMSException
+     */
+    public synchronized void publish(CacheInvalidation invalidation) throws JMSConnectionException, JMSException {
+        subscribe();
+        ObjectMessage message = publishSession.createObjectMessage();
+        message.setObject(invalidation);
+        producer.send(message, DeliveryMode.NON_PERSISTENT, Message.DEFAULT_PRIORITY,
+                UserStoreConstants.CACHE_INVALIDATION_MESSAGE_LIFETIME);
+    }
+
+    /**
+     * Stop applying invalidations and close the broker connection.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        closeConnection(connection);
+        connection = null;
+    }
+
+    private void applyInvalidation(Message message) {
+        try {
+            if (!(message instanceof ObjectMessage)) {
+                LOGGER.warn("Ignoring unexpected message on cache invalidation topic of message broker: " +
+                        messageBrokerURL);
+                return;
+            }
+            Object invalidation = ((ObjectMessage) message).getObject();
+            if (invalidation instanceof CacheInvalidation) {
+                UserCacheInvalidator.getInstance().invalidate((CacheInvalidation) invalidation);
+            }
+        } catch (JMSException e) {
+            LOGGER.error("Error occurred while reading cache invalidation message", e);
+        }
+    }
+
+    /**
+     * Subscribe in the background, retrying every RESUBSCRIBE_DELAY_MILLIS until the broker can be reached. Nothing
+     * is scheduled if a subscription is scheduled already.
+     * @param delayMillis Delay in milliseconds before the first attempt
+     */
+    void scheduleSubscribe(long delayMillis) {
+        if (closed || !subscribeScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            WSUserStoreComponentHolder.getInstance().getTaskExecutor().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    subscribeScheduled.set(false);
+                    try {
+                        subscribe();
+                    } catch (JMSConnectionException | JMSException e) {
+                        LOGGER.error("Error occurred while subscribing to cache invalidations of message broker: " +
+                                messageBrokerURL, e);
+                        scheduleSubscribe(RESUBSCRIBE_DELAY_MILLIS);
+                    }
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            subscribeScheduled.set(false);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Cache invalidation subscription to message broker: " + messageBrokerURL +
+                        " not rescheduled", e);
+            }
+        }
+    }
+
+    private synchronized void resetConnection(Connection failedConnection) {
+        if (connection == failedConnection) {
+            connection = null;
+            publishSession = null;
+            producer = null;
+        }
+        closeConnection(failedConnection);
+    }
+
+    private void closeConnection(Connection brokerConnection) {
+        try {
+            connectionFactory.closeConnection(brokerConnection);
+        } catch (JMSConnectionException e) {
+            LOGGER.error("Error occurred while closing the connection", e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimMappingChangeListener;
+import org.wso2.carbon.identity.user.store.common.messaging.JMSConnectionException;
+import org.wso2.carbon.identity.user.store.common.model.CacheInvalidation;
+import org.wso2.carbon.identity.user.store.outbound.cache.UserCacheInvalidator;
+import org.wso2.carbon.identity.user.store.outbound.internal.WSUserStoreComponentHolder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import javax.jms.JMSException;
+
+/**
+ * Keeps one {@link CacheInvalidationChannel} per message broker URL. Claim mapping changes made on this node are
+ * published through every channel.
+ */
+public class CacheInvalidationChannelManager implements ClaimMappingChangeListener {
+
+    private static Log LOGGER = LogFactory.getLog(CacheInvalidationChannelManager.class);
+
+    private static CacheInvalidationChannelManager instance = new CacheInvalidationChannelManager();
+    private final ConcurrentMap<String, CacheInvalidationChannel> channels = new ConcurrentHashMap<>();
+    private volatile boolean active = true;
+
+    private CacheInvalidationChannelManager() {
+    }
+
+    public static CacheInvalidationChannelManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Start applying the cache invalidations published through the given broker. The subscription is made in the
+     * background and retried until the broker can be reached.
+     * @param messageBrokerURL message broker URL
+     */
+    public void subscribe(String messageBrokerURL) {
+        if (messageBrokerURL == null || !active) {
+            return;
+        }
+        try {
+            getChannel(messageBrokerURL).scheduleSubscribe(0);
+        } catch (JMSConnectionException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Cache invalidation subscription to message broker: " + messageBrokerURL +
+                        " not scheduled", e);
+            }
+        }
+    }
+
+    /**
+     * Apply a cache invalidation to the local caches and publish it to the other nodes in the background
+     * @param messageBrokerURL message broker URL
+     * @param invalidation Cache invalidation
+     */
+    public void invalidate(final String messageBrokerURL, final CacheInvalidation invalidation) {
+        UserCacheInvalidator.getInstance().invalidate(invalidation);
+        if (messageBrokerURL == null || !active) {
+            return;
+        }
+        try {
+            WSUserStoreComponentHolder.getInstance().getTaskExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        getChannel(messageBrokerURL).publish(invalidation);
+                    } catch (JMSConnectionException | JMSException e) {
+                        LOGGER.error("Error occurred while publishing " + invalidation.getCacheType() + " cache " +
+                                "invalidation of user: " + invalidation.getUserName() + " to message broker: " +
+                                messageBrokerURL, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Cache invalidation of user: " + invalidation.getUserName() + " not published to the other " +
+                    "nodes");
+        }
+    }
+
+    /**
+     * Publish a claim mapping change made on this node to the other nodes through every subscribed broker, in the
+     * background
+     * @param tenantId Tenant ID
+     */
+    @Override
+    public void claimMappingsChanged(int tenantId) {
+        if (!active || channels.isEmpty()) {
+            return;
+        }
+        final CacheInvalidation invalidation = new CacheInvalidation();
+        invalidation.setTenantId(tenantId);
+        invalidation.setCacheType(UserStoreConstants.CACHE_TYPE_CLAIM_MAPPINGS);
+        try {
+            WSUserStoreComponentHolder.getInstance().getTaskExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (Map.Entry<String, CacheInvalidationChannel> channel : channels.entrySet()) {
+                        try {
+                            channel.getValue().publish(invalidation);
+                        } catch (JMSConnectionException | JMSException e) {
+                            LOGGER.error("Error occurred while publishing claim mapping change of tenant: " +
+                                    invalidation.getTenantId() + " to message broker: " + channel.getKey(), e);
+                        }
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("Claim mapping change of tenant: " + tenantId + " not published to the other nodes");
+        }
+    }
+
+    /**
+     * Close the broker connections of all channels.
+     */
+    public void shutdown() {
+        active = false;
+        for (CacheInvalidationChannel channel : channels.values()) {
+            channel.shutdown();
+        }
+        channels.clear();
+    }
+
+    /**
+     * Accept subscriptions again after a shutdown.
+     */
+    public void activate() {
+        active = true;
+    }
+
+    private CacheInvalidationChannel getChannel(String messageBrokerURL) throws JMSConnectionException {
+        if (!active) {
+            throw new JMSConnectionException("Cache invalidation channels are shut down");
+        }
+        CacheInvalidationChannel channel = channels.get(messageBrokerURL);
+        if (channel == null) {
+            CacheInvalidationChannel newChannel = new CacheInvalidationChannel(messageBrokerURL);
+            channel = channels.putIfAbsent(messageBrokerURL, newChannel);
+            if (channel == null) {
+                channel = newChannel;
+            }
+        }
+        return channel;
+    }
+}
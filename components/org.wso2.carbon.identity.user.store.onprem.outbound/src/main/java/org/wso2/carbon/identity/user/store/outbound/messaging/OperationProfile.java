@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+/**
+ * Timeout and retry settings used for one user operation type.
+ */
+public class OperationProfile {
+
+    private final int consumeTimeout;
+    private final int retryLimit;
+    private final int messageLifetime;
+
+    /**
+     * @param consumeTimeout Time to wait for a reply in milliseconds
+     * @param retryLimit Number of times the operation is sent before giving up
+     * @param messageLifetime Message lifetime
+     */
+    public OperationProfile(int consumeTimeout, int retryLimit, int messageLifetime) {
+        this.consumeTimeout = consumeTimeout;
+        this.retryLimit = retryLimit;
+        this.messageLifetime = messageLifetime;
+    }
+
+    public int getConsumeTimeout() {
+        return consumeTimeout;
+    }
+
+    public int getRetryLimit() {
+        return retryLimit;
+    }
+
+    public int getMessageLifetime() {
+        return messageLifetime;
+    }
+
+    @Override
+    public String toString() {
+        return "consumeTimeout=" + consumeTimeout + ", retryLimit=" + retryLimit + ", messageLifetime=" +
+                messageLifetime;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.messaging;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.user.store.common.UserStoreConstants;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the per operation type timeout and retry settings of a user store. The base values are read
+ * from the MessageConsumeTimeout, MessageRetryLimit and MessageLifetime properties and can be overridden for an
+ * operation type with properties suffixed by the operation type, ex. MessageConsumeTimeout.getuserlist.
+ */
+public class OperationProfiles {
+
+    private static Log LOGGER = LogFactory.getLog(OperationProfiles.class);
+
+    private static final String[] OPERATION_TYPES = new String[] {
+            UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE,
+            UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE_AND_FETCH,
+            UserStoreConstants.UM_OPERATION_TYPE_AUTHENTICATE_BATCH,
+            UserStoreConstants.UM_OPERATION_TYPE_GET_CLAIMS,
+            UserStoreConstants.UM_OPERATION_TYPE_GET_USER_ROLES,
+            UserStoreConstants.UM_OPERATION_TYPE_GET_ROLES,
+            UserStoreConstants.UM_OPERATION_TYPE_GET_USER_LIST
+    };
+
+    private final OperationProfile defaultProfile;
+    private final Map<String, OperationProfile> profiles;
+
+    private OperationProfiles(OperationProfile defaultProfile, Map<String, OperationProfile> profiles) {
+        this.defaultProfile = defaultProfile;
+        this.profiles = profiles;
+    }
+
+    /**
+     * Parse the operation profiles from the user store properties
+     * @param userStoreProperties User store properties
+     * @return Operation profiles
+     * @throws NumberFormatException if a base value is missing or invalid
+     */
+    public static OperationProfiles build(Map<String, String> userStoreProperties) {
+
+        OperationProfile defaultProfile = new OperationProfile(
+                Integer.parseInt(userStoreProperties
+                        .get(UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_CONSUME_TIMEOUT)),
+                Integer.parseInt(userStoreProperties
+                        .get(UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_RETRY_LIMIT)),
+                Integer.parseInt(userStoreProperties
+                        .get(UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_LIFETIME)));
+
+        Map<String, OperationProfile> profiles = new HashMap<>();
+        for (String operationType : OPERATION_TYPES) {
+            OperationProfile profile = new OperationProfile(
+                    getOverride(userStoreProperties,
+                            UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_CONSUME_TIMEOUT, operationType,
+                            defaultProfile.getConsumeTimeout()),
+                    getOverride(userStoreProperties,
+                            UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_RETRY_LIMIT, operationType,
+                            defaultProfile.getRetryLimit()),
+                    getOverride(userStoreProperties,
+                            UserStoreConstants.USER_STORE_PROPERTY_NAME_MESSAGE_LIFETIME, operationType,
+                            defaultProfile.getMessageLifetime()));
+            profiles.put(operationType, profile);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Operation profile for " + operationType + " : " + profile);
+            }
+        }
+        return new OperationProfiles(defaultProfile, Collections.unmodifiableMap(profiles));
+    }
+
+    /**
+     * Get the profile for an operation type
+     * @param operationType Operation type ex. authenticate, getuserlist etc.
+     * @return Profile of the operation type or the base profile if the type has no profile
+     */
+    public OperationProfile getProfile(String operationType) {
+        OperationProfile profile = profiles.get(operationType);
+        return profile != null ? profile : defaultProfile;
+    }
+
+    private static int getOverride(Map<String, String> userStoreProperties, String propertyName,
+            String operationType, int defaultValue) {
+        return getValue(userStoreProperties, propertyName + "." + operationType, defaultValue);
+    }
+
+    /**
+     * Read an integer user store property
+     * @param userStoreProperties User store properties
+     * @param propertyName Property name
+     * @param defaultValue Value used if the property is blank or invalid
+     * @return Property value
+     */
+    public static int getValue(Map<String, String> userStoreProperties, String propertyName, int defaultValue) {
+
+        String value = userStoreProperties.get(propertyName);
+        if (StringUtils.isBlank(value)) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Invalid value: " + value + " for " + propertyName + ". Using " + defaultValue);
+            return defaultValue;
+        }
+    }
+}
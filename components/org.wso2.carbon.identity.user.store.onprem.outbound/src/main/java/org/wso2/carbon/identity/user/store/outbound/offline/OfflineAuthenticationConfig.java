@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.offline;
+
+/**
+ * Offline authentication settings of a user store.
+ */
+public class OfflineAuthenticationConfig {
+
+    private final boolean enabled;
+    private final long expiryMillis;
+    private final int maxEntries;
+    private final int iterations;
+    private final boolean persisted;
+
+    /**
+     * @param enabled Whether offline authentication is enabled
+     * @param expiryMillis Time after the last online verification that a verifier can be used
+     * @param maxEntries Maximum number of verifiers kept for the user store
+     * @param iterations PBKDF2 iteration count of new verifiers
+     * @param persisted Whether the verifiers are saved on shutdown and loaded on first use
+     */
+    public OfflineAuthenticationConfig(boolean enabled, long expiryMillis, int maxEntries, int iterations,
+            boolean persisted) {
+        this.enabled = enabled;
+        this.expiryMillis = expiryMillis;
+        this.maxEntries = maxEntries;
+        this.iterations = iterations;
+        this.persisted = persisted;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getExpiryMillis() {
+        return expiryMillis;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public boolean isPersisted() {
+        return persisted;
+    }
+}
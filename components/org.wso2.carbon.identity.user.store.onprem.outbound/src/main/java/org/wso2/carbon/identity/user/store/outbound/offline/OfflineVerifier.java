@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.offline;
+
+/**
+ * Salted PBKDF2 hash of a credential that was verified by the agents. A verifier created on this node also keeps a
+ * keyed fingerprint of the credential, which is not saved, so that a later login with the same credential can be
+ * recognised without another key derivation.
+ */
+public class OfflineVerifier {
+
+    private final byte[] salt;
+    private final byte[] hash;
+    private final int iterations;
+    private final long verifiedTime;
+    private final int fingerprintKeyId;
+    private final byte[] fingerprintSalt;
+    private final byte[] fingerprint;
+
+    public OfflineVerifier(byte[] salt, byte[] hash, int iterations, long verifiedTime) {
+        this(salt, hash, iterations, verifiedTime, 0, null, null);
+    }
+
+    public OfflineVerifier(byte[] salt, byte[] hash, int iterations, long verifiedTime, int fingerprintKeyId,
+            byte[] fingerprintSalt, byte[] fingerprint) {
+        this.salt = salt;
+        this.hash = hash;
+        this.iterations = iterations;
+        this.verifiedTime = verifiedTime;
+        this.fingerprintKeyId = fingerprintKeyId;
+        this.fingerprintSalt = fingerprintSalt;
+        this.fingerprint = fingerprint;
+    }
+
+    public byte[] getSalt() {
+        return salt;
+    }
+
+    public byte[] getHash() {
+        return hash;
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    public long getVerifiedTime() {
+        return verifiedTime;
+    }
+
+    public int getFingerprintKeyId() {
+        return fingerprintKeyId;
+    }
+
+    public byte[] getFingerprintSalt() {
+        return fingerprintSalt;
+    }
+
+    /**
+     * @return Keyed fingerprint of the credential or null if the verifier was loaded from a file
+     */
+    public byte[] getFingerprint() {
+        return fingerprint;
+    }
+}
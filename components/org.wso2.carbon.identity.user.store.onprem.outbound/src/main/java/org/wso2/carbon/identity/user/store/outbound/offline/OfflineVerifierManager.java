@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.offline;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.utils.CarbonUtils;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps the offline verifier store of each tenant user store domain and saves the persisted ones on shutdown.
+ */
+public class OfflineVerifierManager {
+
+    private static Log LOGGER = LogFactory.getLog(OfflineVerifierManager.class);
+
+    private static final String VERIFIER_DIRECTORY = "repository" + File.separator + "data" + File.separator +
+            "outbound-offline-verifiers";
+    private static final String VERIFIER_FILE_EXTENSION = ".verifiers";
+    private static final String LEGACY_VERIFIER_FILE_EXTENSION = ".ser";
+
+    private static OfflineVerifierManager instance = new OfflineVerifierManager();
+    private final ConcurrentMap<String, OfflineVerifierStore> stores = new ConcurrentHashMap<>();
+
+    private OfflineVerifierManager() {
+    }
+
+    public static OfflineVerifierManager getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get the verifier store of a user store domain, creating it and loading the saved verifiers on first use
+     * @param tenantDomain Tenant domain
+     * @param domain User store domain name
+     * @param config Offline authentication settings of the user store
+     * @return Offline verifier store
+     */
+    public OfflineVerifierStore getStore(String tenantDomain, String domain, OfflineAuthenticationConfig config) {
+        String key = getKey(tenantDomain, domain);
+        OfflineVerifierStore store = stores.get(key);
+        if (store == null) {
+            synchronized (stores) {
+                store = stores.get(key);
+                if (store == null) {
+                    store = new OfflineVerifierStore(config);
+                    deleteLegacyFile(key);
+                    if (config.isPersisted()) {
+                        store.load(getFile(key));
+                    }
+                    stores.put(key, store);
+                }
+            }
+        }
+        store.setConfig(config);
+        return store;
+    }
+
+    /**
+     * Remove the verifier of a user from the verifier store of a user store domain, if the store exists
+     * @param tenantDomain Tenant domain
+     * @param domain User store domain name
+     * @param userName Username
+     */
+    public void removeVerifier(String tenantDomain, String domain, String userName) {
+        OfflineVerifierStore store = stores.get(getKey(tenantDomain, domain));
+        if (store != null) {
+            store.removeVerifier(userName);
+        }
+    }
+
+    /**
+     * Save the verifiers of the persisted stores and forget all stores.
+     */
+    public void shutdown() {
+        for (Map.Entry<String, OfflineVerifierStore> entry : stores.entrySet()) {
+            entry.getValue().saveIfPersisted(getFile(entry.getKey()));
+        }
+        stores.clear();
+    }
+
+    private File getFile(String key) {
+        return getFile(key, VERIFIER_FILE_EXTENSION);
+    }
+
+    private File getFile(String key, String extension) {
+        return new File(CarbonUtils.getCarbonHome() + File.separator + VERIFIER_DIRECTORY,
+                key.replaceAll("[^A-Za-z0-9._-]", "_") + extension);
+    }
+
+    /**
+     * Delete the verifiers saved with Java serialization by earlier versions without reading them.
+     * @param key Store key
+     */
+    private void deleteLegacyFile(String key) {
+        File legacyFile = getFile(key, LEGACY_VERIFIER_FILE_EXTENSION);
+        if (legacyFile.isFile() && !legacyFile.delete()) {
+            LOGGER.warn("Unable to delete the legacy offline verifier file: " + legacyFile.getPath());
+        }
+    }
+
+    private String getKey(String tenantDomain, String domain) {
+        return tenantDomain + "/" + (domain == null ? null : domain.toUpperCase(Locale.ENGLISH));
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.offline;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.user.store.outbound.util.CredentialFingerprinter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * Bounded store of the offline verifiers of one tenant user store domain. The least recently used verifier is
+ * dropped when the store is full. Saved verifiers are written in an explicit binary format to a file readable by the
+ * owner only.
+ */
+public class OfflineVerifierStore {
+
+    private static Log LOGGER = LogFactory.getLog(OfflineVerifierStore.class);
+
+    private static final String KEY_DERIVATION_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_LENGTH = 256;
+    private static final int FILE_MAGIC = 0x4F564653;
+    private static final byte FILE_VERSION = 2;
+    private static final int MAX_FIELD_LENGTH = 64;
+    private static final long VERIFIER_REFRESH_INTERVAL = 60 * 60 * 1000;
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Map<String, OfflineVerifier> verifiers;
+    private volatile OfflineAuthenticationConfig config;
+    private boolean modified;
+
+    OfflineVerifierStore(OfflineAuthenticationConfig config) {
+        this.config = config;
+        this.verifiers = new LinkedHashMap<String, OfflineVerifier>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, OfflineVerifier> eldest) {
+                return size() > OfflineVerifierStore.this.config.getMaxEntries();
+            }
+        };
+    }
+
+    void setConfig(OfflineAuthenticationConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Store a verifier for a credential the agents accepted
+     * @param userName Username
+     * @param password Password characters
+     */
+    public void addVerifier(String userName, char[] password) {
+        byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+        int iterations = config.getIterations();
+        CredentialFingerprinter fingerprinter = CredentialFingerprinter.getInstance();
+        byte[] hash;
+        byte[] fingerprintSalt;
+        byte[] fingerprint;
+        try {
+            hash = deriveKey(password, salt, iterations);
+            fingerprintSalt = fingerprinter.newSalt();
+            fingerprint = fingerprinter.getFingerprint(fingerprintSalt, password);
+        } catch (GeneralSecurityException e) {
+            LOGGER.error("Error occurred while creating offline verifier", e);
+            return;
+        }
+        OfflineVerifier verifier = new OfflineVerifier(salt, hash, iterations, System.currentTimeMillis(),
+                fingerprinter.getKeyId(), fingerprintSalt, fingerprint);
+        synchronized (verifiers) {
+            verifiers.put(userName, verifier);
+            modified = true;
+        }
+    }
+
+    /**
+     * Verify a credential against the stored verifier
+     * @param userName Username
+     * @param password Password characters
+     * @return true if an unexpired verifier of the user matches the password
+     */
+    public boolean verify(String userName, char[] password) {
+        OfflineVerifier verifier;
+        synchronized (verifiers) {
+            verifier = verifiers.get(userName);
+            if (verifier == null) {
+                return false;
+            }
+            if (System.currentTimeMillis() - verifier.getVerifiedTime() > config.getExpiryMillis()) {
+                verifiers.remove(userName);
+                modified = true;
+                return false;
+            }
+        }
+        try {
+            return MessageDigest.isEqual(verifier.getHash(),
+                    deriveKey(password, verifier.getSalt(), verifier.getIterations()));
+        } catch (GeneralSecurityException e) {
+            LOGGER.error("Error occurred while checking offline verifier", e);
+            return false;
+        }
+    }
+
+    /**
+     * Check whether the stored verifier of a user was derived recently from the same credential with the current
+     * settings, so that deriving a new one can be skipped. Only the keyed fingerprint is computed.
+     * @param userName Username
+     * @param password Password characters
+     * @return true if the stored verifier is recent and matches the credential
+     */
+    public boolean isCurrent(String userName, char[] password) {
+        OfflineVerifier verifier = getVerifier(userName);
+        if (verifier == null || verifier.getIterations() != config.getIterations()
+                || System.currentTimeMillis() - verifier.getVerifiedTime() > getRefreshInterval()) {
+            return false;
+        }
+        return matchesFingerprint(verifier, password);
+    }
+
+    /**
+     * Remove the verifier of a user if it matches a credential the agents rejected, ex. after the password was
+     * changed at the user store. A wrong password leaves the verifier in place. Only the keyed fingerprint is
+     * compared, so a verifier without one is kept until it expires or the user cache is invalidated.
+     * @param userName Username
+     * @param password Rejected password characters
+     */
+    public void removeMatchingVerifier(String userName, char[] password) {
+        OfflineVerifier verifier = getVerifier(userName);
+        if (verifier == null || !matchesFingerprint(verifier, password)) {
+            return;
+        }
+        synchronized (verifiers) {
+            if (verifiers.get(userName) == verifier) {
+                verifiers.remove(userName);
+                modified = true;
+            }
+        }
+    }
+
+    public void removeVerifier(String userName) {
+        synchronized (verifiers) {
+            if (verifiers.remove(userName) != null) {
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * @param userName Username
+     * @return Stored verifier of the user or null if there is none
+     */
+    OfflineVerifier getVerifier(String userName) {
+        synchronized (verifiers) {
+            return verifiers.get(userName);
+        }
+    }
+
+    /**
+     * Load the verifiers saved with {@link #saveIfPersisted(File)}. Expired verifiers are skipped. A file of another
+     * format is ignored.
+     * @param file File to read
+     */
+    void load(File file) {
+        if (!file.isFile()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FILE_MAGIC || in.readByte() != FILE_VERSION) {
+                LOGGER.warn("Ignoring offline verifiers of an unknown format: " + file.getPath());
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String userName = in.readUTF();
+                byte[] salt = readField(in);
+                byte[] hash = readField(in);
+                int iterations = in.readInt();
+                long verifiedTime = in.readLong();
+                if (iterations > 0 && now - verifiedTime <= config.getExpiryMillis()) {
+                    synchronized (verifiers) {
+                        verifiers.put(userName, new OfflineVerifier(salt, hash, iterations, verifiedTime));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Error occurred while loading offline verifiers from " + file.getPath(), e);
+        }
+    }
+
+    /**
+     * Save the verifiers if the store is persisted and they changed since the last save
+     * @param file File to write
+     */
+    void saveIfPersisted(File file) {
+        if (!config.isPersisted()) {
+            return;
+        }
+        Map<String, OfflineVerifier> snapshot;
+        synchronized (verifiers) {
+            if (!modified) {
+                return;
+            }
+            snapshot = new LinkedHashMap<>(verifiers);
+            modified = false;
+        }
+        File directory = file.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.error("Unable to create directory " + directory.getPath() + " for offline verifiers");
+            return;
+        }
+        File tempFile = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(tempFile)))) {
+                restrictPermissions(tempFile);
+                out.writeInt(FILE_MAGIC);
+                out.writeByte(FILE_VERSION);
+                out.writeInt(snapshot.size());
+                for (Map.Entry<String, OfflineVerifier> entry : snapshot.entrySet()) {
+                    OfflineVerifier verifier = entry.getValue();
+                    out.writeUTF(entry.getKey());
+                    writeField(out, verifier.getSalt());
+                    writeField(out, verifier.getHash());
+                    out.writeInt(verifier.getIterations());
+                    out.writeLong(verifier.getVerifiedTime());
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.error("Error occurred while saving offline verifiers to " + file.getPath(), e);
+            synchronized (verifiers) {
+                modified = true;
+            }
+            if (tempFile.isFile() && !tempFile.delete()) {
+                LOGGER.warn("Unable to delete the offline verifier file: " + tempFile.getPath());
+            }
+        }
+    }
+
+    private boolean matchesFingerprint(OfflineVerifier verifier, char[] password) {
+        CredentialFingerprinter fingerprinter = CredentialFingerprinter.getInstance();
+        if (verifier.getFingerprint() == null || verifier.getFingerprintKeyId() != fingerprinter.getKeyId()) {
+            return false;
+        }
+        try {
+            return fingerprinter.matches(verifier.getFingerprintSalt(), password, verifier.getFingerprint());
+        } catch (GeneralSecurityException e) {
+            LOGGER.error("Error occurred while checking offline verifier", e);
+            return false;
+        }
+    }
+
+    private long getRefreshInterval() {
+        return Math.min(VERIFIER_REFRESH_INTERVAL, config.getExpiryMillis() / 4);
+    }
+
+    private static void writeField(DataOutputStream out, byte[] field) throws IOException {
+        out.writeShort(field.length);
+        out.write(field);
+    }
+
+    private static byte[] readField(DataInputStream in) throws IOException {
+        int length = in.readUnsignedShort();
+        if (length > MAX_FIELD_LENGTH) {
+            throw new IOException("Invalid offline verifier field length: " + length);
+        }
+        byte[] field = new byte[length];
+        in.readFully(field);
+        return field;
+    }
+
+    private static void restrictPermissions(File file) {
+        if (!(file.setReadable(false, false) && file.setReadable(true, true) && file.setWritable(false, false)
+                && file.setWritable(true, true))) {
+            LOGGER.warn("Unable to restrict the permissions of the offline verifier file: " + file.getPath());
+        }
+    }
+
+    private static byte[] deriveKey(char[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec keySpec = new PBEKeySpec(password, salt, iterations, HASH_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(KEY_DERIVATION_ALGORITHM).generateSecret(keySpec).getEncoded();
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+}
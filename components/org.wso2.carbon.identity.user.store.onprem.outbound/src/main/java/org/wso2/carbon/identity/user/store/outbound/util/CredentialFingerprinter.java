@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.user.store.outbound.util;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Computes keyed fingerprints of credentials for the authentication caches. A fingerprint is the HMAC-SHA256 of a
+ * salt and the credential characters under a secret generated when the node starts, so cached fingerprints are of no
+ * use without the memory of the node. The credential characters are hashed directly from the char array and the
+ * Mac instance and buffers are kept per thread, so verifying a credential against a cached fingerprint does not
+ * allocate or leave a copy of the credential on the heap.
+ */
+public class CredentialFingerprinter {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int SECRET_LENGTH = 32;
+    private static final int SALT_LENGTH = 16;
+    private static final int FINGERPRINT_LENGTH = 32;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private static CredentialFingerprinter instance = new CredentialFingerprinter();
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final SecretKeySpec secretKey;
+    private final int keyId;
+    private final ThreadLocal<FingerprintContext> contexts = new ThreadLocal<>();
+
+    private CredentialFingerprinter() {
+        byte[] secret = new byte[SECRET_LENGTH];
+        secureRandom.nextBytes(secret);
+        secretKey = new SecretKeySpec(secret, HMAC_ALGORITHM);
+        Arrays.fill(secret, (byte) 0);
+        keyId = secureRandom.nextInt();
+    }
+
+    public static CredentialFingerprinter getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return Id of the secret of this node. Fingerprints with another key id were computed by another node or
+     * before a restart and can't be verified.
+     */
+    public int getKeyId() {
+        return keyId;
+    }
+
+    /**
+     * @return New random salt
+     */
+    public byte[] newSalt() {
+        byte[] salt = new byte[SALT_LENGTH];
+        secureRandom.nextBytes(salt);
+        return salt;
+    }
+
+    /**
+     * Compute the fingerprint of a credential
+     * @param salt Salt
+     * @param credential Credential characters
+     * @return Fingerprint
+     * @throws GeneralSecurityException if the HMAC algorithm is not available
+     */
+    public byte[] getFingerprint(byte[] salt, char[] credential) throws GeneralSecurityException {
+        FingerprintContext context = getContext();
+        byte[] fingerprint = new byte[FINGERPRINT_LENGTH];
+        computeFingerprint(context, salt, credential, fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * Check a credential against a fingerprint in constant time
+     * @param salt Salt the fingerprint was computed with
+     * @param credential Credential characters
+     * @param fingerprint Expected fingerprint
+     * @return true if the credential has the expected fingerprint
+     * @throws GeneralSecurityException if the HMAC algorithm is not available
+     */
+    public boolean matches(byte[] salt, char[] credential, byte[] fingerprint) throws GeneralSecurityException {
+        FingerprintContext context = getContext();
+        computeFingerprint(context, salt, credential, context.output);
+        return MessageDigest.isEqual(context.output, fingerprint);
+    }
+
+    /**
+     * Get a hex encoded fingerprint of a credential salted with the username, used where a credential is looked up
+     * by its fingerprint ex. the failed authentication cache.
+     * @param userName Username
+     * @param credential Credential characters
+     * @return Hex encoded fingerprint
+     * @throws GeneralSecurityException if the HMAC algorithm is not available
+     */
+    public String getIdentifier(String userName, char[] credential) throws GeneralSecurityException {
+        FingerprintContext context = getContext();
+        Mac mac = context.mac;
+        int length = userName.length();
+        for (int i = 0; i < length; i++) {
+            char c = userName.charAt(i);
+            mac.update((byte) (c >> 8));
+            mac.update((byte) c);
+        }
+        mac.update((byte) 0);
+        computeFingerprint(context, null, credential, context.output);
+        char[] hex = new char[FINGERPRINT_LENGTH * 2];
+        for (int i = 0; i < FINGERPRINT_LENGTH; i++) {
+            hex[i * 2] = HEX_DIGITS[(context.output[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[context.output[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+
+    private void computeFingerprint(FingerprintContext context, byte[] salt, char[] credential, byte[] output)
+            throws GeneralSecurityException {
+
+        Mac mac = context.mac;
+        if (salt != null) {
+            mac.update(salt);
+        }
+        byte[] input = context.getInput(credential.length * 2);
+        for (int i = 0; i < credential.length; i++) {
+            input[i * 2] = (byte) (credential[i] >> 8);
+            input[i * 2 + 1] = (byte) credential[i];
+        }
+        try {
+            mac.update(input, 0, credential.length * 2);
+            mac.doFinal(output, 0);
+        } finally {
+            Arrays.fill(input, 0, credential.length * 2, (byte) 0);
+        }
+    }
+
+    private FingerprintContext getContext() throws GeneralSecurityException {
+        FingerprintContext context = contexts.get();
+        if (context == null) {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secretKey);
+            context = new FingerprintContext(mac);
+            contexts.set(context);
+        }
+        return context;
+    }
+
+    /**
+     * Mac instance and buffers of a thread.
+     */
+    private static class FingerprintContext {
+
+        private final Mac mac;
+        private final byte[] output = new byte[FINGERPRINT_LENGTH];
+        private byte[] input = new byte[64];
+
+        private FingerprintContext(Mac mac) {
+            this.mac = mac;
+        }
+
+        private byte[] getInput(int length) {
+            if (input.length < length) {
+                input = new byte[Math.max(length, input.length * 2)];
+            }
+            return input;
+        }
+    }
+}
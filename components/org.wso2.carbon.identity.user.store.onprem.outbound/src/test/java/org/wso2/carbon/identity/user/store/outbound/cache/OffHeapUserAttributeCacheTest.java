@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.testng.Assert;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Round trips of user attribute cache entries through the off heap record encoding.
+ */
+public class OffHeapUserAttributeCacheTest {
+
+    private static final long CAPACITY = 1024 * 1024;
+    private static final int TENANT_ID = -1234;
+    private static final String DOMAIN = "OFFHEAP";
+
+    @BeforeMethod
+    public void setUp() {
+        OffHeapUserAttributeCache.getInstance().initialize(CAPACITY);
+        OffHeapUserAttributeCache.getInstance().clear();
+    }
+
+    @Test
+    public void testRoundTrip() {
+
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("givenname", "Alice");
+        attributes.put("country", "Sri Lanka");
+        attributes.put("note", "\u00e9\u4e2d\ud83d\ude00");
+        Set<String> fetchedAttributes = new HashSet<>(attributes.keySet());
+        fetchedAttributes.add("lastname");
+        UserAttributeCacheEntry entry = newEntry(attributes, fetchedAttributes);
+        entry.setSoftExpiryTime(1000L);
+        entry.setHardExpiryTime(2000L);
+        UserAttributeCacheKey key = new UserAttributeCacheKey(TENANT_ID, DOMAIN, "alice");
+        OffHeapUserAttributeCache.getInstance().addToCache(key, entry);
+
+        UserAttributeCacheEntry copy = OffHeapUserAttributeCache.getInstance().getValueFromCache(key);
+        Assert.assertNotNull(copy);
+        Assert.assertEquals(copy.getUserAttributes(), attributes);
+        Assert.assertEquals(copy.getFetchedAttributes(), fetchedAttributes);
+        Assert.assertEquals(copy.getSoftExpiryTime(), 1000L);
+        Assert.assertEquals(copy.getHardExpiryTime(), 2000L);
+    }
+
+    @Test
+    public void testEntryWithoutAttributes() {
+
+        UserAttributeCacheKey key = new UserAttributeCacheKey(TENANT_ID, DOMAIN, "bob");
+        OffHeapUserAttributeCache.getInstance().addToCache(key, newEntry(null, null));
+
+        UserAttributeCacheEntry copy = OffHeapUserAttributeCache.getInstance().getValueFromCache(key);
+        Assert.assertNotNull(copy);
+        Assert.assertNull(copy.getUserAttributes());
+        Assert.assertNull(copy.getFetchedAttributes());
+    }
+
+    @Test
+    public void testReplacedEntry() {
+
+        UserAttributeCacheKey key = new UserAttributeCacheKey(TENANT_ID, DOMAIN, "carol");
+        OffHeapUserAttributeCache.getInstance().addToCache(key,
+                newEntry(Collections.singletonMap("givenname", "Carol"), Collections.singleton("givenname")));
+        OffHeapUserAttributeCache.getInstance().addToCache(key,
+                newEntry(Collections.singletonMap("givenname", "Caroline"), Collections.singleton("givenname")));
+
+        UserAttributeCacheEntry copy = OffHeapUserAttributeCache.getInstance().getValueFromCache(key);
+        Assert.assertEquals(copy.getUserAttributes().get("givenname"), "Caroline");
+        Assert.assertNull(OffHeapUserAttributeCache.getInstance().getValueFromCache(
+                new UserAttributeCacheKey(TENANT_ID, DOMAIN, "dave")));
+    }
+
+    @Test
+    public void testEvictedEntries() {
+
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 1024; i++) {
+            value.append('x');
+        }
+        int count = (int) (2 * CAPACITY / value.length());
+        for (int i = 0; i < count; i++) {
+            OffHeapUserAttributeCache.getInstance().addToCache(new UserAttributeCacheKey(TENANT_ID, DOMAIN, "user" + i),
+                    newEntry(Collections.singletonMap("note", value.toString()), null));
+        }
+        Assert.assertNull(OffHeapUserAttributeCache.getInstance().getValueFromCache(
+                new UserAttributeCacheKey(TENANT_ID, DOMAIN, "user0")));
+        UserAttributeCacheEntry last = OffHeapUserAttributeCache.getInstance().getValueFromCache(
+                new UserAttributeCacheKey(TENANT_ID, DOMAIN, "user" + (count - 1)));
+        Assert.assertEquals(last.getUserAttributes().get("note"), value.toString());
+        Assert.assertTrue(OffHeapUserAttributeCache.getInstance().size() < count);
+    }
+
+    private UserAttributeCacheEntry newEntry(Map<String, String> attributes, Set<String> fetchedAttributes) {
+        UserAttributeCacheEntry entry = new UserAttributeCacheEntry(
+                AttributeDictionary.getInstance().getSchema(TENANT_ID, DOMAIN));
+        entry.setUserAttributes(attributes);
+        entry.setFetchedAttributes(fetchedAttributes);
+        return entry;
+    }
+}
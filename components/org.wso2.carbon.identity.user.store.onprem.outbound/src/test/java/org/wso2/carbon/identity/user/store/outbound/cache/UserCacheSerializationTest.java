@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.wso2.carbon.identity.user.store.outbound.cache;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Round trips of the Externalizable forms of the user cache keys and entries.
+ */
+public class UserCacheSerializationTest {
+
+    @Test
+    public void testUserCacheKeys() throws Exception {
+
+        UserCacheKey[] keys = new UserCacheKey[] {
+                new UserAuthCacheKey(-1234, "ad", "alice"),
+                new UserAttributeCacheKey(1, "Secondary", "b\u00f6b@wso2.com"),
+                new UserRoleCacheKey(2, null, "carol")
+        };
+        for (UserCacheKey key : keys) {
+            UserCacheKey copy = roundTrip(key);
+            Assert.assertEquals(copy.getClass(), key.getClass());
+            Assert.assertEquals(copy, key);
+            Assert.assertEquals(copy.hashCode(), key.hashCode());
+            Assert.assertEquals(copy.getTenantId(), key.getTenantId());
+            Assert.assertEquals(copy.getDomain(), key.getDomain());
+            Assert.assertEquals(copy.getUserName(), key.getUserName());
+            Assert.assertEquals(copy.getTenantDomain(), key.getTenantDomain());
+        }
+        Assert.assertSame(roundTrip(keys[1]).getDomain(), "SECONDARY");
+    }
+
+    @Test
+    public void testUserAuthCacheEntry() throws Exception {
+
+        UserAuthCacheEntry entry = new UserAuthCacheEntry(7, new byte[] { 1, 2, 3 }, new byte[32]);
+        UserAuthCacheEntry copy = roundTrip(entry);
+        Assert.assertEquals(copy.getKeyId(), 7);
+        Assert.assertEquals(copy.getSalt(), entry.getSalt());
+        Assert.assertEquals(copy.getFingerprint(), entry.getFingerprint());
+
+        copy = roundTrip(new UserAuthCacheEntry(0, null, null));
+        Assert.assertNull(copy.getSalt());
+        Assert.assertNull(copy.getFingerprint());
+    }
+
+    @Test
+    public void testUserRoleCacheEntry() throws Exception {
+
+        UserRoleCacheEntry entry = new UserRoleCacheEntry(new String[] { "admin", "r\u00f4le", "" }, 1234567890123L);
+        UserRoleCacheEntry copy = roundTrip(entry);
+        Assert.assertEquals(copy.getRoleNames(), entry.getRoleNames());
+        Assert.assertEquals(copy.getExpiryTime(), entry.getExpiryTime());
+
+        copy = roundTrip(new UserRoleCacheEntry(null, 0));
+        Assert.assertNull(copy.getRoleNames());
+    }
+
+    @Test
+    public void testUserRoleCacheEntryVersion1() throws Exception {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeByte(1);
+            out.writeInt(2);
+            out.writeInt(5);
+            out.write("admin".getBytes("UTF-8"));
+            out.writeInt(-1);
+        }
+        UserRoleCacheEntry entry = new UserRoleCacheEntry();
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            entry.readExternal(in);
+        }
+        Assert.assertEquals(entry.getRoleNames(), new String[] { "admin", null });
+        Assert.assertEquals(entry.getExpiryTime(), 0L);
+    }
+
+    @Test
+    public void testUserAttributeCacheEntry() throws Exception {
+
+        AttributeSchema schema = AttributeDictionary.getInstance().getSchema(-1234, "serialization");
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("givenname", "Alice");
+        attributes.put("country", "Sri Lanka");
+        attributes.put("note", "\u00e9\u4e2d\ud83d\ude00");
+        Set<String> fetchedAttributes = new HashSet<>(attributes.keySet());
+        fetchedAttributes.add("lastname");
+        UserAttributeCacheEntry entry = new UserAttributeCacheEntry(schema);
+        entry.setUserAttributes(attributes);
+        entry.setFetchedAttributes(fetchedAttributes);
+        entry.setSoftExpiryTime(1000L);
+        entry.setHardExpiryTime(2000L);
+
+        UserAttributeCacheEntry copy = roundTrip(entry);
+        Assert.assertSame(copy.getSchema(), schema);
+        Assert.assertEquals(copy.getUserAttributes(), attributes);
+        Assert.assertEquals(copy.getFetchedAttributes(), fetchedAttributes);
+        Assert.assertTrue(copy.isFetched("lastname"));
+        Assert.assertFalse(copy.isFetched("email"));
+        Assert.assertEquals(copy.getSoftExpiryTime(), 1000L);
+        Assert.assertEquals(copy.getHardExpiryTime(), 2000L);
+
+        copy = roundTrip(new UserAttributeCacheEntry(schema));
+        Assert.assertNull(copy.getUserAttributes());
+        Assert.assertNull(copy.getFetchedAttributes());
+    }
+
+    @Test
+    public void testUnsupportedVersion() throws Exception {
+
+        Externalizable[] values = new Externalizable[] {
+                new UserAuthCacheKey(), new UserAuthCacheEntry(), new UserRoleCacheEntry(),
+                new UserAttributeCacheEntry()
+        };
+        for (Externalizable value : values) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeByte(Byte.MAX_VALUE);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                value.readExternal(in);
+                Assert.fail(value.getClass().getName() + " of an unsupported version was read");
+            } catch (IOException e) {
+                Assert.assertTrue(e.getMessage().startsWith("Unsupported serialization version"), e.getMessage());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Serializable> T roundTrip(T value) throws IOException, ClassNotFoundException {
+        return (T) deserialize(serialize(value));
+    }
+
+    private byte[] serialize(Serializable value) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    private Object deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
@@ -20,7 +20,6 @@ package org.wso2.carbon.identity.user.store.ws;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
@@ -33,6 +32,8 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import org.wso2.carbon.core.util.KeyStoreManager;
 import org.wso2.carbon.identity.core.util.IdentityTenantUtil;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimAttributeList;
+import org.wso2.carbon.identity.user.store.common.claim.ClaimMappingChangeNotifier;
 import org.wso2.carbon.identity.user.store.ws.cache.UserAttributeCache;
 import org.wso2.carbon.identity.user.store.ws.cache.UserAttributeCacheEntry;
 import org.wso2.carbon.identity.user.store.ws.cache.UserAttributeCacheKey;
@@ -41,6 +42,7 @@ import org.wso2.carbon.identity.user.store.ws.internal.WSUserStoreComponentHolde
 import org.wso2.carbon.identity.user.store.ws.security.DefaultJWTGenerator;
 import org.wso2.carbon.identity.user.store.ws.security.SecurityTokenBuilder;
 import org.wso2.carbon.identity.user.store.ws.util.EndpointUtil;
+import org.wso2.carbon.identity.user.store.ws.util.HttpClientProvider;
 import org.wso2.carbon.user.api.ClaimMapping;
 import org.wso2.carbon.user.api.Properties;
 import org.wso2.carbon.user.api.Property;
@@ -77,6 +79,8 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
 
     private static Map<Integer, Key> privateKeys = new ConcurrentHashMap<>();
 
+    private volatile ClaimAttributeList claimAttributeList;
+
     public WSUserStoreManager() {
 
     }
@@ -165,7 +169,7 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
 
     private void addAttributesToCache(String userName, Map<String, String> attributes) {
 
-        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(userName);
+        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(tenantId, getMyDomainName(), userName);
         UserAttributeCacheEntry cacheEntry = new UserAttributeCacheEntry();
         cacheEntry.setUserAttributes(attributes);
         UserAttributeCache.getInstance().addToCache(cacheKey, cacheEntry);
@@ -173,7 +177,7 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
 
     private UserAttributeCacheEntry getUserAttributesFromCache(String userName) {
 
-        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(userName);
+        UserAttributeCacheKey cacheKey = new UserAttributeCacheKey(tenantId, getMyDomainName(), userName);
         return UserAttributeCache.getInstance().getValueFromCache(cacheKey);
     }
 
@@ -225,9 +229,18 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
     }
 
     private HttpClient getHttpClient() {
-        HttpClient httpClient = new HttpClient(new MultiThreadedHttpConnectionManager());
-        httpClient.getParams().setParameter("http.connection.stalecheck", new Boolean(true));
-        return httpClient;
+        return HttpClientProvider.getInstance().getHttpClient();
+    }
+
+    private boolean beginAgentRequest() {
+        if (HttpClientProvider.getInstance().beginRequest()) {
+            return true;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("User store is shutting down. Request not sent to agent for tenantId - [" + this.tenantId
+                    + "]");
+        }
+        return false;
     }
 
     public boolean doAuthenticate(String username, Object credential) throws UserStoreException {
@@ -235,6 +248,9 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
             log.debug("Processing authentication request for tenantId  - [" + this.tenantId + "]");
         }
         boolean authStatus = false;
+        if (!beginAgentRequest()) {
+            return authStatus;
+        }
         PostMethod postRequest = new PostMethod(EndpointUtil.getAuthenticateEndpoint(getHostName()));
         try {
 
@@ -253,6 +269,7 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
                     + "]", e);
         } finally {
             postRequest.releaseConnection();
+            HttpClientProvider.getInstance().endRequest();
         }
         return authStatus;
     }
@@ -344,13 +361,36 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
         return new NameValuePair[] { param };
     }
 
-    private String[] getAllClaimMapAttributes(ClaimMapping[] claimMappings) {
+    private List<String> getAllClaimMapAttributes(ClaimMapping[] claimMappings) {
 
         List<String> mapAttributes = new ArrayList<>();
         for (ClaimMapping mapping : claimMappings) {
-            mapAttributes.add(mapping.getMappedAttribute());
+            if (mapping.getMappedAttribute() != null) {
+                mapAttributes.add(mapping.getMappedAttribute());
+            }
         }
-        return mapAttributes.toArray(new String[mapAttributes.size()]);
+        return mapAttributes;
+    }
+
+    /**
+     * Get the attributes mapped to claims in the bootstrap realm. The list is rebuilt only when the claim mappings of
+     * the super tenant change.
+     * @return Claim attribute list
+     * @throws org.wso2.carbon.user.api.UserStoreException
+     */
+    private ClaimAttributeList getClaimAttributeList() throws org.wso2.carbon.user.api.UserStoreException {
+
+        ClaimMappingChangeNotifier notifier = ClaimMappingChangeNotifier.getInstance();
+        ClaimAttributeList attributeList = claimAttributeList;
+        if (!notifier.isCurrent(MultitenantConstants.SUPER_TENANT_ID, attributeList)) {
+            long version = notifier.getVersion(MultitenantConstants.SUPER_TENANT_ID);
+            ClaimManager claimManager = WSUserStoreComponentHolder.getInstance().getRealmService()
+                    .getBootstrapRealm().getClaimManager();
+            attributeList = new ClaimAttributeList(version,
+                    getAllClaimMapAttributes(claimManager.getAllClaimMappings()));
+            claimAttributeList = attributeList;
+        }
+        return attributeList;
     }
 
     public Map<String, String> getUserPropertyValues(String userName, String[] propertyNames, String profileName)
@@ -360,14 +400,15 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
         Map<String, String> allUserAttributes = new HashMap<>();
         Map<String, String> mapAttributes = new HashMap<>();
         if (cacheEntry == null) {
+            if (!beginAgentRequest()) {
+                return Collections.<String, String>emptyMap();
+            }
             GetMethod getMethod = new GetMethod(EndpointUtil.getUserClaimRetrievalEndpoint(getHostName(), userName));
             try {
                 HttpClient httpClient = getHttpClient();
 
-                ClaimManager claimManager = WSUserStoreComponentHolder.getInstance().getRealmService()
-                        .getBootstrapRealm().getClaimManager();
-                getMethod.setQueryString(getQueryString("attributes",
-                        getAllClaimMapAttributes(claimManager.getAllClaimMappings())));
+                getMethod.setQueryString(new NameValuePair[] {
+                        new NameValuePair("attributes", getClaimAttributeList().getAttributes()) });
                 setAuthorizationHeader(getMethod);
                 int response = httpClient.executeMethod(getMethod);
                 if (response == HttpStatus.SC_OK) {
@@ -383,13 +424,14 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
             } catch (IOException | JSONException | WSUserStoreException e) {
                 log.error("Error occurred while calling backed to authenticate request for tenantId - [" + this.tenantId
                         + "]", e);
-                return Collections.EMPTY_MAP;
+                return Collections.<String, String>emptyMap();
             } catch (org.wso2.carbon.user.api.UserStoreException e) {
                 log.error("Error occurred while calling backed to authenticate request for tenantId - [" + this.tenantId
                         + "]", e);
-                return Collections.EMPTY_MAP;
+                return Collections.<String, String>emptyMap();
             } finally {
                 getMethod.releaseConnection();
+                HttpClientProvider.getInstance().endRequest();
             }
         } else {
             allUserAttributes = cacheEntry.getUserAttributes();
@@ -514,6 +556,9 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
         if (log.isDebugEnabled()) {
             log.debug("Processing getListUsers request for tenantId  - [" + this.tenantId + "]");
         }
+        if (!beginAgentRequest()) {
+            return new String[0];
+        }
         GetMethod getMethod = new GetMethod(EndpointUtil.getUserListEndpoint(getHostName()));
         List<String> userList = new ArrayList<>();
         try {
@@ -542,6 +587,7 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
                     + "]", e);
         } finally {
             getMethod.releaseConnection();
+            HttpClientProvider.getInstance().endRequest();
         }
         return userList.toArray(new String[userList.size()]);
     }
@@ -574,6 +620,9 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
         if (log.isDebugEnabled()) {
             log.debug("Processing getRoleListOfUser request for tenantId  - [" + this.tenantId + "]");
         }
+        if (!beginAgentRequest()) {
+            return new String[0];
+        }
         GetMethod getMethod = new GetMethod(EndpointUtil.getUserRolesListEndpoint(getHostName(), userName));
         List<String> groupList = new ArrayList<>();
         try {
@@ -595,6 +644,7 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
                     + "]", e);
         } finally {
             getMethod.releaseConnection();
+            HttpClientProvider.getInstance().endRequest();
         }
         return groupList.toArray(new String[groupList.size()]);
     }
@@ -626,6 +676,9 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
         if (log.isDebugEnabled()) {
             log.debug("Processing doGetRoleNames request for tenantId  - [" + this.tenantId + "]");
         }
+        if (!beginAgentRequest()) {
+            return new String[0];
+        }
         GetMethod getMethod = new GetMethod(EndpointUtil.getRoleListEndpoint(getHostName()));
         List<String> roleList = new ArrayList<>();
         try {
@@ -650,6 +703,7 @@ public class WSUserStoreManager extends AbstractUserStoreManager {
                     + "]", e);
         } finally {
             getMethod.releaseConnection();
+            HttpClientProvider.getInstance().endRequest();
         }
         return roleList.toArray(new String[roleList.size()]);
     }
@@ -20,13 +20,36 @@ package org.wso2.carbon.identity.user.store.ws.cache;
 
 import org.wso2.carbon.identity.application.common.cache.CacheKey;
 
+import java.util.Locale;
+
+/**
+ * Attribute cache key of a user of a tenant user store domain. The domain name is upper-cased and interned so that
+ * the keys of a domain share one instance, and the hash code is computed once.
+ */
 public class UserAttributeCacheKey extends CacheKey {
 
-    private static final long serialVersionUID = -5671481946716751542L;
-    private String userName;
+    private static final long serialVersionUID = 8712356030214493862L;
 
-    public UserAttributeCacheKey(String userName) {
+    private final int tenantId;
+    private final String domain;
+    private final String userName;
+    private final int hash;
+
+    public UserAttributeCacheKey(int tenantId, String domain, String userName) {
+        this.tenantId = tenantId;
+        this.domain = domain == null ? null : domain.toUpperCase(Locale.ENGLISH).intern();
         this.userName = userName;
+        int result = tenantId;
+        result = 31 * result + (this.domain == null ? 0 : this.domain.hashCode());
+        this.hash = 31 * result + userName.hashCode();
+    }
+
+    public int getTenantId() {
+        return tenantId;
+    }
+
+    public String getDomain() {
+        return domain;
     }
 
     public String getUserName() {
@@ -35,14 +58,19 @@ public class UserAttributeCacheKey extends CacheKey {
 
     @Override
     public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
         if (!(o instanceof UserAttributeCacheKey)) {
             return false;
         }
-        return this.userName.equals(((UserAttributeCacheKey) o).getUserName());
+        UserAttributeCacheKey other = (UserAttributeCacheKey) o;
+        return hash == other.hash && tenantId == other.tenantId && userName.equals(other.userName)
+                && (domain == null ? other.domain == null : domain.equals(other.domain));
     }
 
     @Override
     public int hashCode() {
-        return userName.hashCode();
+        return hash;
     }
 }
@@ -22,6 +22,7 @@ import org.apache.commons.logging.LogFactory;
 import org.osgi.service.component.ComponentContext;
 import org.wso2.carbon.identity.user.store.ws.CleanupSchedulerTask;
 import org.wso2.carbon.identity.user.store.ws.WSUserStoreManager;
+import org.wso2.carbon.identity.user.store.ws.util.HttpClientProvider;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.user.api.UserStoreManager;
 import org.wso2.carbon.user.core.service.RealmService;
@@ -42,10 +43,14 @@ import java.util.Timer;
 public class WSUserStoreDSComponent {
 
     private static Log log = LogFactory.getLog(WSUserStoreDSComponent.class);
+    private static final long SHUTDOWN_TIMEOUT_MILLIS = 10 * 1000;
+
+    private Timer cleanupTimer;
 
     protected void activate(ComponentContext ctxt) {
         try {
 
+            HttpClientProvider.getInstance().activate();
             UserStoreManager remoteStoreManager = new WSUserStoreManager();
             ctxt.getBundleContext().registerService(UserStoreManager.class.getName(),
                     remoteStoreManager, null);
@@ -61,6 +66,11 @@ public class WSUserStoreDSComponent {
     }
 
     protected void deactivate(ComponentContext ctxt) {
+        if (cleanupTimer != null) {
+            cleanupTimer.cancel();
+            cleanupTimer = null;
+        }
+        HttpClientProvider.getInstance().shutdown(SHUTDOWN_TIMEOUT_MILLIS);
         if (log.isDebugEnabled()) {
             log.debug("Carbon Carbon Remote User Store is deactivated ");
         }
@@ -90,8 +100,8 @@ public class WSUserStoreDSComponent {
     }
 
     private void scheduleCleanupTask(){
-        Timer time = new Timer();
+        cleanupTimer = new Timer(true);
         CleanupSchedulerTask cleanupSchedulerTask = new CleanupSchedulerTask();
-        time.schedule(cleanupSchedulerTask, 0, 5 * 60 * 60 * 1000);
+        cleanupTimer.schedule(cleanupSchedulerTask, 0, 5 * 60 * 60 * 1000);
     }
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2019, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.user.store.ws.util;
+
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Provides the pooled HTTP client used to call the agents and tracks the requests in progress, so that the pool
+ * can be drained and closed when the component is deactivated.
+ */
+public class HttpClientProvider {
+
+    private static Log log = LogFactory.getLog(HttpClientProvider.class);
+
+    private static final int MAX_CONNECTIONS_PER_HOST = 50;
+    private static final int MAX_TOTAL_CONNECTIONS = 200;
+
+    private static HttpClientProvider instance = new HttpClientProvider();
+
+    private final Object lock = new Object();
+    private MultiThreadedHttpConnectionManager connectionManager;
+    private int inFlightRequests;
+    private boolean accepting = true;
+
+    private HttpClientProvider() {
+    }
+
+    public static HttpClientProvider getInstance() {
+        return instance;
+    }
+
+    /**
+     * Get a HTTP client backed by the shared connection pool
+     * @return HTTP client
+     */
+    public HttpClient getHttpClient() {
+        synchronized (lock) {
+            if (connectionManager == null) {
+                connectionManager = new MultiThreadedHttpConnectionManager();
+                connectionManager.getParams().setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS_PER_HOST);
+                connectionManager.getParams().setMaxTotalConnections(MAX_TOTAL_CONNECTIONS);
+                connectionManager.getParams().setStaleCheckingEnabled(true);
+            }
+            return new HttpClient(connectionManager);
+        }
+    }
+
+    /**
+     * Register the start of a request to an agent
+     * @return false if the component is shutting down and the request must not be sent
+     */
+    public boolean beginRequest() {
+        synchronized (lock) {
+            if (!accepting) {
+                return false;
+            }
+            inFlightRequests++;
+            return true;
+        }
+    }
+
+    /**
+     * Register the completion of a request started with {@link #beginRequest()}
+     */
+    public void endRequest() {
+        synchronized (lock) {
+            inFlightRequests--;
+            if (inFlightRequests == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Accept requests again after a shutdown.
+     */
+    public void activate() {
+        synchronized (lock) {
+            accepting = true;
+        }
+    }
+
+    /**
+     * Stop accepting new requests, wait for the requests in progress and close the pooled connections.
+     * @param drainTimeoutMillis Maximum time to wait for requests in progress in milliseconds
+     */
+    public void shutdown(long drainTimeoutMillis) {
+        synchronized (lock) {
+            accepting = false;
+            long deadline = System.currentTimeMillis() + drainTimeoutMillis;
+            long remaining = drainTimeoutMillis;
+            try {
+                while (inFlightRequests > 0 && remaining > 0) {
+                    lock.wait(remaining);
+                    remaining = deadline - System.currentTimeMillis();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (inFlightRequests > 0) {
+                log.warn(inFlightRequests + " agent requests still in progress after " + drainTimeoutMillis +
+                        "ms. Closing the connections.");
+            }
+            if (connectionManager != null) {
+                connectionManager.shutdown();
+                connectionManager = null;
+            }
+        }
+    }
+}